@@ -0,0 +1,52 @@
+package bench;
+
+import sample.AllNeed.ChunkChecksum;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * 分块校验算法吞吐基准
+ *
+ * <p>在内存中的同一块数据上比较{@link ChunkChecksum}各算法的吞吐（MB/s），排除磁盘影响。
+ * 用法：{@code java bench.ChecksumBench [块大小MB] [轮数]}，默认10MB（与{@code FileInfo.chunk_size}一致）、5轮。
+ * 第一轮为预热，只统计之后的轮次。
+ */
+public class ChecksumBench {
+    private static final String[] ALGORITHMS = {ChunkChecksum.SHA256, ChunkChecksum.XXH64, ChunkChecksum.CRC32};
+
+    public static void main(String[] args) {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        byte[] data = new byte[megabytes * 1024 * 1024];
+        new Random(1).nextBytes(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        for (String name : ALGORITHMS) {
+            ChunkChecksum.Accumulator acc = ChunkChecksum.of(name).newAccumulator();
+            acc.update(data, 0, data.length);
+            String heap = acc.finishHex();
+            direct.clear();
+            acc.update(direct);
+            System.out.printf("%-7s %s heapEqualsDirect=%b%n", name, heap, heap.equals(acc.finishHex()));
+        }
+        for (int r = 0; r <= rounds; r++) {
+            StringBuilder line = new StringBuilder("round " + r);
+            for (String name : ALGORITHMS) {
+                ChunkChecksum.Accumulator acc = ChunkChecksum.of(name).newAccumulator();
+                long t0 = System.nanoTime();
+                // 与索引一致：按1MB直接缓冲区分段累加
+                for (int pos = 0; pos < data.length; pos += 1024 * 1024) {
+                    direct.limit(Math.min(data.length, pos + 1024 * 1024)).position(pos);
+                    acc.update(direct);
+                }
+                acc.finishHex();
+                long nanos = System.nanoTime() - t0;
+                line.append(String.format("  %s %8.1f MB/s", name, (data.length / 1048576.0) / (nanos / 1e9)));
+            }
+            if (r > 0) {
+                System.out.println(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package bench;
+
+import sample.AllNeed.BinaryManifest;
+import sample.AllNeed.ChunkSizePolicy;
+import sample.AllNeed.FileHasher;
+import sample.AllNeed.FileInfo;
+import sample.AllNeed.FileListSnapshot;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 块大小策略基准
+ *
+ * <p>对一组文件大小比较{@link ChunkSizePolicy}两种策略的效果（不读磁盘，块哈希随机生成）：
+ * <ul>
+ *   <li>chunk：选中的块大小；chunks：块数</li>
+ *   <li>manifest：单个文件的二进制清单字节数（JSON列表约为其4~5倍）</li>
+ *   <li>heap：构造该文件的块列表分配的堆内存（HotSpot线程分配计数，多次取中位数）</li>
+ *   <li>buffer：按块接收并校验时一块需要的缓冲，即{@code min(块大小, 文件大小)}</li>
+ * </ul>
+ * 用法：{@code java bench.ChunkSizeBench [轮数]}，默认5轮。
+ */
+public class ChunkSizeBench {
+    private static final long[] SIZES = {4L << 10, 1L << 20, 100L << 20, 10L << 30, 500L << 30};
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        System.out.printf("%-10s %-9s %10s %9s %12s %12s %10s%n",
+                "size", "policy", "chunk", "chunks", "manifest", "heap", "buffer");
+        for (long size : SIZES) {
+            for (String policy : new String[]{ChunkSizePolicy.FIXED, ChunkSizePolicy.ADAPTIVE}) {
+                System.setProperty(ChunkSizePolicy.PROPERTY, policy);
+                long chunkSize = ChunkSizePolicy.chunkSize(size, ChunkSizePolicy.Mode.SYNC);
+                int count = (int) ((size + chunkSize - 1) / chunkSize);
+                FileInfo info = synthetic(size, chunkSize, count);
+                int manifest = BinaryManifest.encode(
+                        new FileListSnapshot(1, Collections.singletonMap(info.filename, info)), false).length;
+                List<Long> heaps = new ArrayList<>();
+                for (int r = 0; r < rounds; r++) {
+                    heaps.add(allocated(size, chunkSize, count));
+                }
+                Collections.sort(heaps);
+                System.out.printf("%-10s %-9s %10s %9d %12s %12s %10s%n", human(size), policy, human(chunkSize),
+                        count, human(manifest), human(heaps.get(heaps.size() / 2)), human(Math.min(chunkSize, size)));
+            }
+        }
+        System.clearProperty(ChunkSizePolicy.PROPERTY);
+    }
+
+    private static FileInfo synthetic(long size, long chunkSize, int count) {
+        Random random = new Random(count);
+        byte[] hash = new byte[32];
+        List<FileInfo.ChunkInfo> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(hash);
+            chunks.add(new FileInfo.ChunkInfo(i + 1, FileHasher.toHex(hash)));
+        }
+        random.nextBytes(hash);
+        return new FileInfo("bench.bin", count, chunks, size, FileHasher.toHex(hash), chunkSize);
+    }
+
+    /**
+     * 构造一个文件信息并测量分配的堆内存
+     */
+    private static long allocated(long size, long chunkSize, int count) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        FileInfo info = synthetic(size, chunkSize, count);
+        long after = threads.getThreadAllocatedBytes(id);
+        if (info.chunks.size() != count) {
+            throw new IllegalStateException();
+        }
+        return after - before;
+    }
+
+    private static String human(long bytes) {
+        String[] units = {"B", "KB", "MB", "GB"};
+        double value = bytes;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return unit == 0 ? bytes + "B" : String.format("%.1f%s", value, units[unit]);
+    }
+}
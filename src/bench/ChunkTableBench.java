@@ -0,0 +1,146 @@
+package bench;
+
+import sample.AllNeed.ChunkTable;
+import sample.AllNeed.FileHasher;
+import sample.AllNeed.FileInfo;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 分块表内存基准
+ *
+ * <p>构造一个共{@value #FILES}个文件、每个文件{@value #CHUNKS_PER_FILE}块（合计100万块SHA-256）的文件目录，比较两种分块存储：
+ * <ul>
+ *   <li>objects：每块一个{@link FileInfo.ChunkInfo}与64字符十六进制字符串（{@link ChunkTable}之前{@link FileInfo}保留的形式）</li>
+ *   <li>table：{@link ChunkTable}，校验值连续存放在一个byte[]中</li>
+ * </ul>
+ * 输出：retained为构造完成并GC后仍占用的堆内存（目录只需保留一份，本地列表、远端列表、客户端显示各一份时乘3），
+ * per chunk为平均每块字节数，allocated为构造期间分配的堆内存（HotSpot线程分配计数），
+ * scan为逐块比较两份相同目录所有校验值的耗时（objects比较字符串，table按下标比较字节，取{@value #SCAN_ROUNDS}轮最小值）。
+ * 用法：{@code java -Xmx1g -XX:+UseParallelGC bench.ChunkTableBench}（G1在{@code System.gc()}后的占用统计波动较大）。
+ */
+public class ChunkTableBench {
+    private static final int FILES = 1000;
+    private static final int CHUNKS_PER_FILE = 1000;
+    private static final long CHUNK_SIZE = 64 * 1024;
+    private static final int SCAN_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        System.out.printf("%-8s %12s %10s %12s %10s%n", "layout", "retained", "per chunk", "allocated", "scan");
+        for (String layout : new String[]{"objects", "table"}) {
+            long before = usedAfterGc();
+            long allocatedBefore = allocated();
+            List<FileInfo> catalog = build(layout);
+            long allocatedBytes = allocated() - allocatedBefore;
+            long retained = usedAfterGc() - before;
+            List<FileInfo> copy = build(layout);
+            long scanMillis = Long.MAX_VALUE;
+            for (int r = 0; r < SCAN_ROUNDS; r++) {
+                long start = System.nanoTime();
+                int same = scan(layout, catalog, copy);
+                scanMillis = Math.min(scanMillis, (System.nanoTime() - start) / 1_000_000);
+                if (same != FILES * CHUNKS_PER_FILE) {
+                    throw new IllegalStateException("比较结果不符: " + same);
+                }
+            }
+            System.out.printf("%-8s %12s %9dB %12s %8dms%n", layout, human(retained),
+                    retained / ((long) FILES * CHUNKS_PER_FILE), human(allocatedBytes), scanMillis);
+            catalog.clear();
+            copy.clear();
+        }
+    }
+
+    private static List<FileInfo> build(String layout) {
+        Random random = new Random(42);
+        byte[] digest = new byte[32];
+        List<FileInfo> catalog = new ArrayList<>(FILES);
+        long size = CHUNK_SIZE * CHUNKS_PER_FILE;
+        for (int f = 0; f < FILES; f++) {
+            if ("objects".equals(layout)) {
+                List<FileInfo.ChunkInfo> chunks = new ArrayList<>(CHUNKS_PER_FILE);
+                for (int i = 0; i < CHUNKS_PER_FILE; i++) {
+                    random.nextBytes(digest);
+                    chunks.add(new FileInfo.ChunkInfo(i + 1, FileHasher.toHex(digest), i * CHUNK_SIZE, (int) CHUNK_SIZE));
+                }
+                catalog.add(new LegacyFileInfo("file" + f, chunks));
+            } else {
+                ChunkTable.Builder chunks = new ChunkTable.Builder(CHUNKS_PER_FILE);
+                for (int i = 0; i < CHUNKS_PER_FILE; i++) {
+                    random.nextBytes(digest);
+                    chunks.add(digest, 0, digest.length, i * CHUNK_SIZE, (int) CHUNK_SIZE);
+                }
+                catalog.add(new FileInfo("file" + f, CHUNKS_PER_FILE, chunks.build(size, CHUNK_SIZE), size, null));
+            }
+        }
+        return catalog;
+    }
+
+    private static int scan(String layout, List<FileInfo> a, List<FileInfo> b) {
+        int same = 0;
+        for (int f = 0; f < a.size(); f++) {
+            if ("objects".equals(layout)) {
+                List<FileInfo.ChunkInfo> x = ((LegacyFileInfo) a.get(f)).legacyChunks;
+                List<FileInfo.ChunkInfo> y = ((LegacyFileInfo) b.get(f)).legacyChunks;
+                for (int i = 0; i < x.size(); i++) {
+                    if (x.get(i).hash.equals(y.get(i).hash)) {
+                        same++;
+                    }
+                }
+            } else {
+                ChunkTable x = a.get(f).getChunkTable();
+                ChunkTable y = b.get(f).getChunkTable();
+                for (int i = 0; i < x.size(); i++) {
+                    if (x.sameHash(i, y, i)) {
+                        same++;
+                    }
+                }
+            }
+        }
+        return same;
+    }
+
+    /**
+     * 以前的保留形式：FileInfo持有块对象列表
+     */
+    private static final class LegacyFileInfo extends FileInfo {
+        final List<FileInfo.ChunkInfo> legacyChunks;
+
+        LegacyFileInfo(String name, List<FileInfo.ChunkInfo> chunks) {
+            this.filename = name;
+            this.total_chunks = chunks.size();
+            this.legacyChunks = chunks;
+        }
+    }
+
+    private static long usedAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long allocated() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String human(long bytes) {
+        String[] units = {"B", "KB", "MB", "GB"};
+        double value = bytes;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return unit == 0 ? bytes + "B" : String.format("%.1f%s", value, units[unit]);
+    }
+}
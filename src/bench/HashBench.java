@@ -0,0 +1,114 @@
+package bench;
+
+import sample.AllNeed.FileHasher;
+import sample.AllNeed.FileInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * 文件哈希吞吐基准
+ *
+ * <p>对同一文件比较三种读取方式的吞吐（MB/s）：
+ * <ul>
+ *   <li>raw：只读取不计算，作为磁盘/页缓存速度的上限</li>
+ *   <li>legacy：旧实现的两遍读取（整体哈希一遍 + 分块哈希一遍，逐字节String.format）</li>
+ *   <li>engine：{@link FileHasher#hashFile(Path)}单遍读取</li>
+ * </ul>
+ * 用法：{@code java bench.HashBench [文件] [轮数]}，不指定文件时生成256MB临时文件。
+ * 第一轮为预热（文件进入页缓存、JIT编译），只统计之后的轮次。
+ */
+public class HashBench {
+    public static void main(String[] args) throws Exception {
+        Path file;
+        boolean temp = args.length == 0;
+        if (temp) {
+            file = Files.createTempFile("hashbench", ".bin");
+            byte[] block = new byte[1024 * 1024];
+            new Random(1).nextBytes(block);
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                for (int i = 0; i < 256; i++) {
+                    out.write(ByteBuffer.wrap(block));
+                }
+            }
+        } else {
+            file = Paths.get(args[0]);
+        }
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long size = Files.size(file);
+        try {
+            String engineHash = FileHasher.hashFile(file).getFileHash();
+            String legacyHash = legacy(file);
+            System.out.printf("file=%s size=%dMB hashesEqual=%b%n", file, size >> 20, engineHash.equals(legacyHash));
+            for (int r = 0; r <= rounds; r++) {
+                long t0 = System.nanoTime();
+                raw(file);
+                long t1 = System.nanoTime();
+                legacy(file);
+                long t2 = System.nanoTime();
+                FileHasher.hashFile(file);
+                long t3 = System.nanoTime();
+                if (r > 0) {
+                    System.out.printf("round %d  raw %7.1f MB/s  legacy %7.1f MB/s  engine %7.1f MB/s%n",
+                            r, rate(size, t1 - t0), rate(size, t2 - t1), rate(size, t3 - t2));
+                }
+            }
+        } finally {
+            if (temp) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static double rate(long bytes, long nanos) {
+        return (bytes / 1048576.0) / (nanos / 1e9);
+    }
+
+    private static void raw(Path file) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buf) >= 0) {
+                buf.clear();
+            }
+        }
+    }
+
+    /**
+     * 旧实现：整体哈希与分块哈希各读一遍
+     */
+    private static String legacy(Path file) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        try (InputStream is = Files.newInputStream(file); DigestInputStream dis = new DigestInputStream(is, md)) {
+            byte[] buffer = new byte[8192];
+            while (dis.read(buffer) != -1) ;
+        }
+        String whole = hex(md.digest());
+        try (InputStream is = Files.newInputStream(file)) {
+            byte[] buffer = new byte[(int) FileInfo.chunk_size];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                MessageDigest chunk = MessageDigest.getInstance("SHA-256");
+                chunk.update(buffer, 0, read);
+                hex(chunk.digest());
+            }
+        }
+        return whole;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,370 @@
+package sample.AllNeed;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 异步批量日志写入器（服务器与客户端共用）
+ *
+ * <p>日志调用方只做一次无锁入队，文件打开、写入、刷盘全部由单个后台写线程完成：
+ * <ul>
+ *   <li><b>无锁环形缓冲</b>：多生产者单消费者的有界环形队列（基于序号数组），入队不加锁、不阻塞</li>
+ *   <li><b>批量写出</b>：写线程一次取出全部待写日志，写入常驻打开的缓冲流</li>
+ *   <li><b>按量/按时刷盘</b>：累计{@value #FLUSH_BYTES}字节或距首条未刷盘日志超过刷盘间隔时flush</li>
+ *   <li><b>文件滚动</b>：按大小滚动（{@code name.1 ... name.N}）或按日期滚动（文件名含日期）</li>
+ * </ul>
+ *
+ * <p>缓冲区满时新日志被丢弃并计数，下一批写出时追加一条丢弃提示，保证日志调用永不阻塞业务线程。
+ *
+ * <p>配置参数（JVM系统属性）：{@value #BUFFER_PROPERTY}环形缓冲容量（默认8192条），
+ * {@value #FLUSH_PROPERTY}刷盘间隔毫秒（默认200）。
+ *
+ * @see CachedClock 配套的秒级缓存时间戳
+ * @since 2025.3.22
+ */
+public final class AsyncLogWriter {
+    static final String BUFFER_PROPERTY = "p2p.log.buffer";
+    static final String FLUSH_PROPERTY = "p2p.log.flushMillis";
+    private static final int FLUSH_BYTES = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = 1_000_000_000L;
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final String[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final long flushIntervalNanos;
+    private final Target target;
+    private final Thread writer;
+    private volatile Consumer<IOException> errorHandler = e -> System.err.println(" 日志写入失败: " + e.getMessage());
+    private volatile boolean sleeping;
+    private volatile boolean running = true;
+    private long head;
+
+    private AsyncLogWriter(Target target, String name) {
+        int capacity = Integer.highestOneBit(Math.max(2, Integer.getInteger(BUFFER_PROPERTY, 8192)) * 2 - 1);
+        this.slots = new String[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+        this.flushIntervalNanos = Long.getLong(FLUSH_PROPERTY, 200L) * 1_000_000L;
+        this.target = target;
+        this.writer = new Thread(this::drainLoop, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, name + "-shutdown"));
+    }
+
+    /**
+     * 创建按大小滚动的日志写入器
+     *
+     * @param file     当前日志文件（如logs/server.log）
+     * @param maxBytes 单文件大小上限，超过后滚动
+     * @param backups  保留的历史文件数（file.1为最新）
+     * @return 已启动的写入器
+     */
+    public static AsyncLogWriter sizeRotating(Path file, long maxBytes, int backups) {
+        return new AsyncLogWriter(new SizeTarget(file, maxBytes, backups), "log-writer-" + file.getFileName());
+    }
+
+    /**
+     * 创建按日期滚动的日志写入器
+     *
+     * @param dir         日志目录
+     * @param prefix      文件名前缀（如"client_"）
+     * @param datePattern 文件名日期格式（如"yyyyMMdd"）
+     * @param suffix      文件名后缀（如".log"）
+     * @param zone        判定日期所用时区
+     * @return 已启动的写入器
+     */
+    public static AsyncLogWriter dailyRotating(Path dir, String prefix, String datePattern, String suffix, ZoneId zone) {
+        return new AsyncLogWriter(new DailyTarget(dir, prefix, DateTimeFormatter.ofPattern(datePattern), suffix, zone),
+                "log-writer-" + prefix);
+    }
+
+    /**
+     * 设置写出失败回调（在写线程中调用）
+     */
+    public void setErrorHandler(Consumer<IOException> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * 追加一条日志（无锁、不阻塞）
+     *
+     * @param text 日志文本（原样写出，换行符由调用方负责）
+     * @return 成功入队返回true；缓冲区满被丢弃返回false
+     */
+    public boolean append(String text) {
+        long pos;
+        while (true) {
+            pos = tail.get();
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[index] = text;
+                    sequences.lazySet(index, pos + 1);
+                    break;
+                }
+            } else if (diff < 0) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        if (sleeping) {
+            sleeping = false;
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * @return 因缓冲区满累计丢弃的日志条数
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 停止写线程并写出剩余日志（同时注册为JVM关闭钩子）
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 单消费者出队
+     *
+     * @return 队首日志，队列为空时返回null
+     */
+    private String poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        String text = slots[index];
+        slots[index] = null;
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+        return text;
+    }
+
+    private void drainLoop() {
+        long unflushedBytes = 0;
+        long flushDeadline = 0;
+        long reportedDrops = 0;
+        while (true) {
+            boolean stopping = !running;
+            try {
+                int written = 0;
+                String text;
+                while ((text = poll()) != null) {
+                    if (unflushedBytes == 0) {
+                        flushDeadline = System.nanoTime() + flushIntervalNanos;
+                    }
+                    unflushedBytes += target.write(text.getBytes(CHARSET));
+                    if (unflushedBytes >= FLUSH_BYTES) {
+                        target.flush();
+                        unflushedBytes = 0;
+                    }
+                    written++;
+                }
+                long drops = dropped.get();
+                if (written > 0 && drops != reportedDrops) {
+                    String note = "[日志缓冲区已满，丢弃 " + (drops - reportedDrops) + " 条]" + System.lineSeparator();
+                    unflushedBytes += target.write(note.getBytes(CHARSET));
+                    reportedDrops = drops;
+                }
+                if (unflushedBytes > 0 && (stopping || System.nanoTime() - flushDeadline >= 0)) {
+                    target.flush();
+                    unflushedBytes = 0;
+                }
+                if (stopping) {
+                    target.close();
+                    return;
+                }
+                if (written == 0) {
+                    sleeping = true;
+                    if (sequences.get((int) (head & mask)) == head + 1 || !running) {
+                        sleeping = false;
+                        continue;
+                    }
+                    LockSupport.parkNanos(this, unflushedBytes > 0
+                            ? Math.max(1, flushDeadline - System.nanoTime()) : IDLE_PARK_NANOS);
+                    sleeping = false;
+                }
+            } catch (IOException e) {
+                unflushedBytes = 0;
+                target.reset();
+                errorHandler.accept(e);
+                if (stopping) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 日志输出目标：负责常驻打开的文件流与滚动（只在写线程中访问）
+     */
+    private abstract static class Target {
+        private OutputStream out;
+        long size;
+
+        abstract Path currentFile() throws IOException;
+
+        /**
+         * 写出前检查是否需要滚动
+         */
+        abstract boolean shouldRotate(int nextBytes);
+
+        void beforeOpen() throws IOException {
+        }
+
+        int write(byte[] bytes) throws IOException {
+            if (out != null && shouldRotate(bytes.length)) {
+                close();
+                beforeOpen();
+            }
+            if (out == null) {
+                Path file = currentFile();
+                if (file.getParent() != null) {
+                    Files.createDirectories(file.getParent());
+                }
+                size = Files.exists(file) ? Files.size(file) : 0;
+                out = new BufferedOutputStream(new FileOutputStream(file.toFile(), true), FLUSH_BYTES);
+            }
+            out.write(bytes);
+            size += bytes.length;
+            return bytes.length;
+        }
+
+        void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        void close() throws IOException {
+            if (out != null) {
+                OutputStream o = out;
+                out = null;
+                o.close();
+            }
+        }
+
+        /**
+         * 写出失败后丢弃当前流，下次写入时重新打开
+         */
+        void reset() {
+            try {
+                close();
+            } catch (IOException ignored) {
+                // 流已损坏
+            }
+        }
+    }
+
+    /**
+     * 按大小滚动：file -> file.1 -> file.2 ... -> file.N（最旧的被删除）
+     */
+    private static final class SizeTarget extends Target {
+        private final Path file;
+        private final long maxBytes;
+        private final int backups;
+
+        SizeTarget(Path file, long maxBytes, int backups) {
+            this.file = file;
+            this.maxBytes = maxBytes;
+            this.backups = backups;
+        }
+
+        @Override
+        Path currentFile() {
+            return file;
+        }
+
+        @Override
+        boolean shouldRotate(int nextBytes) {
+            return size > 0 && size + nextBytes > maxBytes;
+        }
+
+        @Override
+        void beforeOpen() throws IOException {
+            if (backups <= 0) {
+                Files.deleteIfExists(file);
+                return;
+            }
+            Files.deleteIfExists(backup(backups));
+            for (int i = backups - 1; i >= 1; i--) {
+                if (Files.exists(backup(i))) {
+                    Files.move(backup(i), backup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (Files.exists(file)) {
+                Files.move(file, backup(1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        private Path backup(int index) {
+            return file.resolveSibling(file.getFileName() + "." + index);
+        }
+    }
+
+    /**
+     * 按日期滚动：文件名由日期决定，日期变化时切换到新文件
+     */
+    private static final class DailyTarget extends Target {
+        private final Path dir;
+        private final String prefix;
+        private final DateTimeFormatter dateFormat;
+        private final String suffix;
+        private final ZoneId zone;
+        private LocalDate openedDate;
+
+        DailyTarget(Path dir, String prefix, DateTimeFormatter dateFormat, String suffix, ZoneId zone) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.dateFormat = dateFormat;
+            this.suffix = suffix;
+            this.zone = zone;
+        }
+
+        @Override
+        Path currentFile() {
+            openedDate = LocalDate.now(zone);
+            return dir.resolve(prefix + dateFormat.format(openedDate) + suffix);
+        }
+
+        @Override
+        boolean shouldRotate(int nextBytes) {
+            return !LocalDate.now(zone).equals(openedDate);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package sample.AllNeed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 紧凑二进制文件清单（文件列表的二进制编码，与JSON {@code protocol_version 1.0}并存）
+ *
+ * <p>请求方在列表请求后附加{@value #TOKEN}参数协商（节点间为{@code LIST_REQUEST bin}，
+ * 服务器分帧协议下为{@code fl bin}），对端以{@value #HEADER}行或{@link ControlFrame#FILE_LIST_BIN}帧应答：
+ * <pre>
+ * 'P' '2' 'P' 'M' | 版本(1B)=3 | 快照版本(varint) | 文件数(varint)
+ * 每个文件：
+ *   文件名长度(varint) + UTF-8文件名 | 文件大小(varint) | 分块算法(1B) | 标志(1B)
+ *   [整体SHA-256 32B，标志bit2]
+ *   固定分块：块大小(varint) | 块数(varint)
+ *   内容定义分块（标志bit0）：块数(varint)
+ *   只含根（标志bit1）：Merkle根 32B
+ *   否则每块：块校验值(按算法 32/8/4B) [+ 块长度(varint)，仅内容定义分块]
+ * </pre>
+ * <ul>
+ *   <li><b>原始摘要</b>：哈希以字节写出，不再是两倍长度的十六进制文本</li>
+ *   <li><b>无派生字段</b>：块序号、偏移由顺序与长度推算，固定分块连长度也不写</li>
+ *   <li><b>流式读写</b>：逐个文件直接写入/读出流，不构建中间的Map与JSON树</li>
+ *   <li><b>有界读取</b>：文件名、文件数、块数超出上限视为协议错误，不按对端声明的长度分配内存</li>
+ * </ul>
+ *
+ * @see FileListManager#buildFileListJson(boolean) JSON格式
+ * @since 2025.3.22
+ */
+public final class BinaryManifest {
+    /**
+     * 协商参数
+     */
+    public static final String TOKEN = "bin";
+    /**
+     * 行协议下二进制清单之前的应答行
+     */
+    public static final String HEADER = "File_List_Bin";
+    /**
+     * 请求方使用的列表格式：json / bin（默认json）
+     */
+    public static final String FORMAT_PROPERTY = "p2p.list.format";
+
+    private static final byte[] MAGIC = {'P', '2', 'P', 'M'};
+    private static final int VERSION = 3;
+    private static final String[] ALGORITHMS = {ChunkChecksum.SHA256, ChunkChecksum.XXH64, ChunkChecksum.CRC32};
+    private static final int FLAG_CDC = 1;
+    private static final int FLAG_ROOTS_ONLY = 2;
+    private static final int FLAG_FILE_HASH = 4;
+    private static final int MAX_NAME = 4096;
+    private static final int MAX_FILES = 1 << 20;
+    private static final int MAX_CHUNKS = 1 << 24;
+
+    private BinaryManifest() {
+    }
+
+    /**
+     * @return 是否按{@value #FORMAT_PROPERTY}请求二进制清单
+     */
+    public static boolean enabled() {
+        return TOKEN.equalsIgnoreCase(System.getProperty(FORMAT_PROPERTY));
+    }
+
+    /**
+     * 写出清单（不关闭流）
+     *
+     * @param snapshot  文件列表快照
+     * @param rootsOnly 为true时每个文件只写Merkle根
+     * @param stream    输出流
+     */
+    public static void write(FileListSnapshot snapshot, boolean rootsOnly, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        writeVarLong(out, snapshot.version);
+        writeVarLong(out, snapshot.files.size());
+        for (FileInfo file : snapshot.files.values()) {
+            byte[] name = file.filename.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, name.length);
+            out.write(name);
+            writeVarLong(out, file.getFileSize());
+            out.writeByte(algorithmCode(file.getChunkAlgorithm()));
+            boolean cdc = FastCdc.CDC.equals(file.getChunking());
+            String fileHash = file.getFileHash();
+            out.writeByte((cdc ? FLAG_CDC : 0) | (rootsOnly ? FLAG_ROOTS_ONLY : 0)
+                    | (fileHash != null ? FLAG_FILE_HASH : 0));
+            if (fileHash != null) {
+                out.write(FileHasher.fromHex(fileHash));
+            }
+            if (!cdc) {
+                writeVarLong(out, file.getChunkSize());
+            }
+            writeVarLong(out, file.chunks.size());
+            if (rootsOnly) {
+                out.write(FileHasher.fromHex(file.getMerkleRoot()));
+                continue;
+            }
+            ChunkTable table = file.getChunkTable();
+            for (int i = 0; i < table.size(); i++) {
+                table.writeDigest(i, out);
+                if (cdc) {
+                    writeVarLong(out, table.length(i));
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * 编码为字节数组（用于分帧协议）
+     */
+    public static byte[] encode(FileListSnapshot snapshot, boolean rootsOnly) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try {
+            write(snapshot, rootsOnly, buf);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // 内存流不会失败
+        }
+        return buf.toByteArray();
+    }
+
+    /**
+     * 读取清单（读到清单末尾为止，之后的数据保留在流中）
+     *
+     * @return 快照版本与文件列表（文件顺序与写出顺序一致）
+     * @throws ProtocolException 格式错误或超出上限
+     * @throws EOFException      清单中途流结束
+     */
+    public static FileListSnapshot read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new ProtocolException("不是二进制文件清单");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new ProtocolException("二进制清单版本不兼容: " + version);
+        }
+        long snapshotVersion = readVarLong(in);
+        int fileCount = bounded(readVarLong(in), MAX_FILES, "文件数");
+        Map<String, FileInfo> files = new LinkedHashMap<>();
+        for (int f = 0; f < fileCount; f++) {
+            byte[] name = new byte[bounded(readVarLong(in), MAX_NAME, "文件名长度")];
+            in.readFully(name);
+            long size = readVarLong(in);
+            int code = in.readUnsignedByte();
+            if (code >= ALGORITHMS.length) {
+                throw new ProtocolException("未知分块算法: " + code);
+            }
+            ChunkChecksum algorithm = ChunkChecksum.of(ALGORITHMS[code]);
+            int flags = in.readUnsignedByte();
+            boolean cdc = (flags & FLAG_CDC) != 0;
+            String fileHash = null;
+            if ((flags & FLAG_FILE_HASH) != 0) {
+                fileHash = readHex(in, 32);
+            }
+            long chunkSize = cdc ? 0 : readVarLong(in);
+            int chunkCount = bounded(readVarLong(in), MAX_CHUNKS, "块数");
+            if (!cdc && chunkCount > 0 && chunkSize <= 0) {
+                throw new ProtocolException("块大小非法: " + chunkSize);
+            }
+            String merkleRoot = null;
+            // 块数来自对端，只按上限预分配，其余随读到的块增长（截断的清单不会先占满内存）
+            ChunkTable.Builder chunks = new ChunkTable.Builder(
+                    (flags & FLAG_ROOTS_ONLY) != 0 ? 0 : Math.min(chunkCount, 1024));
+            if ((flags & FLAG_ROOTS_ONLY) != 0) {
+                merkleRoot = readHex(in, 32);
+            } else {
+                byte[] digest = new byte[algorithm.digestLength()];
+                long offset = 0;
+                for (int i = 0; i < chunkCount; i++) {
+                    in.readFully(digest);
+                    long length = cdc ? readVarLong(in) : Math.min(chunkSize, size - offset);
+                    if (length < 0 || length > Integer.MAX_VALUE) {
+                        throw new ProtocolException("块长度非法: " + length);
+                    }
+                    chunks.add(digest, 0, digest.length, offset, (int) length);
+                    offset += length;
+                }
+            }
+            FileInfo info = new FileInfo(new String(name, StandardCharsets.UTF_8), chunkCount,
+                    chunks.build(size, cdc ? FileInfo.chunk_size : chunkSize), size, fileHash);
+            info.setChunkAlgorithm(algorithm.name());
+            info.setChunking(cdc ? FastCdc.CDC : FastCdc.FIXED);
+            info.setMerkleRoot(merkleRoot);
+            files.put(info.filename, info);
+        }
+        return new FileListSnapshot(snapshotVersion, files);
+    }
+
+    private static int algorithmCode(String name) {
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            if (ALGORITHMS[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("不支持的分块算法: " + name);
+    }
+
+    private static String readHex(DataInputStream in, int length) throws IOException {
+        byte[] raw = new byte[length];
+        in.readFully(raw);
+        return FileHasher.toHex(raw);
+    }
+
+    private static int bounded(long value, int max, String what) throws ProtocolException {
+        if (value < 0 || value > max) {
+            throw new ProtocolException(what + "超出限制: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * 无符号LEB128变长整数（每字节7位，高位为延续标志）
+     */
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("变长整数过长");
+    }
+}
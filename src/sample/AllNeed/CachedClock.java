@@ -0,0 +1,54 @@
+package sample.AllNeed;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 秒级缓存的时间戳格式化器（线程安全）
+ *
+ * <p>日志时间戳精确到秒，同一秒内的所有调用直接返回已格式化的字符串，
+ * 每秒只做一次{@link DateTimeFormatter}格式化，避免每条日志重复创建格式化器与时区换算。
+ *
+ * @since 2025.3.22
+ */
+public final class CachedClock {
+    private final DateTimeFormatter formatter;
+    private volatile Tick tick = new Tick(Long.MIN_VALUE, "");
+
+    /**
+     * @param pattern 时间格式（精度不应高于秒）
+     * @param zone    时区
+     */
+    public CachedClock(String pattern, ZoneId zone) {
+        this.formatter = DateTimeFormatter.ofPattern(pattern).withZone(zone);
+    }
+
+    /**
+     * 获取当前时间的格式化字符串
+     *
+     * @return 当前秒对应的缓存字符串
+     */
+    public String now() {
+        long second = System.currentTimeMillis() / 1000;
+        Tick current = tick;
+        if (current.second != second) {
+            current = new Tick(second, formatter.format(Instant.ofEpochSecond(second)));
+            tick = current;
+        }
+        return current.text;
+    }
+
+    /**
+     * 不可变的（秒, 文本）对，保证读取到的两个字段始终匹配
+     */
+    private static final class Tick {
+        final long second;
+        final String text;
+
+        Tick(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package sample.AllNeed;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * 分块校验算法（可插拔）
+ *
+ * <p>分块哈希主要用于变化检测与传输完整性，不需要抗碰撞，可选用更快的非密码学算法；
+ * 文件整体哈希始终为SHA-256，作为文件身份。
+ * <table border="1">
+ *   <caption>可选算法</caption>
+ *   <tr><th>名称</th><th>输出</th><th>说明</th></tr>
+ *   <tr><td>{@value #SHA256}</td><td>64位十六进制</td><td>默认，与旧版本兼容</td></tr>
+ *   <tr><td>{@value #XXH64}</td><td>16位十六进制</td><td>xxHash64（种子0），纯Java实现</td></tr>
+ *   <tr><td>{@value #CRC32}</td><td>8位十六进制</td><td>{@link CRC32}，JDK内置</td></tr>
+ * </table>
+ * 由启动参数{@value #PROPERTY}选择；文件列表中每个文件携带{@code chunk_algorithm}字段，
+ * 对端据此判断块哈希是否可直接比较（算法不同时只能比较整体哈希）。
+ *
+ * @see FileHasher 使用方
+ * @since 2025.3.22
+ */
+public abstract class ChunkChecksum {
+    public static final String PROPERTY = "p2p.chunk.algorithm";
+    public static final String SHA256 = "sha256";
+    public static final String XXH64 = "xxh64";
+    public static final String CRC32 = "crc32";
+
+    private static final ChunkChecksum SHA256_CHECKSUM = new ChunkChecksum(SHA256, 32) {
+        @Override
+        public Accumulator newAccumulator() {
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            return new Accumulator() {
+                @Override
+                public void update(ByteBuffer buf) {
+                    md.update(buf);
+                }
+
+                @Override
+                public void update(byte[] data, int offset, int length) {
+                    md.update(data, offset, length);
+                }
+
+                @Override
+                public String finishHex() {
+                    return FileHasher.toHex(md.digest());
+                }
+
+                @Override
+                public void reset() {
+                    md.reset();
+                }
+            };
+        }
+    };
+
+    private static final ChunkChecksum CRC32_CHECKSUM = new ChunkChecksum(CRC32, 4) {
+        @Override
+        public Accumulator newAccumulator() {
+            CRC32 crc = new CRC32();
+            return new Accumulator() {
+                @Override
+                public void update(ByteBuffer buf) {
+                    crc.update(buf);
+                }
+
+                @Override
+                public void update(byte[] data, int offset, int length) {
+                    crc.update(data, offset, length);
+                }
+
+                @Override
+                public String finishHex() {
+                    long value = crc.getValue();
+                    String hex = FileHasher.toHex(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16),
+                            (byte) (value >>> 8), (byte) value});
+                    crc.reset();
+                    return hex;
+                }
+
+                @Override
+                public void reset() {
+                    crc.reset();
+                }
+            };
+        }
+    };
+
+    private static final ChunkChecksum XXH64_CHECKSUM = new ChunkChecksum(XXH64, 8) {
+        @Override
+        public Accumulator newAccumulator() {
+            return new XxHash64();
+        }
+    };
+
+    private static final ChunkChecksum CONFIGURED = of(System.getProperty(PROPERTY, SHA256));
+
+    private final String name;
+    private final int digestLength;
+    private final ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(this::newAccumulator);
+
+    private ChunkChecksum(String name, int digestLength) {
+        this.name = name;
+        this.digestLength = digestLength;
+    }
+
+    /**
+     * 按名称取得算法
+     *
+     * @param name {@value #SHA256} / {@value #XXH64} / {@value #CRC32}（不区分大小写）
+     * @throws IllegalArgumentException 不支持的算法
+     */
+    public static ChunkChecksum of(String name) {
+        switch (name.toLowerCase()) {
+            case SHA256:
+                return SHA256_CHECKSUM;
+            case XXH64:
+                return XXH64_CHECKSUM;
+            case CRC32:
+                return CRC32_CHECKSUM;
+            default:
+                throw new IllegalArgumentException("不支持的分块校验算法: " + name);
+        }
+    }
+
+    /**
+     * 启动参数{@value #PROPERTY}指定的算法（默认{@value #SHA256}）
+     */
+    public static ChunkChecksum configured() {
+        return CONFIGURED;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return 校验值字节数
+     */
+    public int digestLength() {
+        return digestLength;
+    }
+
+    /**
+     * 创建一个累加器（非线程安全，可在{@link Accumulator#finishHex()}后继续复用）
+     */
+    public abstract Accumulator newAccumulator();
+
+    /**
+     * 当前线程复用的累加器（已重置）
+     */
+    Accumulator accumulator() {
+        Accumulator accumulator = accumulators.get();
+        accumulator.reset();
+        return accumulator;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * 增量计算一个块的校验值
+     */
+    public interface Accumulator {
+        /**
+         * 累加缓冲区中position到limit的字节（position移到limit）
+         */
+        void update(ByteBuffer buf);
+
+        void update(byte[] data, int offset, int length);
+
+        /**
+         * 结束当前块并返回十六进制校验值，累加器重置为初始状态
+         */
+        String finishHex();
+
+        /**
+         * 丢弃已累加的数据
+         */
+        void reset();
+    }
+}
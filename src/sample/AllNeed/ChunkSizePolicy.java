@@ -0,0 +1,81 @@
+package sample.AllNeed;
+
+/**
+ * 固定分块的块大小策略
+ *
+ * <p>块大小记录在每个{@link FileInfo}上并随文件列表（JSON的{@code chunk_size}、二进制清单的块大小字段）发送，
+ * 对端按列表中的值计算偏移，不再依赖两端相同的全局{@link FileInfo#chunk_size}。
+ * 启动参数{@code -D}{@value #PROPERTY}选择策略：
+ * <ul>
+ *   <li><b>{@value #FIXED}</b>（默认）：所有文件使用{@link FileInfo#chunk_size}，与旧版本完全一致</li>
+ *   <li><b>{@value #ADAPTIVE}</b>：按文件大小取2的幂，使块数接近目标值，并限制在上传会话允许的
+ *   [{@value #MIN_CHUNK}, {@value #MAX_CHUNK}]字节之间——小文件块小，差异同步粒度细；
+ *   超大文件块大，块列表与清单不会随文件大小无限增长</li>
+ * </ul>
+ * 传输方式影响目标块数：{@link Mode#SYNC}（文件列表与节点同步）按约{@value #SYNC_TARGET_CHUNKS}块切分；
+ * {@link Mode#UPLOAD}（可续传上传）每块一次确认与一次服务器校验，按约{@value #UPLOAD_TARGET_CHUNKS}块切分且不小于1MB。
+ *
+ * <p>切换策略后，哈希索引中块大小不符的记录会在下次扫描时重新计算。
+ *
+ * @see FileInfo#getChunkSize()
+ * @since 2025.3.22
+ */
+public final class ChunkSizePolicy {
+    public static final String PROPERTY = "p2p.chunk.policy";
+    public static final String FIXED = "fixed";
+    public static final String ADAPTIVE = "adaptive";
+    /**
+     * 块大小下限（与上传会话的下限一致）
+     */
+    public static final long MIN_CHUNK = 64 * 1024;
+    /**
+     * 块大小上限（与上传会话的上限一致）
+     */
+    public static final long MAX_CHUNK = 64 * 1024 * 1024;
+    static final long SYNC_TARGET_CHUNKS = 1024;
+    static final long UPLOAD_TARGET_CHUNKS = 256;
+    private static final long UPLOAD_MIN_CHUNK = 1024 * 1024;
+
+    /**
+     * 传输方式
+     */
+    public enum Mode {
+        /**
+         * 文件列表、节点间同步与差异比较
+         */
+        SYNC,
+        /**
+         * 可续传上传
+         */
+        UPLOAD
+    }
+
+    private ChunkSizePolicy() {
+    }
+
+    /**
+     * @return 是否开启自适应块大小
+     */
+    public static boolean adaptive() {
+        return ADAPTIVE.equalsIgnoreCase(System.getProperty(PROPERTY, FIXED));
+    }
+
+    /**
+     * 按当前策略选择块大小
+     *
+     * @param fileSize 文件大小
+     * @param mode     传输方式
+     * @return 块大小（字节）
+     */
+    public static long chunkSize(long fileSize, Mode mode) {
+        if (!adaptive()) {
+            return FileInfo.chunk_size;
+        }
+        long target = mode == Mode.UPLOAD ? UPLOAD_TARGET_CHUNKS : SYNC_TARGET_CHUNKS;
+        long min = mode == Mode.UPLOAD ? UPLOAD_MIN_CHUNK : MIN_CHUNK;
+        long wanted = (fileSize + target - 1) / target;
+        // 向上取2的幂
+        long size = wanted <= 1 ? 1 : Long.highestOneBit(wanted - 1) << 1;
+        return Math.max(min, Math.min(MAX_CHUNK, size));
+    }
+}
@@ -0,0 +1,609 @@
+package sample.AllNeed;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 内容寻址的分块存储（可选的文件存储方式）
+ *
+ * <p>启动参数{@code -D}{@value #PROPERTY}{@code =}{@value #CAS}时由{@link FileListManager}在
+ * {@code file/}{@value #DIRECTORY}下打开：
+ * <pre>
+ * file/.cas/chunks/ab/abcdef...   块内容，文件名为块内容的SHA-256（写入时校验）
+ * file/.cas/manifests/&lt;文件名的UTF-8十六进制&gt;.json   文件清单：大小、整体哈希、分块方式与各块哈希
+ * </pre>
+ * <ul>
+ *   <li><b>去重</b>：同名或不同名文件、同一文件的不同版本中相同的块只存一份，磁盘占用随不重复内容增长</li>
+ *   <li><b>传输</b>：节点同步时存储中已有的块不再下载（见{@code DeltaSyncClient#syncToStore}）</li>
+ *   <li><b>读取</b>：{@link #open}返回按清单拼接各块的只读通道，文件服务按普通文件同样发送</li>
+ * </ul>
+ * 服务器上传完成的文件（{@link FileListManager#registerVerified}）与节点同步收到的文件写入存储后不再保留普通文件；
+ * 用户直接放入{@code file/}的普通文件照常共享，同名时普通文件优先。
+ * 块以SHA-256为键，分块校验算法不是SHA-256的文件写入前按SHA-256重新计算分块。
+ * 删除或替换清单后，不再被任何清单引用的块随即删除；正被写入或读取的块（{@link #pin}）推迟到解除固定时删除，
+ * 进程退出前未删除的块在下次打开存储时清理。
+ *
+ * @since 2025.3.22
+ */
+public final class ChunkStore {
+    public static final String PROPERTY = "p2p.storage";
+    public static final String PLAIN = "plain";
+    public static final String CAS = "cas";
+    /**
+     * 存储目录名（以"."开头，目录扫描与监听会跳过）
+     */
+    public static final String DIRECTORY = ".cas";
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    private final Path chunksDir;
+    private final Path manifestsDir;
+    /**
+     * 文件名 → 清单（启动时从磁盘加载）
+     */
+    private final Map<String, FileInfo> manifests = new HashMap<>();
+    /**
+     * 块哈希 → 固定次数（写入清单前的块、打开中的文件的块；受对象锁保护）
+     */
+    private final Map<String, Integer> pins = new HashMap<>();
+    /**
+     * 已不被引用、因固定而推迟删除的块（受对象锁保护）
+     */
+    private final Set<String> deferred = new HashSet<>();
+
+    private ChunkStore(Path root) {
+        this.chunksDir = root.resolve("chunks");
+        this.manifestsDir = root.resolve("manifests");
+    }
+
+    /**
+     * @return 是否按{@value #PROPERTY}使用内容寻址存储
+     */
+    public static boolean enabled() {
+        return CAS.equalsIgnoreCase(System.getProperty(PROPERTY, PLAIN));
+    }
+
+    /**
+     * 打开存储并加载已有清单（无法解析的清单跳过）
+     *
+     * @param root 存储根目录
+     */
+    static ChunkStore open(Path root) {
+        ChunkStore store = new ChunkStore(root);
+        if (Files.isDirectory(store.manifestsDir)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(store.manifestsDir, "*.json")) {
+                for (Path file : files) {
+                    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                        Manifest manifest = new Gson().fromJson(reader, Manifest.class);
+                        if (manifest != null && manifest.filename != null && manifest.chunks != null) {
+                            store.manifests.put(manifest.filename, manifest.toFileInfo());
+                        }
+                    } catch (IOException | JsonParseException | IllegalArgumentException e) {
+                        System.err.println("文件清单读取失败: " + file.getFileName() + " " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("分块存储目录读取失败: " + e.getMessage());
+            }
+        }
+        try {
+            store.sweep();
+        } catch (IOException e) {
+            System.err.println("分块存储清理失败: " + e.getMessage());
+        }
+        return store;
+    }
+
+    /**
+     * 固定文件的全部块：固定期间块不会因其他清单的替换或删除而被删除
+     *
+     * <p>写入存储的流程须先固定再检查、写入块并写清单，否则并发替换可能删除刚写入的块：
+     * <pre>
+     * ChunkStore.Pin pin = store.pin(info);
+     * try {
+     *     // contains / put ...
+     *     store.writeManifest(info);
+     * } finally {
+     *     pin.close();
+     * }
+     * </pre>
+     */
+    public synchronized Pin pin(FileInfo info) {
+        ChunkTable table = info.getChunkTable();
+        Set<String> hashes = new HashSet<>();
+        for (int i = 0; i < table.size(); i++) {
+            hashes.add(table.hash(i));
+        }
+        for (String hash : hashes) {
+            pins.merge(hash, 1, Integer::sum);
+        }
+        return new Pin(hashes);
+    }
+
+    /**
+     * 解除固定；已不被引用的块在最后一次解除时删除
+     */
+    private synchronized void unpin(Set<String> hashes) {
+        Set<String> referenced = null;
+        for (String hash : hashes) {
+            if (pins.merge(hash, -1, Integer::sum) > 0) {
+                continue;
+            }
+            pins.remove(hash);
+            if (deferred.remove(hash)) {
+                if (referenced == null) {
+                    referenced = referenced();
+                }
+                if (!referenced.contains(hash)) {
+                    try {
+                        Files.deleteIfExists(chunkPath(hash));
+                    } catch (IOException e) {
+                        System.err.println("删除块失败: " + hash + " " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 存储中的全部文件（不可修改）
+     */
+    public synchronized Map<String, FileInfo> manifests() {
+        return Collections.unmodifiableMap(new HashMap<>(manifests));
+    }
+
+    /**
+     * @return 文件清单；不在存储中时返回null
+     */
+    public synchronized FileInfo manifest(String name) {
+        return manifests.get(name);
+    }
+
+    /**
+     * @return 存储中是否已有该块
+     */
+    public boolean contains(String hash) {
+        return Files.exists(chunkPath(hash));
+    }
+
+    /**
+     * @return 块内容的输入流
+     * @throws java.nio.file.NoSuchFileException 存储中没有该块
+     */
+    public InputStream openChunk(String hash) throws IOException {
+        return Files.newInputStream(chunkPath(hash));
+    }
+
+    /**
+     * 从流中读出一块写入存储（已存在时只读出丢弃；调用方须已{@link #pin 固定}该块）
+     *
+     * @param hash   块内容的SHA-256（十六进制）
+     * @param in     数据流
+     * @param length 块长度
+     * @throws ProtocolException 内容与哈希不符
+     */
+    public void put(String hash, InputStream in, int length) throws IOException {
+        Path target = chunkPath(hash);
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(chunksDir, ".put", null);
+        try {
+            MessageDigest md = sha256();
+            byte[] buffer = new byte[Math.min(COPY_BUFFER, Math.max(length, 1))];
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                long remaining = length;
+                while (remaining > 0) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        throw new EOFException("块数据不完整: " + hash);
+                    }
+                    md.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            }
+            if (!hash.equals(FileHasher.toHex(md.digest()))) {
+                throw new ProtocolException("块内容与哈希不符: " + hash);
+            }
+            if (!Files.exists(target)) {
+                move(tmp, target);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 把普通文件写入存储：逐块存入（已有的块跳过），写清单，删除原文件
+     *
+     * @param path 普通文件
+     * @param info 该文件的分块信息（不是SHA-256分块时重新计算）
+     * @return 存储中的文件信息
+     */
+    public FileInfo ingest(Path path, FileInfo info) throws IOException {
+        if (!ChunkChecksum.SHA256.equals(info.getChunkAlgorithm()) || info.getFileHash() == null) {
+            FileInfo rehashed = FileHasher.hashFile(path, ChunkChecksum.of(ChunkChecksum.SHA256), info.getChunkSize());
+            rehashed.filename = info.filename;
+            info = rehashed;
+        }
+        ChunkTable table = info.getChunkTable();
+        Pin pin = pin(info);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            InputStream in = Channels.newInputStream(file);
+            for (int i = 0; i < table.size(); i++) {
+                String hash = table.hash(i);
+                if (!contains(hash)) {
+                    file.position(table.offset(i));
+                    put(hash, in, table.length(i));
+                }
+            }
+            writeManifest(info);
+        } finally {
+            pin.close();
+        }
+        Files.delete(path);
+        return info;
+    }
+
+    /**
+     * 写入（或替换）文件清单；所有块须已在存储中
+     *
+     * @throws ProtocolException 分块不是SHA-256或缺少块
+     */
+    public synchronized void writeManifest(FileInfo info) throws IOException {
+        if (!ChunkChecksum.SHA256.equals(info.getChunkAlgorithm())) {
+            throw new ProtocolException("分块存储只接受SHA-256分块: " + info.filename);
+        }
+        ChunkTable table = info.getChunkTable();
+        Manifest manifest = new Manifest();
+        manifest.filename = info.filename;
+        manifest.size = info.getFileSize();
+        manifest.fileHash = info.getFileHash();
+        manifest.chunkSize = info.getChunkSize();
+        manifest.chunking = info.getChunking();
+        manifest.chunks = new ArrayList<>(table.size());
+        manifest.lengths = new ArrayList<>(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            String hash = table.hash(i);
+            if (!contains(hash)) {
+                throw new ProtocolException("存储中缺少块: " + hash);
+            }
+            manifest.chunks.add(hash);
+            manifest.lengths.add(table.length(i));
+        }
+        Files.createDirectories(manifestsDir);
+        Path target = manifestPath(info.filename);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            new Gson().toJson(manifest, writer);
+        }
+        move(tmp, target);
+        FileInfo previous = manifests.put(info.filename, manifest.toFileInfo());
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    /**
+     * 删除文件清单，并删除不再被引用的块
+     *
+     * @return 文件是否在存储中
+     */
+    public synchronized boolean remove(String name) throws IOException {
+        FileInfo previous = manifests.remove(name);
+        if (previous == null) {
+            return false;
+        }
+        Files.deleteIfExists(manifestPath(name));
+        release(previous);
+        return true;
+    }
+
+    /**
+     * 打开存储中的文件（只读，可定位）
+     *
+     * @throws NoSuchFileException 文件不在存储中
+     */
+    public synchronized SeekableByteChannel open(String name) throws IOException {
+        FileInfo info = manifests.get(name);
+        if (info == null) {
+            throw new NoSuchFileException(name);
+        }
+        return new StoredFileChannel(info, pin(info));
+    }
+
+    /**
+     * @return 存储中所有块占用的字节数
+     */
+    public long storedBytes() throws IOException {
+        long total = 0;
+        if (!Files.isDirectory(chunksDir)) {
+            return 0;
+        }
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(chunksDir, Files::isDirectory)) {
+            for (Path prefix : prefixes) {
+                try (DirectoryStream<Path> chunks = Files.newDirectoryStream(prefix)) {
+                    for (Path chunk : chunks) {
+                        total += Files.size(chunk);
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 删除旧清单中不再被任何清单引用的块，固定中的块推迟删除（调用方持有锁）
+     */
+    private void release(FileInfo old) throws IOException {
+        Set<String> referenced = referenced();
+        ChunkTable table = old.getChunkTable();
+        for (int i = 0; i < table.size(); i++) {
+            String hash = table.hash(i);
+            if (referenced.contains(hash)) {
+                continue;
+            }
+            if (pins.containsKey(hash)) {
+                deferred.add(hash);
+            } else {
+                Files.deleteIfExists(chunkPath(hash));
+            }
+        }
+    }
+
+    /**
+     * 删除不被任何清单引用的块（打开存储时调用：上次退出前推迟删除的块、写清单前中断留下的块）
+     */
+    private synchronized void sweep() throws IOException {
+        if (!Files.isDirectory(chunksDir)) {
+            return;
+        }
+        Set<String> referenced = referenced();
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(chunksDir, Files::isDirectory)) {
+            for (Path prefix : prefixes) {
+                try (DirectoryStream<Path> chunks = Files.newDirectoryStream(prefix)) {
+                    for (Path chunk : chunks) {
+                        if (!referenced.contains(chunk.getFileName().toString())) {
+                            Files.deleteIfExists(chunk);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 所有清单引用的块哈希（调用方持有锁）
+     */
+    private Set<String> referenced() {
+        Set<String> referenced = new HashSet<>();
+        for (FileInfo info : manifests.values()) {
+            ChunkTable table = info.getChunkTable();
+            for (int i = 0; i < table.size(); i++) {
+                referenced.add(table.hash(i));
+            }
+        }
+        return referenced;
+    }
+
+    private Path chunkPath(String hash) {
+        if (hash.length() < 3 || !hash.matches("[0-9a-f]+")) {
+            throw new IllegalArgumentException("块哈希非法: " + hash);
+        }
+        return chunksDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path manifestPath(String name) {
+        return manifestsDir.resolve(FileHasher.toHex(name.getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 清单文件的JSON结构
+     */
+    private static final class Manifest {
+        String filename;
+        long size;
+        String fileHash;
+        long chunkSize;
+        String chunking;
+        List<String> chunks;
+        List<Integer> lengths;
+
+        FileInfo toFileInfo() {
+            ChunkTable.Builder table = new ChunkTable.Builder(Math.min(chunks.size(), 1024));
+            long offset = 0;
+            for (int i = 0; i < chunks.size(); i++) {
+                int length = lengths.get(i);
+                table.add(chunks.get(i), offset, length);
+                offset += length;
+            }
+            FileInfo info = new FileInfo(filename, chunks.size(), table.build(size, chunkSize), size, fileHash);
+            info.setChunkAlgorithm(ChunkChecksum.SHA256);
+            info.setChunking(chunking);
+            return info;
+        }
+    }
+
+    /**
+     * 一次固定（关闭时解除，重复关闭无副作用）
+     */
+    public final class Pin implements Closeable {
+        private final Set<String> hashes;
+        private boolean released;
+
+        private Pin(Set<String> hashes) {
+            this.hashes = hashes;
+        }
+
+        @Override
+        public void close() {
+            synchronized (ChunkStore.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            unpin(hashes);
+        }
+    }
+
+    /**
+     * 按清单拼接各块的只读通道（打开期间固定各块）
+     */
+    private final class StoredFileChannel implements SeekableByteChannel {
+        private final ChunkTable table;
+        private final long size;
+        private final Pin pin;
+        private long position;
+        private int current = -1;
+        private FileChannel chunk;
+        private boolean open = true;
+
+        StoredFileChannel(FileInfo info, Pin pin) {
+            this.table = info.getChunkTable();
+            this.size = info.getFileSize();
+            this.pin = pin;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (position >= size) {
+                return -1;
+            }
+            int index = chunkAt(position);
+            if (index != current) {
+                if (chunk != null) {
+                    chunk.close();
+                }
+                chunk = FileChannel.open(chunkPath(table.hash(index)), StandardOpenOption.READ);
+                current = index;
+            }
+            long within = position - table.offset(index);
+            int limit = dst.limit();
+            dst.limit((int) Math.min(limit, dst.position() + table.length(index) - within));
+            int n;
+            try {
+                n = chunk.read(dst, within);
+            } finally {
+                dst.limit(limit);
+            }
+            if (n < 0) {
+                throw new EOFException("存储中的块被截短: " + table.hash(index));
+            }
+            position += n;
+            return n;
+        }
+
+        /**
+         * @return 包含该位置的块下标
+         */
+        private int chunkAt(long pos) {
+            int lo = 0;
+            int hi = table.size() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (table.offset(mid) <= pos) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("位置非法: " + newPosition);
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            try {
+                if (chunk != null) {
+                    chunk.close();
+                }
+            } finally {
+                pin.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package sample.AllNeed;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 紧凑分块表（{@link FileInfo}的分块存储，不可变）
+ *
+ * <p>所有块的校验值以原始字节连续存放在一个{@code byte[]}中，固定分块的偏移与长度由块大小推算不再保存，
+ * 内容定义分块只保存偏移与长度两个基本类型数组。一个SHA-256块约占32字节（内容定义分块再加12字节），
+ * 而每块一个{@link FileInfo.ChunkInfo}加64字符十六进制字符串约占200字节。
+ * <ul>
+ *   <li><b>按下标访问</b>：{@link #hash(int)}、{@link #offset(int)}、{@link #length(int)}、
+ *   {@link #sameHash(int, ChunkTable, int)}、{@link #writeDigest(int, OutputStream)}，不创建块对象</li>
+ *   <li><b>列表视图</b>：{@link #asList()}按需创建{@link FileInfo.ChunkInfo}，
+ *   供{@link FileInfo#chunks}与{@link FileInfo#getChunks()}沿用原有接口；视图对象不保留，修改它不影响分块表</li>
+ * </ul>
+ * 对端列表中的块哈希不是等长小写十六进制时（旧版本或异常列表），改为原样保存字符串，行为与以前一致。
+ *
+ * @since 2025.3.22
+ */
+public final class ChunkTable {
+    static final ChunkTable EMPTY = new Builder(0).build(0, FileInfo.chunk_size);
+
+    private final int count;
+    /**
+     * 每块校验值字节数（字符串后备时为0）
+     */
+    private final int digestLength;
+    private final byte[] digests;
+    /**
+     * 字符串后备：块哈希不是等长小写十六进制时使用，否则为null
+     */
+    private final String[] hexHashes;
+    /**
+     * 内容定义分块（或偏移不按块大小排列）时的偏移与长度；固定分块为null
+     */
+    private final long[] offsets;
+    private final int[] lengths;
+    private final long fileSize;
+    private final long chunkSize;
+
+    private ChunkTable(Builder builder, long fileSize, long chunkSize) {
+        this.count = builder.count;
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        if (builder.fallback != null) {
+            this.digestLength = 0;
+            this.digests = null;
+            this.hexHashes = builder.fallback.toArray(new String[0]);
+        } else {
+            this.digestLength = builder.digestLength;
+            this.digests = Arrays.copyOf(builder.digests, count * builder.digestLength);
+            this.hexHashes = null;
+        }
+        boolean fixed = true;
+        for (int i = 0; i < count && fixed; i++) {
+            long offset = (long) i * chunkSize;
+            fixed = builder.offsets[i] == offset
+                    && builder.lengths[i] == (int) Math.max(0, Math.min(chunkSize, fileSize - offset));
+        }
+        this.offsets = fixed ? null : Arrays.copyOf(builder.offsets, count);
+        this.lengths = fixed ? null : Arrays.copyOf(builder.lengths, count);
+    }
+
+    /**
+     * 由块列表构建（未携带偏移的块按块大小补全）
+     */
+    static ChunkTable of(List<FileInfo.ChunkInfo> chunks, long fileSize, long chunkSize) {
+        Builder builder = new Builder(chunks.size());
+        for (FileInfo.ChunkInfo chunk : chunks) {
+            if (chunk.offset < 0) {
+                long offset = (chunk.chunk_number - 1) * chunkSize;
+                builder.add(chunk.hash, offset, (int) Math.max(0, Math.min(chunkSize, fileSize - offset)));
+            } else {
+                builder.add(chunk.hash, chunk.offset, chunk.length);
+            }
+        }
+        return builder.build(fileSize, chunkSize);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return 第i块（从0开始）的十六进制校验值
+     */
+    public String hash(int i) {
+        check(i);
+        if (hexHashes != null) {
+            return hexHashes[i];
+        }
+        return FileHasher.toHex(Arrays.copyOfRange(digests, i * digestLength, (i + 1) * digestLength));
+    }
+
+    /**
+     * @return 第i块校验值的原始字节（新数组）
+     * @throws IllegalArgumentException 字符串后备中的哈希不是十六进制时抛出
+     */
+    public byte[] digest(int i) {
+        check(i);
+        if (hexHashes != null) {
+            return FileHasher.fromHex(hexHashes[i]);
+        }
+        return Arrays.copyOfRange(digests, i * digestLength, (i + 1) * digestLength);
+    }
+
+    /**
+     * 写出第i块校验值的原始字节
+     */
+    public void writeDigest(int i, OutputStream out) throws IOException {
+        if (hexHashes != null) {
+            out.write(digest(i));
+        } else {
+            check(i);
+            out.write(digests, i * digestLength, digestLength);
+        }
+    }
+
+    /**
+     * @return 本表第i块与另一表第j块的校验值是否相同
+     */
+    public boolean sameHash(int i, ChunkTable other, int j) {
+        check(i);
+        other.check(j);
+        if (hexHashes != null || other.hexHashes != null) {
+            return hash(i).equals(other.hash(j));
+        }
+        if (digestLength != other.digestLength) {
+            return false;
+        }
+        int a = i * digestLength;
+        int b = j * digestLength;
+        for (int k = 0; k < digestLength; k++) {
+            if (digests[a + k] != other.digests[b + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long offset(int i) {
+        check(i);
+        return offsets != null ? offsets[i] : i * chunkSize;
+    }
+
+    public int length(int i) {
+        check(i);
+        return lengths != null ? lengths[i] : (int) Math.max(0, Math.min(chunkSize, fileSize - i * chunkSize));
+    }
+
+    /**
+     * @return 固定分块的块大小
+     */
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return 第i块的块对象（每次新建）
+     */
+    public FileInfo.ChunkInfo chunk(int i) {
+        return new FileInfo.ChunkInfo(i + 1, hash(i), offset(i), length(i));
+    }
+
+    /**
+     * @return 只读列表视图，元素按需创建
+     */
+    public List<FileInfo.ChunkInfo> asList() {
+        return new View();
+    }
+
+    private void check(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("块下标越界: " + i + "/" + count);
+        }
+    }
+
+    private final class View extends AbstractList<FileInfo.ChunkInfo> implements RandomAccess {
+        @Override
+        public FileInfo.ChunkInfo get(int index) {
+            return chunk(index);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+    /**
+     * 分块表构建器（按块顺序逐块添加）
+     */
+    public static final class Builder {
+        private int count;
+        private int digestLength = -1;
+        private byte[] digests;
+        private long[] offsets;
+        private int[] lengths;
+        private List<String> fallback;
+
+        /**
+         * @param expected 预计块数（仅用于预分配）
+         */
+        public Builder(int expected) {
+            int capacity = Math.max(expected, 4);
+            this.digests = new byte[0];  // 首块确定校验值长度后分配
+            this.offsets = new long[capacity];
+            this.lengths = new int[capacity];
+        }
+
+        /**
+         * 添加一块（十六进制校验值）
+         */
+        public Builder add(String hex, long offset, int length) {
+            byte[] digest = fallback == null ? parseHex(hex) : null;
+            if (digest != null && (digestLength < 0 || digest.length == digestLength)) {
+                return add(digest, 0, digest.length, offset, length);
+            }
+            toFallback();
+            fallback.add(hex);
+            return position(offset, length);
+        }
+
+        /**
+         * 添加一块（原始校验值字节）
+         */
+        public Builder add(byte[] digest, int from, int length, long offset, int chunkLength) {
+            if (fallback != null || (digestLength >= 0 && length != digestLength)) {
+                toFallback();
+                fallback.add(FileHasher.toHex(Arrays.copyOfRange(digest, from, from + length)));
+                return position(offset, chunkLength);
+            }
+            if (digestLength < 0) {
+                digestLength = length;
+                digests = new byte[offsets.length * length];
+            }
+            ensureCapacity();
+            System.arraycopy(digest, from, digests, count * digestLength, length);
+            return position(offset, chunkLength);
+        }
+
+        public ChunkTable build(long fileSize, long chunkSize) {
+            if (digestLength < 0) {
+                digestLength = 0;
+            }
+            return new ChunkTable(this, fileSize, chunkSize);
+        }
+
+        private Builder position(long offset, int length) {
+            ensureCapacity();
+            offsets[count] = offset;
+            lengths[count] = length;
+            count++;
+            return this;
+        }
+
+        private void ensureCapacity() {
+            if (count == offsets.length) {
+                int capacity = offsets.length * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                if (fallback == null) {
+                    digests = Arrays.copyOf(digests, capacity * Math.max(digestLength, 0));
+                }
+            }
+        }
+
+        private void toFallback() {
+            if (fallback != null) {
+                return;
+            }
+            fallback = new ArrayList<>(offsets.length);
+            for (int i = 0; i < count; i++) {
+                fallback.add(FileHasher.toHex(Arrays.copyOfRange(digests, i * digestLength, (i + 1) * digestLength)));
+            }
+            digests = null;
+        }
+
+        /**
+         * @return 校验值字节；不是非空的偶数长度小写十六进制时返回null
+         */
+        private static byte[] parseHex(String hex) {
+            if (hex == null || hex.isEmpty() || (hex.length() & 1) != 0) {
+                return null;
+            }
+            byte[] out = new byte[hex.length() / 2];
+            for (int i = 0; i < out.length; i++) {
+                int hi = nibble(hex.charAt(2 * i));
+                int lo = nibble(hex.charAt(2 * i + 1));
+                if (hi < 0 || lo < 0) {
+                    return null;
+                }
+                out[i] = (byte) (hi << 4 | lo);
+            }
+            return out;
+        }
+
+        private static int nibble(char c) {
+            if (c >= '0' && c <= '9') {
+                return c - '0';
+            }
+            if (c >= 'a' && c <= 'f') {
+                return c - 'a' + 10;
+            }
+            return -1;
+        }
+    }
+}
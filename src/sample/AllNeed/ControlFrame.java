@@ -0,0 +1,203 @@
+package sample.AllNeed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 控制通道二进制分帧协议（客户端与服务器共用）
+ *
+ * <p>连接建立后仍先按行交换欢迎语；客户端发送{@value #NEGOTIATE}、服务器回复{@value #ACCEPTED}后，
+ * 双方改为收发以下格式的帧：
+ * <pre>
+ * +----------+---------------+------------+---------------------+
+ * | 类型(1B) | 请求ID(4B)    | 长度(4B)   | 负载(UTF-8, 长度字节)|
+ * +----------+---------------+------------+---------------------+
+ * </pre>
+ * <ul>
+ *   <li><b>精确读取</b>：按长度读满负载，大负载（文件列表、在线列表）不再依赖换行或EOF定界</li>
+ *   <li><b>有界分配</b>：长度超过{@link #MAX_PAYLOAD}直接视为协议错误，不按对端声明的长度分配内存</li>
+ *   <li><b>流水线</b>：客户端请求携带递增的请求ID，应答回带相同ID，可在一个连接上连续发出多个请求；
+ *   服务器主动推送（广播、增量）的请求ID为0</li>
+ * </ul>
+ *
+ * @see FrameWriter 以PrintWriter形式写出帧
+ * @since 2025.3.22
+ */
+public final class ControlFrame {
+    /**
+     * 客户端协商请求（按行发送）
+     */
+    public static final String NEGOTIATE = "PROTO#FRAMED";
+    /**
+     * 服务器协商应答（按行发送），此后双方切换为帧
+     */
+    public static final String ACCEPTED = "PROTO_OK";
+
+    /**
+     * 单行文本：指令、聊天、系统提示（负载可含换行）
+     */
+    public static final byte TEXT = 1;
+    /**
+     * 在线用户列表：JSON数组
+     */
+    public static final byte USER_LIST = 2;
+    /**
+     * 服务器文件列表：{"files":[...]}
+     */
+    public static final byte FILE_LIST = 3;
+    /**
+     * 在线列表快照："版本号\nJSON数组"
+     */
+    public static final byte USER_SNAPSHOT = 4;
+    /**
+     * 服务器文件列表：{@link BinaryManifest}二进制清单（负载不是文本，见{@link #data}）
+     */
+    public static final byte FILE_LIST_BIN = 5;
+
+    public static final int HEADER_SIZE = 9;
+    /**
+     * 单帧负载上限（16MB）
+     */
+    public static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+    /**
+     * 握手行长度上限
+     */
+    private static final int MAX_LINE = 64 * 1024;
+
+    public final byte type;
+    public final int requestId;
+    public final String payload;
+    /**
+     * 二进制帧（{@link #FILE_LIST_BIN}）的原始负载，文本帧为null
+     */
+    public final byte[] data;
+
+    public ControlFrame(byte type, int requestId, String payload) {
+        this(type, requestId, payload, null);
+    }
+
+    private ControlFrame(byte type, int requestId, String payload, byte[] data) {
+        this.type = type;
+        this.requestId = requestId;
+        this.payload = payload;
+        this.data = data;
+    }
+
+    private static ControlFrame of(byte type, int requestId, byte[] body) {
+        return type == FILE_LIST_BIN ? new ControlFrame(type, requestId, null, body)
+                : new ControlFrame(type, requestId, new String(body, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 编码完整的帧
+     *
+     * @param type      帧类型
+     * @param requestId 请求ID（推送为0）
+     * @param payload   负载文本
+     * @return 帧字节（头部 + UTF-8负载）
+     * @throws IllegalArgumentException 负载超出{@link #MAX_PAYLOAD}时抛出
+     */
+    public static byte[] encode(byte type, int requestId, String payload) {
+        return encode(type, requestId, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 编码二进制负载的帧
+     *
+     * @throws IllegalArgumentException 负载超出{@link #MAX_PAYLOAD}时抛出
+     */
+    public static byte[] encode(byte type, int requestId, byte[] body) {
+        if (body.length > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("帧负载超出限制: " + body.length);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + body.length);
+        buf.put(type).putInt(requestId).putInt(body.length).put(body);
+        return buf.array();
+    }
+
+    /**
+     * 阻塞读取一帧
+     *
+     * @param in 数据输入流
+     * @return 读取到的帧；在帧边界遇到EOF时返回null
+     * @throws ProtocolException 长度非法时抛出
+     * @throws EOFException      帧中途连接关闭时抛出
+     */
+    public static ControlFrame read(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        int requestId = in.readInt();
+        int length = checkLength(in.readInt());
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return of((byte) type, requestId, body);
+    }
+
+    /**
+     * 从缓冲区非阻塞解码一帧（供NIO引擎使用）
+     *
+     * @param buf 读模式的缓冲区
+     * @return 完整的帧（position移过该帧）；数据不足时返回null且position不变
+     * @throws ProtocolException 长度非法时抛出
+     */
+    public static ControlFrame decode(ByteBuffer buf) throws ProtocolException {
+        if (buf.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int start = buf.position();
+        byte type = buf.get(start);
+        int requestId = buf.getInt(start + 1);
+        int length = checkLength(buf.getInt(start + 5));
+        if (buf.remaining() < HEADER_SIZE + length) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        buf.position(start + HEADER_SIZE);
+        buf.get(body);
+        return of(type, requestId, body);
+    }
+
+    private static int checkLength(int length) throws ProtocolException {
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new ProtocolException("帧长度非法: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * 逐字节读取一行握手文本（不预读，之后的帧数据保留在流中）
+     *
+     * @param in      输入流（建议为BufferedInputStream，之后的帧从同一流继续读取）
+     * @param charset 行文本编码
+     * @return 去掉行尾换行符的文本；流已结束时返回null
+     * @throws ProtocolException 行长度超出限制时抛出
+     */
+    public static String readLine(InputStream in, Charset charset) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString(charset.name());
+            }
+            if (line.size() >= MAX_LINE) {
+                throw new ProtocolException("行长度超出限制");
+            }
+            line.write(b);
+        }
+        byte[] raw = line.toByteArray();
+        int len = raw.length;
+        if (len > 0 && raw[len - 1] == '\r') {
+            len--;
+        }
+        return new String(raw, 0, len, charset);
+    }
+}
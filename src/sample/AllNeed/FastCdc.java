@@ -0,0 +1,141 @@
+package sample.AllNeed;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FastCDC内容定义分块
+ *
+ * <p>按内容而非固定偏移切分文件：在文件开头插入或删除字节后，只有附近的一两个块边界改变，
+ * 其余块的内容与哈希保持不变，对端按块哈希即可只传输变化的区域。
+ * <ul>
+ *   <li><b>Gear滚动哈希</b>：{@code hash = (hash << 1) + GEAR[b]}，取高位判断边界，高位只受最近64字节影响</li>
+ *   <li><b>跳过最小块</b>：块长度达到{@code min}之前不计算哈希</li>
+ *   <li><b>归一化分块</b>：长度未达到平均值时使用更严格的掩码，之后使用更宽松的掩码，块长度集中在平均值附近</li>
+ *   <li><b>最大块</b>：长度达到{@code max}时强制切分</li>
+ * </ul>
+ * 平均块大小由启动参数{@value #AVG_SIZE_PROPERTY}指定（向下取2的幂），最小为其1/4，最大为其4倍。
+ * Gear表由固定种子生成，所有节点切分结果一致。
+ *
+ * <p>实例保存当前块的滚动状态，非线程安全；同一文件须按顺序调用{@link #cut}。
+ *
+ * @see FileHasher#hashFile(java.nio.file.Path, ChunkChecksum, FastCdc) 使用方
+ * @since 2025.3.22
+ */
+public final class FastCdc {
+    public static final String CHUNKING_PROPERTY = "p2p.chunking";
+    public static final String AVG_SIZE_PROPERTY = "p2p.cdc.avgSize";
+    /**
+     * 分块方式：固定大小（{@link FileInfo#getChunkSize()}）
+     */
+    public static final String FIXED = "fixed";
+    /**
+     * 分块方式：内容定义
+     */
+    public static final String CDC = "cdc";
+    static final int DEFAULT_AVG_SIZE = 1024 * 1024;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // SplitMix64：与JDK版本无关的确定性序列
+        long seed = 0x5032504170704344L;
+        for (int i = 0; i < GEAR.length; i++) {
+            long z = (seed += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskStrict;
+    private final long maskLoose;
+    private long hash;
+    private int length;
+
+    /**
+     * @param avgSize 期望平均块大小（向下取2的幂，至少64字节）
+     */
+    public FastCdc(int avgSize) {
+        int bits = 31 - Integer.numberOfLeadingZeros(Math.max(64, avgSize));
+        this.avgSize = 1 << bits;
+        this.minSize = this.avgSize / 4;
+        this.maxSize = this.avgSize * 4;
+        this.maskStrict = highBits(bits + 2);
+        this.maskLoose = highBits(bits - 2);
+    }
+
+    private static long highBits(int n) {
+        return -1L << (64 - n);
+    }
+
+    /**
+     * 按启动参数创建
+     *
+     * @return 未开启内容定义分块时返回null（使用固定分块）
+     */
+    public static FastCdc fromProperties() {
+        if (!CDC.equalsIgnoreCase(System.getProperty(CHUNKING_PROPERTY, FIXED))) {
+            return null;
+        }
+        return new FastCdc(Integer.getInteger(AVG_SIZE_PROPERTY, DEFAULT_AVG_SIZE));
+    }
+
+    public int getAvgSize() {
+        return avgSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 从当前块的末尾继续扫描缓冲区[from, to)
+     *
+     * @return 块边界在缓冲区中的位置（块的结束位置，不含）；区间内没有边界时返回-1
+     */
+    public int cut(ByteBuffer buf, int from, int to) {
+        int i = from;
+        // 最小块以内不计算哈希
+        int skip = Math.min(to - i, minSize - length);
+        if (skip > 0) {
+            i += skip;
+            length += skip;
+        }
+        long h = hash;
+        int len = length;
+        while (i < to) {
+            if (len >= maxSize) {
+                return boundary(i);
+            }
+            h = (h << 1) + GEAR[buf.get(i) & 0xFF];
+            i++;
+            len++;
+            if ((h & (len < avgSize ? maskStrict : maskLoose)) == 0) {
+                return boundary(i);
+            }
+        }
+        if (len >= maxSize) {
+            return boundary(i);
+        }
+        hash = h;
+        length = len;
+        return -1;
+    }
+
+    private int boundary(int at) {
+        hash = 0;
+        length = 0;
+        return at;
+    }
+
+    /**
+     * 丢弃当前块的状态，从新文件开头开始
+     */
+    public void reset() {
+        hash = 0;
+        length = 0;
+    }
+}
@@ -0,0 +1,218 @@
+package sample.AllNeed;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 持久化的文件哈希索引
+ *
+ * <p>记录共享目录中每个文件的整体哈希与分块哈希，以"文件名 + 大小 + 修改时间 + 文件标识(inode)"为键。
+ * 扫描时键未变化的文件直接从索引恢复{@link FileInfo}，只有新增或变化的文件才重新读取计算，
+ * 重启后也无需重新计算整个目录。
+ *
+ * <p>索引以JSON保存（默认{@code file/.index/files.json}），先写临时文件再原子替换，
+ * 写入中途断电不会留下损坏的索引；格式版本或块大小与当前不一致的记录视为失效。
+ *
+ * @see FileListManager#updateFileList() 使用方
+ * @since 2025.3.22
+ */
+final class FileHashIndex {
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path indexFile;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean dirty;
+
+    private FileHashIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * 打开索引并加载已有记录（文件不存在或无法解析时从空索引开始）
+     *
+     * @param indexFile 索引文件路径
+     */
+    static FileHashIndex open(Path indexFile) {
+        FileHashIndex index = new FileHashIndex(indexFile);
+        if (Files.exists(indexFile)) {
+            try (Reader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+                Stored stored = new Gson().fromJson(reader, Stored.class);
+                if (stored != null && stored.version == FORMAT_VERSION && stored.entries != null) {
+                    index.entries.putAll(stored.entries);
+                }
+            } catch (IOException | JsonParseException e) {
+                System.err.println("哈希索引读取失败，将重新计算: " + e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 查找键未变化的记录
+     *
+     * @param name  文件名
+     * @param attrs 文件当前属性
+     * @return 索引中的文件信息；无记录或文件已变化时返回null
+     */
+    FileInfo lookup(String name, BasicFileAttributes attrs) {
+        Entry entry = entries.get(name);
+        FastCdc cdc = FastCdc.fromProperties();
+        if (entry == null || !entry.matches(attrs, ChunkChecksum.configured(), cdc)) {
+            return null;
+        }
+        ChunkTable.Builder chunks = new ChunkTable.Builder(entry.chunks.size());
+        long chunkSize = entry.lengths == null ? entry.chunkSize : FileInfo.chunk_size;
+        long offset = 0;
+        for (int i = 0; i < entry.chunks.size(); i++) {
+            int length = entry.lengths == null
+                    ? (int) Math.min(chunkSize, entry.size - offset) : entry.lengths.get(i);
+            chunks.add(entry.chunks.get(i), offset, length);
+            offset += length;
+        }
+        FileInfo info = new FileInfo(name, entry.chunks.size(), chunks.build(entry.size, chunkSize),
+                entry.size, entry.fileHash);
+        info.setChunkAlgorithm(entry.chunkAlgorithm);
+        info.setChunking(entry.chunking);
+        return info;
+    }
+
+    /**
+     * 记录（或更新）一个文件的哈希
+     *
+     * @param info  文件信息
+     * @param attrs 计算哈希时的文件属性
+     */
+    void put(FileInfo info, BasicFileAttributes attrs) {
+        Entry entry = new Entry();
+        entry.size = attrs.size();
+        entry.mtime = attrs.lastModifiedTime().toMillis();
+        entry.fileKey = fileKey(attrs);
+        entry.chunkAlgorithm = info.getChunkAlgorithm();
+        entry.fileHash = info.getFileHash();
+        entry.chunks = new ArrayList<>(info.chunks.size());
+        for (FileInfo.ChunkInfo chunk : info.chunks) {
+            entry.chunks.add(chunk.hash);
+        }
+        if (FastCdc.CDC.equals(info.getChunking())) {
+            FastCdc cdc = FastCdc.fromProperties();
+            entry.chunking = FastCdc.CDC;
+            entry.chunkSize = cdc == null ? 0 : cdc.getAvgSize();
+            entry.lengths = new ArrayList<>(info.chunks.size());
+            for (FileInfo.ChunkInfo chunk : info.chunks) {
+                entry.lengths.add(chunk.length);
+            }
+        } else {
+            entry.chunkSize = info.getChunkSize();
+        }
+        entries.put(info.filename, entry);
+        dirty = true;
+    }
+
+    /**
+     * 删除已不在目录中的文件记录
+     *
+     * @param names 目录中现存的文件名
+     */
+    void retainAll(Set<String> names) {
+        if (entries.keySet().retainAll(names)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * 有变化时写回磁盘（临时文件 + 原子替换）
+     *
+     * @throws IOException 写入失败时抛出（内存中的索引仍然有效，下次保存重试）
+     */
+    void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Files.createDirectories(indexFile.getParent());
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        Stored stored = new Stored();
+        stored.version = FORMAT_VERSION;
+        stored.entries = entries;
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            new Gson().toJson(stored, writer);
+        }
+        try {
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        dirty = false;
+    }
+
+    private static String fileKey(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? null : key.toString();
+    }
+
+    /**
+     * 索引文件的JSON结构
+     */
+    private static final class Stored {
+        int version;
+        Map<String, Entry> entries;
+    }
+
+    /**
+     * 单个文件的索引记录
+     */
+    private static final class Entry {
+        long size;
+        long mtime;
+        /**
+         * 文件系统的文件标识（Unix上为设备号+inode，Windows上为null）
+         */
+        String fileKey;
+        /**
+         * 固定分块时为块大小，内容定义分块时为平均块大小
+         */
+        long chunkSize;
+        /**
+         * 分块方式（旧索引无此字段，视为固定分块）
+         */
+        String chunking;
+        /**
+         * 分块校验算法（旧索引无此字段，视为sha256）
+         */
+        String chunkAlgorithm;
+        String fileHash;
+        List<String> chunks;
+        /**
+         * 内容定义分块的各块长度（固定分块时为null）
+         */
+        List<Integer> lengths;
+
+        boolean matches(BasicFileAttributes attrs, ChunkChecksum algorithm, FastCdc cdc) {
+            boolean layout = cdc == null
+                    ? chunking == null && chunkSize == ChunkSizePolicy.chunkSize(attrs.size(), ChunkSizePolicy.Mode.SYNC)
+                    : FastCdc.CDC.equals(chunking) && chunkSize == cdc.getAvgSize()
+                    && lengths != null && chunks != null && lengths.size() == chunks.size();
+            return layout
+                    && size == attrs.size()
+                    && mtime == attrs.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, fileKey(attrs))
+                    && algorithm.name().equals(chunkAlgorithm == null ? ChunkChecksum.SHA256 : chunkAlgorithm)
+                    && fileHash != null && chunks != null;
+        }
+    }
+}
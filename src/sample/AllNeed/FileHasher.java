@@ -0,0 +1,288 @@
+package sample.AllNeed;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 文件哈希引擎（服务器与客户端共用）
+ *
+ * <p>对一个文件只顺序读取一遍，同时得到整体SHA-256与全部分块校验值（算法见{@link ChunkChecksum}，
+ * 分块方式为固定大小或{@link FastCdc}内容定义）：
+ * <ul>
+ *   <li><b>单遍读取</b>：每次读入的缓冲先整体更新文件摘要，再按块边界切分更新块摘要</li>
+ *   <li><b>零拷贝缓冲</b>：{@link FileChannel}按位置读入线程复用的直接缓冲区，不为每块分配byte[]</li>
+ *   <li><b>摘要复用</b>：MessageDigest按线程缓存，{@code digest()}后自动重置</li>
+ *   <li><b>查表转十六进制</b>：不再逐字节调用{@code String.format}</li>
+ * </ul>
+ *
+ * @see FileListManager#generateFileInfo(Path) 使用方
+ * @since 2025.3.22
+ */
+public final class FileHasher {
+    /**
+     * 读缓冲大小（每线程一个直接缓冲区）
+     */
+    private static final int READ_BUFFER = 1024 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER));
+    private static final ThreadLocal<MessageDigest> FILE_DIGESTS = ThreadLocal.withInitial(FileHasher::newDigest);
+    private static final ThreadLocal<MessageDigest> CHUNK_DIGESTS = ThreadLocal.withInitial(FileHasher::newDigest);
+
+    private FileHasher() {
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 单遍计算文件的整体哈希与分块哈希
+     *
+     * @param path 文件路径
+     * @return 文件信息（块序号从1开始，块大小由{@link ChunkSizePolicy}选择）
+     * @throws IOException 读取失败或读取期间文件被截短时抛出
+     */
+    public static FileInfo hashFile(Path path) throws IOException {
+        FastCdc cdc = FastCdc.fromProperties();
+        return cdc == null ? hashFile(path, ChunkChecksum.configured())
+                : hashFile(path, ChunkChecksum.configured(), cdc);
+    }
+
+    /**
+     * 单遍计算文件的整体SHA-256与指定算法的分块校验值（固定分块）
+     *
+     * @param path      文件路径
+     * @param algorithm 分块校验算法
+     * @return 文件信息（块序号从1开始，块大小由{@link ChunkSizePolicy}按{@link ChunkSizePolicy.Mode#SYNC}选择）
+     * @throws IOException 读取失败或读取期间文件被截短时抛出
+     */
+    public static FileInfo hashFile(Path path, ChunkChecksum algorithm) throws IOException {
+        return hashFile(path, algorithm, ChunkSizePolicy.chunkSize(Files.size(path), ChunkSizePolicy.Mode.SYNC));
+    }
+
+    /**
+     * 单遍计算文件的整体SHA-256与指定块大小的分块校验值（固定分块）
+     *
+     * @param chunkSize 块大小
+     */
+    public static FileInfo hashFile(Path path, ChunkChecksum algorithm, long chunkSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long totalChunks = (size + chunkSize - 1) / chunkSize;
+            if (totalChunks > Integer.MAX_VALUE) {
+                throw new IllegalStateException("File too large for chunking");
+            }
+            ChunkTable.Builder chunks = new ChunkTable.Builder((int) totalChunks);
+            MessageDigest fileDigest = FILE_DIGESTS.get();
+            ChunkChecksum.Accumulator chunkDigest = algorithm.accumulator();
+            fileDigest.reset();
+            ByteBuffer buf = BUFFERS.get();
+            long position = 0;
+            long chunkStart = 0;
+            long chunkEnd = Math.min(chunkSize, size);
+            while (position < size) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), size - position));
+                int n = channel.read(buf, position);
+                if (n < 0) {
+                    throw new EOFException("文件在计算哈希时被截短: " + path);
+                }
+                buf.flip();
+                fileDigest.update(buf);
+                buf.rewind();
+                // 按块边界切分同一缓冲
+                while (buf.hasRemaining()) {
+                    int take = (int) Math.min(buf.remaining(), chunkEnd - position);
+                    int limit = buf.limit();
+                    buf.limit(buf.position() + take);
+                    chunkDigest.update(buf);
+                    buf.limit(limit);
+                    position += take;
+                    if (position == chunkEnd) {
+                        chunks.add(chunkDigest.finishHex(), chunkStart, (int) (chunkEnd - chunkStart));
+                        chunkStart = chunkEnd;
+                        chunkEnd = Math.min(chunkEnd + chunkSize, size);
+                    }
+                }
+            }
+            ChunkTable table = chunks.build(size, chunkSize);
+            FileInfo info = new FileInfo(path.getFileName().toString(), table.size(), table, size,
+                    toHex(fileDigest.digest()));
+            info.setChunkAlgorithm(algorithm.name());
+            return info;
+        }
+    }
+
+    /**
+     * 单遍计算文件的整体SHA-256与内容定义分块的校验值
+     *
+     * @param path      文件路径
+     * @param algorithm 分块校验算法
+     * @param cdc       分块器（会被重置，非线程安全）
+     * @return 文件信息（块携带偏移与长度）
+     * @throws IOException 读取失败或读取期间文件被截短时抛出
+     */
+    public static FileInfo hashFile(Path path, ChunkChecksum algorithm, FastCdc cdc) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ChunkTable.Builder chunks = new ChunkTable.Builder((int) Math.min(1024, size / cdc.getAvgSize() + 1));
+            MessageDigest fileDigest = FILE_DIGESTS.get();
+            ChunkChecksum.Accumulator chunkDigest = algorithm.accumulator();
+            fileDigest.reset();
+            cdc.reset();
+            ByteBuffer buf = BUFFERS.get();
+            long position = 0;
+            long chunkStart = 0;
+            while (position < size) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), size - position));
+                int n = channel.read(buf, position);
+                if (n < 0) {
+                    throw new EOFException("文件在计算哈希时被截短: " + path);
+                }
+                buf.flip();
+                fileDigest.update(buf);
+                buf.rewind();
+                int from = 0;
+                int cut;
+                while ((cut = cdc.cut(buf, from, n)) >= 0) {
+                    buf.limit(cut).position(from);
+                    chunkDigest.update(buf);
+                    buf.limit(n);
+                    long end = position + cut;
+                    chunks.add(chunkDigest.finishHex(), chunkStart, (int) (end - chunkStart));
+                    chunkStart = end;
+                    from = cut;
+                }
+                buf.position(from);
+                chunkDigest.update(buf);
+                position += n;
+            }
+            if (chunkStart < size) {
+                chunks.add(chunkDigest.finishHex(), chunkStart, (int) (size - chunkStart));
+            }
+            ChunkTable table = chunks.build(size, FileInfo.chunk_size);
+            FileInfo info = new FileInfo(path.getFileName().toString(), table.size(), table, size, toHex(fileDigest.digest()));
+            info.setChunkAlgorithm(algorithm.name());
+            info.setChunking(FastCdc.CDC);
+            return info;
+        }
+    }
+
+    /**
+     * 按位置读取文件区间并计算分块校验值
+     *
+     * @param file      文件通道
+     * @param position  起始位置
+     * @param length    区间长度
+     * @param algorithm 分块校验算法
+     * @return 十六进制校验值
+     * @throws IOException 读取失败或文件长度不足时抛出
+     */
+    public static String checksum(FileChannel file, long position, long length, ChunkChecksum algorithm)
+            throws IOException {
+        ChunkChecksum.Accumulator accumulator = algorithm.accumulator();
+        ByteBuffer buf = BUFFERS.get();
+        long pos = position;
+        long end = position + length;
+        while (pos < end) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - pos));
+            int n = file.read(buf, pos);
+            if (n < 0) {
+                throw new IOException("文件长度不足");
+            }
+            buf.flip();
+            accumulator.update(buf);
+            pos += n;
+        }
+        return accumulator.finishHex();
+    }
+
+    /**
+     * 按位置读取文件区间并计算SHA-256（不改变通道的当前位置，可与写入并发）
+     *
+     * @param file     文件通道
+     * @param position 起始位置
+     * @param length   区间长度
+     * @return 32字节摘要
+     * @throws IOException 读取失败或文件长度不足时抛出
+     */
+    public static byte[] digest(FileChannel file, long position, long length) throws IOException {
+        MessageDigest md = CHUNK_DIGESTS.get();
+        md.reset();
+        ByteBuffer buf = BUFFERS.get();
+        long pos = position;
+        long end = position + length;
+        while (pos < end) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - pos));
+            int n = file.read(buf, pos);
+            if (n < 0) {
+                throw new IOException("文件长度不足");
+            }
+            buf.flip();
+            md.update(buf);
+            pos += n;
+        }
+        return md.digest();
+    }
+
+    /**
+     * 计算字节数组区间的SHA-256
+     *
+     * @return 64字符十六进制哈希
+     */
+    public static String sha256Hex(byte[] data, int offset, int length) {
+        MessageDigest md = CHUNK_DIGESTS.get();
+        md.reset();
+        md.update(data, offset, length);
+        return toHex(md.digest());
+    }
+
+    /**
+     * 字节数组转小写十六进制
+     */
+    public static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            out[j++] = HEX[b >>> 4];
+            out[j++] = HEX[b & 0x0F];
+        }
+        return new String(out);
+    }
+
+    /**
+     * 十六进制转字节数组
+     *
+     * @throws IllegalArgumentException 含非十六进制字符或长度为奇数时抛出
+     */
+    public static byte[] fromHex(String hex) {
+        if ((hex.length() & 1) != 0) {
+            throw new IllegalArgumentException("十六进制长度非法: " + hex.length());
+        }
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("非十六进制字符: " + hex);
+            }
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+}
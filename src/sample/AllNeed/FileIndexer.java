@@ -0,0 +1,221 @@
+package sample.AllNeed;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于{@link WatchService}的后台增量文件索引
+ *
+ * <p>启动参数{@code -D}{@value #WATCH_PROPERTY}{@code =true}时由{@link FileListManager#startWatching()}启动：
+ * <ol>
+ *   <li>注册目录的创建/修改/删除事件后做一次全量扫描，作为初始快照</li>
+ *   <li>每个事件只登记文件名并推迟{@value #DEBOUNCE_PROPERTY}毫秒（默认{@value #DEFAULT_DEBOUNCE_MILLIS}）；
+ *   到期时大小或修改时间仍在变化的文件（正在写入）继续推迟</li>
+ *   <li>稳定的文件交给{@link FileListManager#reindex}，只计算这些文件的哈希并发布新的不可变快照</li>
+ *   <li>事件溢出（OVERFLOW）时退回全量扫描</li>
+ * </ol>
+ * 运行期间{@link FileListManager#updateAndSendFileList}直接发送最新快照，不再访问磁盘。
+ * 目录被删除等导致监听失效时线程退出，列表请求恢复为按需扫描。
+ *
+ * @since 2025.3.22
+ */
+final class FileIndexer implements Runnable {
+    static final String WATCH_PROPERTY = "p2p.index.watch";
+    static final String DEBOUNCE_PROPERTY = "p2p.index.debounceMillis";
+    static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+
+    private final FileListManager manager;
+    private final Path directory;
+    private final WatchService watcher;
+    private final long debounceNanos;
+    /**
+     * 等待写入稳定的文件（仅索引线程访问）
+     */
+    private final Map<String, Pending> pending = new HashMap<>();
+    /**
+     * 初始扫描完成后为true，线程退出后为false
+     */
+    private volatile boolean running;
+
+    private FileIndexer(FileListManager manager, Path directory, WatchService watcher) {
+        this.manager = manager;
+        this.directory = directory;
+        this.watcher = watcher;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong(DEBOUNCE_PROPERTY, DEFAULT_DEBOUNCE_MILLIS));
+    }
+
+    /**
+     * 注册目录监听并启动索引线程
+     *
+     * @throws IOException 目录不存在或不支持监听时抛出
+     */
+    static FileIndexer start(FileListManager manager, Path directory) throws IOException {
+        WatchService watcher = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            watcher.close();
+            throw e;
+        }
+        FileIndexer indexer = new FileIndexer(manager, directory, watcher);
+        Thread thread = new Thread(indexer, "file-indexer");
+        thread.setDaemon(true);
+        thread.start();
+        return indexer;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        try {
+            // 先注册再扫描：扫描期间发生的变化会作为事件留在队列中，不会遗漏
+            manager.rescan();
+            running = true;
+            while (true) {
+                WatchKey key = pending.isEmpty() ? watcher.take()
+                        : watcher.poll(Math.max(1, nextDeadline() - System.nanoTime()), TimeUnit.NANOSECONDS);
+                boolean overflow = false;
+                if (key != null) {
+                    overflow = collect(key);
+                    if (!key.reset()) {
+                        System.err.println("文件目录监听已失效: " + directory);
+                        return;
+                    }
+                }
+                try {
+                    if (overflow) {
+                        pending.clear();
+                        manager.rescan();
+                        continue;
+                    }
+                    List<String> ready = takeStable();
+                    if (!ready.isEmpty()) {
+                        manager.reindex(ready);
+                    }
+                } catch (IOException e) {
+                    // 单个文件读取失败（如计算中途被删除）不影响后续事件，该文件的下一个事件会重新处理
+                    System.err.println("文件索引更新失败: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+            // 监听已关闭
+        } catch (IOException | NoSuchAlgorithmException e) {
+            System.err.println("后台文件索引失败，退回按需扫描: " + e.getMessage());
+        } finally {
+            running = false;
+            try {
+                watcher.close();
+            } catch (IOException ignored) {
+                // 线程即将退出
+            }
+        }
+    }
+
+    /**
+     * 取出一个键上的全部事件，登记为待处理
+     *
+     * @return 是否发生事件溢出
+     */
+    private boolean collect(WatchKey key) {
+        boolean overflow = false;
+        long deadline = System.nanoTime() + debounceNanos;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            String name = ((Path) event.context()).getFileName().toString();
+            if (name.startsWith(".")) {
+                continue; // 索引与上传暂存目录
+            }
+            Pending p = pending.get(name);
+            if (p == null) {
+                pending.put(name, new Pending(deadline, stat(name)));
+            } else {
+                p.deadline = deadline; // 仍有事件到达，说明还在写入
+            }
+        }
+        return overflow;
+    }
+
+    /**
+     * 取出已到期且大小、修改时间不再变化的文件；仍在变化的文件重新推迟
+     */
+    private List<String> takeStable() {
+        List<String> ready = new ArrayList<>();
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<String, Pending>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Pending> entry = it.next();
+            Pending p = entry.getValue();
+            if (p.deadline - now > 0) {
+                continue;
+            }
+            long[] current = stat(entry.getKey());
+            if (current != null && (p.stamp == null || current[0] != p.stamp[0] || current[1] != p.stamp[1])) {
+                p.stamp = current;
+                p.deadline = now + debounceNanos;
+                continue;
+            }
+            it.remove();
+            ready.add(entry.getKey());
+        }
+        return ready;
+    }
+
+    private long nextDeadline() {
+        long next = Long.MAX_VALUE;
+        boolean first = true;
+        for (Pending p : pending.values()) {
+            if (first || p.deadline - next < 0) {
+                next = p.deadline;
+                first = false;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return (大小, 修改时间)；文件不存在时返回null
+     */
+    private long[] stat(String name) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(directory.resolve(name), BasicFileAttributes.class);
+            return new long[]{attrs.size(), attrs.lastModifiedTime().toMillis()};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 待处理文件：到期时间与上次观察到的(大小, 修改时间)
+     */
+    private static final class Pending {
+        long deadline;
+        long[] stamp;
+
+        Pending(long deadline, long[] stamp) {
+            this.deadline = deadline;
+            this.stamp = stamp;
+        }
+    }
+}
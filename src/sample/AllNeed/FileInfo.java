@@ -6,8 +6,10 @@ import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * 文件分块信息管理类（版本2.1.0）
@@ -24,16 +26,43 @@ import java.util.List;
  */
 public class FileInfo {
     /**
-     * 分块大小配置（当前值为10MB）
+     * 默认分块大小（当前值为10MB）
      *
-     * @apiNote 实际应用中建议通过配置文件动态调整
+     * @apiNote 各文件实际使用的块大小见{@link #getChunkSize()}，由{@link ChunkSizePolicy}选择
      */
     public static long chunk_size = 10 * 1024 * 1024;
     public String filename;
     public int total_chunks;
-    public List<ChunkInfo> chunks= new ArrayList<>(); // 确保默认初始化 ;
+    /**
+     * 分块列表（{@link #table}的只读视图，元素按需创建）
+     */
+    public final List<ChunkInfo> chunks;
+    /**
+     * 分块存储（校验值连续存放）
+     */
+    private final ChunkTable table;
     private long fileSize;
     private String fileHash;
+    /**
+     * 固定分块的块大小（0表示未携带，按{@link #chunk_size}）
+     */
+    private long chunkSize;
+    /**
+     * 分块校验算法（{@link ChunkChecksum}名称，null视为sha256）
+     */
+    private String chunkAlgorithm;
+    /**
+     * 分块方式（{@link FastCdc#FIXED}或{@link FastCdc#CDC}，null视为固定分块）
+     */
+    private String chunking;
+    /**
+     * 远端文件列表携带的Merkle根（本地文件由分块计算，见{@link #getMerkleRoot()}）
+     */
+    private String merkleRoot;
+    /**
+     * 本地分块构建的Merkle树（首次使用时构建）
+     */
+    private transient volatile MerkleTree merkleTree;
 
     /**
      * 文件元数据构造器
@@ -46,15 +75,37 @@ public class FileInfo {
      */
     public FileInfo(String filename, int total_chunks,
                     List<ChunkInfo> chunks, long fileSize, String fileHash) {
+        this(filename, total_chunks, chunks, fileSize, fileHash, chunk_size);
+    }
+
+    /**
+     * 文件元数据构造器（指定块大小）
+     *
+     * @param chunkSize 固定分块的块大小（未携带偏移的块按此补全）
+     */
+    public FileInfo(String filename, int total_chunks,
+                    List<ChunkInfo> chunks, long fileSize, String fileHash, long chunkSize) {
+        this(filename, total_chunks, ChunkTable.of(chunks, fileSize, chunkSize), fileSize, fileHash);
+    }
+
+    /**
+     * 文件元数据构造器（分块表，块大小取自分块表）
+     *
+     * @param table 分块表
+     */
+    public FileInfo(String filename, int total_chunks, ChunkTable table, long fileSize, String fileHash) {
         this.filename = filename;
         this.total_chunks = total_chunks;
-        this.chunks = chunks;
+        this.table = table;
+        this.chunks = table.asList();
         this.fileSize = fileSize;
         this.fileHash = fileHash;
+        this.chunkSize = table.getChunkSize();
     }
 
     public FileInfo() {
-
+        this.table = ChunkTable.EMPTY;
+        this.chunks = table.asList();
     }
 
     /**
@@ -78,11 +129,7 @@ public class FileInfo {
 
     // 辅助方法：字节数组转HEX字符串
     private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
+        return FileHasher.toHex(bytes);
     }
 
     /**
@@ -107,6 +154,110 @@ public class FileInfo {
         return fileHash;
     }
 
+    /**
+     * @return 固定分块的块大小（内容定义分块时各块长度见{@link ChunkInfo#length}）
+     */
+    public long getChunkSize() {
+        return chunkSize > 0 ? chunkSize : chunk_size;
+    }
+
+    /**
+     * @return 分块哈希使用的算法（旧版本文件列表未携带时为{@value ChunkChecksum#SHA256}）
+     */
+    public String getChunkAlgorithm() {
+        return chunkAlgorithm == null ? ChunkChecksum.SHA256 : chunkAlgorithm;
+    }
+
+    public void setChunkAlgorithm(String chunkAlgorithm) {
+        this.chunkAlgorithm = chunkAlgorithm;
+    }
+
+    /**
+     * @return 分块方式（旧版本文件列表未携带时为{@value FastCdc#FIXED}）
+     */
+    public String getChunking() {
+        return chunking == null ? FastCdc.FIXED : chunking;
+    }
+
+    public void setChunking(String chunking) {
+        this.chunking = chunking;
+    }
+
+    /**
+     * 由分块哈希构建的Merkle树（分块列表不再变化后调用）
+     */
+    public MerkleTree getMerkleTree() {
+        MerkleTree tree = merkleTree;
+        if (tree == null) {
+            merkleTree = tree = MerkleTree.build(table);
+        }
+        return tree;
+    }
+
+    /**
+     * @return Merkle根（十六进制）；远端文件取列表中携带的值，本地文件由分块计算
+     */
+    public String getMerkleRoot() {
+        if (merkleRoot == null && (total_chunks == 0 || !chunks.isEmpty())) {
+            merkleRoot = getMerkleTree().rootHex();
+        }
+        return merkleRoot;
+    }
+
+    public void setMerkleRoot(String merkleRoot) {
+        this.merkleRoot = merkleRoot;
+    }
+
+    /**
+     * 判断另一版本的内容是否与本文件相同
+     *
+     * <p>优先比较整体哈希；任一方未携带整体哈希时比较Merkle根（只含根的列表）或逐块校验值，
+     * 分块方式不同无法比较时视为不同。
+     *
+     * @param other 另一版本（通常为对端列表中的同名文件）
+     * @return 内容相同返回true；other为null或无法确认相同时返回false
+     */
+    public boolean sameContentAs(FileInfo other) {
+        if (other == null || fileSize != other.fileSize) {
+            return false;
+        }
+        if (fileHash != null && other.fileHash != null) {
+            return fileHash.equals(other.fileHash);
+        }
+        if (!getChunkAlgorithm().equals(other.getChunkAlgorithm())
+                || !getChunking().equals(other.getChunking())
+                || getChunkSize() != other.getChunkSize()) {
+            return false;
+        }
+        return Objects.equals(getMerkleRoot(), other.getMerkleRoot());
+    }
+
+    /**
+     * 找出本文件中内容不在另一版本里的块
+     *
+     * <p>按块哈希比较，与块的位置无关：内容定义分块时，插入或删除数据后平移的块仍能匹配，
+     * 只有边界附近真正变化的块需要传输。两个版本的分块校验算法不同时无法比较，返回全部块。
+     *
+     * @param other 另一版本（通常为本地已有的旧版本）
+     * @return 需要从本文件传输的块（按偏移顺序）
+     */
+    public List<ChunkInfo> chunksMissingFrom(FileInfo other) {
+        if (other == null || !getChunkAlgorithm().equals(other.getChunkAlgorithm())) {
+            return new ArrayList<>(chunks);
+        }
+        Set<String> known = new HashSet<>();
+        for (int i = 0; i < other.table.size(); i++) {
+            known.add(other.table.hash(i));
+        }
+        List<ChunkInfo> missing = new ArrayList<>();
+        for (int i = 0; i < table.size(); i++) {
+            if (!known.contains(table.hash(i))) {
+                missing.add(table.chunk(i));
+            }
+        }
+        return missing;
+    }
+
     public String getFilePath() {
         return "file";
     }
@@ -114,11 +265,17 @@ public class FileInfo {
     /**
      * 获取不可修改的分块列表
      *
-     * @return 防御性拷贝的分块集合
-     * @see Collections#unmodifiableList
+     * @return 分块表的只读视图（元素按需创建，不保留）
      */
     public List<ChunkInfo> getChunks() {
-        return Collections.unmodifiableList(chunks);  // 返回不可修改的副本保证数据安全
+        return chunks;
+    }
+
+    /**
+     * @return 分块表（按下标访问，不创建块对象）
+     */
+    public ChunkTable getChunkTable() {
+        return table;
     }
 
     public int getTotalChunks() {
@@ -130,12 +287,18 @@ public class FileInfo {
      * <p>描述单个文件块的验证信息：
      * <ul>
      *   <li>chunk_number: 块序号（从1开始）</li>
-     *   <li>hash: 本块内容的SHA-256值</li>
+     *   <li>hash: 本块内容的校验值（算法见{@link FileInfo#getChunkAlgorithm()}）</li>
+     *   <li>offset / length: 块在文件中的位置与长度（内容定义分块时各块长度不同，不能由序号推算）</li>
      * </ul>
      */
     public static class ChunkInfo {
         public int chunk_number;
         public String hash;
+        /**
+         * 块起始偏移（-1表示未知，由{@link FileInfo}构造器按固定分块补全；从{@link FileInfo#chunks}取得的块总是已知）
+         */
+        public long offset = -1;
+        public int length = -1;
 
         /**
          * 文件块构造器
@@ -148,10 +311,25 @@ public class FileInfo {
             this.hash = hash;
         }
 
+        /**
+         * 带位置的文件块构造器
+         *
+         * @param chunk_number 块序号（需保持连续）
+         * @param hash         本块哈希值
+         * @param offset       块起始偏移
+         * @param length       块长度
+         */
+        public ChunkInfo(int chunk_number, String hash, long offset, int length) {
+            this.chunk_number = chunk_number;
+            this.hash = hash;
+            this.offset = offset;
+            this.length = length;
+        }
+
         /**
          * 获取本块哈希值
          *
-         * @return 64字符十六进制字符串
+         * @return 十六进制字符串（SHA-256为64字符）
          * @throws IllegalArgumentException 哈希值无效时抛出
          */
         public String getHash() {
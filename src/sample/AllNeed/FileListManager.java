@@ -1,286 +1,856 @@
 package sample.AllNeed;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import java.io.*;
 import java.net.ProtocolException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 public class FileListManager {
+    /**
+     * 节点间列表请求的定长应答参数：应答为{@value #FRAME_HEADER}{@code  <字节数>}行 + 该长度的JSON，连接保持打开
+     */
+    public static final String FRAME_TOKEN = "frame";
+    public static final String FRAME_HEADER = "File_List_Frame";
 
     public  Map<String, FileInfo> remoteFileList;
-    private Map<String, FileInfo> currentFileList = new HashMap<>();
-
-    // 在FileListManager类中添加：
+    /**
+     * 当前文件列表快照（不可变，整体替换发布，读取方无需加锁）；
+     * 版本号以启动时间（毫秒）为起点，节点重启后不会与旧版本号重合
+     */
+    private volatile FileListSnapshot snapshot = new FileListSnapshot(System.currentTimeMillis(), Collections.emptyMap());
+    /**
+     * 近期快照（用于按请求方持有的版本计算增量），最旧的在队首
+     */
+    private final Deque<FileListSnapshot> history = new ArrayDeque<>();
+    private static final int HISTORY_SIZE = 32;
+    /**
+     * 持久化哈希索引：键（大小、修改时间、inode）未变化的文件扫描时直接复用，不重新计算哈希
+     */
+    private final FileHashIndex hashIndex = FileHashIndex.open(Paths.get("file", ".index", "files.json"));
+    /**
+     * 后台增量索引（{@value FileIndexer#WATCH_PROPERTY}开启时），运行期间列表请求直接使用快照
+     */
+    private volatile FileIndexer indexer;
+    /**
+     * 并行哈希（{@value ParallelHasher#PARALLEL_PROPERTY}开启时），未开启为null
+     */
+    private final ParallelHasher parallelHasher = ParallelHasher.fromProperties();
+    /**
+     * 内容寻址存储（{@value ChunkStore#PROPERTY}{@code =}{@value ChunkStore#CAS}时），未开启为null
+     */
+    private final ChunkStore chunkStore = ChunkStore.enabled()
+            ? ChunkStore.open(Paths.get("file", ChunkStore.DIRECTORY)) : null;
+
+    /**
+     * 生成文件元数据（整体哈希与分块哈希，单遍读取）
+     *
+     * @param path 文件路径
+     * @return 文件信息
+     * @see FileHasher#hashFile(Path) 哈希引擎
+     */
     public static FileInfo generateFileInfo(Path path) throws IOException, NoSuchAlgorithmException {
+        return FileHasher.hashFile(path);
+    }
 
-        File file = path.toFile();
-        long fileSize = Files.size(path);
+    public static String calculateHash(byte[] data, int length)
+            throws NoSuchAlgorithmException {
+        return FileHasher.sha256Hex(data, 0, length);
+    }
 
-        // 计算整体文件哈希
-        String fileHash = calculateFullFileHash(path);
+    public Map<String, FileInfo> getCurrentFileList() {
+        return snapshot.files;
+    }
 
-        // 分块处理
-        int totalChunks = (int) Math.ceil((double) fileSize / FileInfo.chunk_size);
-        List<FileInfo.ChunkInfo> chunks = new ArrayList<>();
+    /**
+     * @return 当前快照（含版本号）
+     */
+    public FileListSnapshot getSnapshot() {
+        return snapshot;
+    }
 
-        try (InputStream is = Files.newInputStream(path)) {
-            byte[] buffer = new byte[(int) FileInfo.chunk_size];
-            int chunkIndex = 0;
+    public FileInfo getFileInfo(String filename) {
+        return snapshot.files.get(filename);
+    }
 
-            while (is.available() > 0) {
-                int read = is.read(buffer);
-                byte[] actualData = Arrays.copyOf(buffer, read);
+    /**
+     * @return 内容寻址存储；未开启时为null
+     */
+    public ChunkStore getChunkStore() {
+        return chunkStore;
+    }
 
-                String chunkHash = calculateHash(actualData, read);
-                chunks.add(new FileInfo.ChunkInfo(++chunkIndex, chunkHash));
-            }
+    /**
+     * 打开共享文件的内容（普通文件优先，其次为内容寻址存储中的文件）
+     *
+     * @param filename 文件列表中的文件名
+     * @return 只读通道（普通文件为{@link java.nio.channels.FileChannel}）
+     * @throws NoSuchFileException 文件不在列表中或已不存在
+     */
+    public SeekableByteChannel openContent(String filename) throws IOException {
+        if (getFileInfo(filename) == null) {
+            throw new NoSuchFileException(filename);
         }
+        Path path = Paths.get("file", filename);
+        if (Files.isRegularFile(path) || chunkStore == null || chunkStore.manifest(filename) == null) {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        }
+        return chunkStore.open(filename);
+    }
+
+    public void updateAndSendFileList(PrintWriter out) throws IOException, NoSuchAlgorithmException {
+        updateAndSendFileList(out, false);
+    }
 
-        return new FileInfo(file.getName(), totalChunks, chunks, fileSize, fileHash);
+    /**
+     * 刷新并发送文件列表
+     *
+     * @param out       输出
+     * @param rootsOnly 为true时每个文件只携带Merkle根，不携带分块列表（对端按需用{@code TREE_REQUEST}下探）
+     */
+    public void updateAndSendFileList(PrintWriter out, boolean rootsOnly) throws IOException, NoSuchAlgorithmException {
+        updateAndSendFileList(out, rootsOnly, false);
     }
 
-    private static String calculateFullFileHash(Path path)
-            throws NoSuchAlgorithmException, IOException {
+    /**
+     * 刷新并发送文件列表
+     *
+     * @param binary 为true且输出为分帧协议时发送{@link BinaryManifest}二进制清单；行协议仍发送JSON
+     */
+    public void updateAndSendFileList(PrintWriter out, boolean rootsOnly, boolean binary)
+            throws IOException, NoSuchAlgorithmException {
+        updateAndSendFileList(out, rootsOnly, binary, FileListSnapshot.UNVERSIONED);
+    }
 
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        try (InputStream is = Files.newInputStream(path);
-             DigestInputStream dis = new DigestInputStream(is, md)) {
-            byte[] buffer = new byte[8192];
-            while (dis.read(buffer) != -1) ;
+    /**
+     * 刷新并按请求方持有的版本发送文件列表
+     *
+     * @param since 请求方已有的快照版本（{@link FileListSnapshot#UNVERSIONED}表示没有）；
+     *              与当前版本相同时只回复未变化，仍在近期历史中时只发送增量（均为JSON）
+     * @see FileListSnapshot 应答格式
+     */
+    public void updateAndSendFileList(PrintWriter out, boolean rootsOnly, boolean binary, long since)
+            throws IOException, NoSuchAlgorithmException {
+        updateFileList();
+        FileListSnapshot current = snapshot;
+        String conditional = conditionalReply(current, since, rootsOnly);
+        if (conditional == null && binary && out instanceof FrameWriter) {
+            ((FrameWriter) out).sendFrame(ControlFrame.FILE_LIST_BIN, binaryManifest(current, rootsOnly));
+            return;
         }
-        return bytesToHex(md.digest());
+        sendFileList(out, conditional != null ? conditional : fileListJson(current, rootsOnly));
     }
 
-    public static String calculateHash(byte[] data, int length)
-            throws NoSuchAlgorithmException {
-
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        md.update(data, 0, length);
-        byte[] digest = md.digest();
-        return bytesToHex(digest);
+    /**
+     * 刷新并以{@value BinaryManifest#HEADER}行 + 二进制清单的形式直接写入流（节点间行协议）
+     *
+     * @param out       连接的输出流
+     * @param rootsOnly 为true时每个文件只携带Merkle根
+     * @param since     请求方已有的快照版本；可按版本应答时改为发送{@code File_List}行 + JSON应答
+     */
+    public void updateAndSendBinaryFileList(OutputStream out, boolean rootsOnly, long since)
+            throws IOException, NoSuchAlgorithmException {
+        updateFileList();
+        FileListSnapshot current = snapshot;
+        String conditional = conditionalReply(current, since, rootsOnly);
+        BufferedOutputStream buffered = new BufferedOutputStream(out);
+        if (conditional != null) {
+            buffered.write(("File_List\n" + conditional + "\n").getBytes(StandardCharsets.UTF_8));
+        } else {
+            buffered.write((BinaryManifest.HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+            buffered.write(binaryManifest(current, rootsOnly));
+        }
+        buffered.flush();
     }
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+    /**
+     * 刷新并以{@value #FRAME_HEADER}{@code  <字节数>}行 + 定长JSON的形式写入流（节点间长连接）
+     *
+     * <p>负载长度在应答行中给出，请求方按长度读取，不依赖连接关闭定界，同一连接可继续发送下一个请求。
+     *
+     * @param out       连接的输出流（不关闭）
+     * @param rootsOnly 为true时每个文件只携带Merkle根
+     * @param since     请求方已有的快照版本
+     * @see #receiveFileList(InputStream, long, FileListSnapshot) 读取方
+     */
+    public void updateAndSendFileListFrame(OutputStream out, boolean rootsOnly, long since)
+            throws IOException, NoSuchAlgorithmException {
+        updateFileList();
+        FileListSnapshot current = snapshot;
+        String conditional = conditionalReply(current, since, rootsOnly);
+        byte[] body;
+        if (conditional != null) {
+            body = conditional.getBytes(StandardCharsets.UTF_8);
+        } else {
+            // 先取得JSON再缓存其字节：生成方法中不能再调用cached
+            String json = fileListJson(current, rootsOnly);
+            body = current.cached(rootsOnly ? "json-utf8-roots" : "json-utf8",
+                    () -> json.getBytes(StandardCharsets.UTF_8));
         }
-        return sb.toString();
+        BufferedOutputStream buffered = new BufferedOutputStream(out);
+        buffered.write((FRAME_HEADER + " " + body.length + "\n").getBytes(StandardCharsets.UTF_8));
+        buffered.write(body);
+        buffered.flush();
     }
 
-    public Map<String, FileInfo> getCurrentFileList() {
-        return currentFileList;
+    /**
+     * 按{@value FileIndexer#WATCH_PROPERTY}启动后台增量索引（未开启或已启动时不做任何事）
+     *
+     * @return 后台索引是否在运行
+     */
+    public synchronized boolean startWatching() {
+        if (indexer == null && Boolean.getBoolean(FileIndexer.WATCH_PROPERTY)) {
+            try {
+                indexer = FileIndexer.start(this, Paths.get("file"));
+            } catch (IOException e) {
+                System.err.println("文件目录监听启动失败，退回按需扫描: " + e.getMessage());
+            }
+        }
+        return indexer != null;
     }
 
-    public FileInfo getFileInfo(String filename) {
-        return currentFileList.get(filename);
+    /**
+     * 登记已在接收过程中逐块验证过的文件（服务器上传），后续扫描不再重新计算哈希；
+     * 开启内容寻址存储时文件写入存储，不再保留普通文件
+     *
+     * @param info 以已验证哈希构造的文件信息
+     * @param path 文件实际路径（记录大小与修改时间，文件再次变化时重新计算）
+     * @throws IOException 读取文件属性失败时抛出
+     */
+    public synchronized void registerVerified(FileInfo info, Path path) throws IOException {
+        Map<String, FileInfo> updated = new HashMap<>(snapshot.files);
+        if (chunkStore != null) {
+            info = chunkStore.ingest(path, info);
+        } else {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            hashIndex.put(info, attrs);
+            if (hashIndex.lookup(info.filename, attrs) == null) {
+                // 上传所用的块大小或分块方式与扫描时不同（如自适应策略的UPLOAD块），索引不会命中；
+                // 按扫描方式重新计算一次，避免之后每次扫描都重算哈希并提升版本号
+                info = FileHasher.hashFile(path);
+                hashIndex.put(info, attrs);
+            }
+            hashIndex.save();
+        }
+        updated.put(info.filename, info);
+        publish(updated);
     }
 
-    public void updateAndSendFileList(PrintWriter out) throws IOException, NoSuchAlgorithmException {
-        updateFileList();
-        sendFileList(out);
+    /**
+     * 登记已写入内容寻址存储的文件（节点同步收到的文件）；同名的普通文件一并删除
+     *
+     * @param info 存储中的文件信息
+     */
+    public synchronized void registerStored(FileInfo info) throws IOException {
+        Files.deleteIfExists(Paths.get("file", info.filename));
+        Map<String, FileInfo> updated = new HashMap<>(snapshot.files);
+        updated.put(info.filename, info);
+        publish(updated);
     }
 
+    /**
+     * 刷新文件列表；后台增量索引运行时快照已是最新，直接返回
+     */
     public void updateFileList() throws IOException, NoSuchAlgorithmException {
+        FileIndexer running = indexer;
+        if (running != null && running.isRunning()) {
+            return;
+        }
+        rescan();
+    }
+
+    /**
+     * 增量更新：只重新检查指定的文件（由后台索引在文件写入稳定后调用）
+     *
+     * @param names 发生变化的文件名（已删除的文件从列表移除）
+     */
+    synchronized void reindex(Collection<String> names) throws IOException, NoSuchAlgorithmException {
+        Map<String, FileInfo> updated = new HashMap<>(snapshot.files);
+        Map<File, BasicFileAttributes> changed = new LinkedHashMap<>();
+        for (String name : names) {
+            File file = new File("file", name);
+            if (!file.isFile()) {
+                FileInfo stored = chunkStore == null ? null : chunkStore.manifest(name);
+                if (stored == null) {
+                    updated.remove(name);
+                } else {
+                    updated.put(name, stored);
+                }
+                continue;
+            }
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            FileInfo fileInfo = hashIndex.lookup(name, attrs);
+            if (fileInfo == null) {
+                changed.put(file, attrs);
+            } else {
+                updated.put(name, fileInfo);
+            }
+        }
+        updated.putAll(hashChanged(changed));
+        hashIndex.retainAll(updated.keySet());
+        hashIndex.save();
+        publish(updated);
+    }
+
+    /**
+     * 全量扫描文件目录（键未变化的文件从哈希索引恢复）
+     */
+    synchronized void rescan() throws IOException, NoSuchAlgorithmException {
         // 文件夹路径
         String folderPath = "file";
         File folder = new File(folderPath);
         if (!folder.exists() || !folder.isDirectory()) {
             throw new FileNotFoundException(System.getProperty("user.dir") + "Folder not found or not a directory: " + folderPath);
         }
-        boolean updated = false;
         Map<String, FileInfo> newFileList = new HashMap<>();
 
+        Map<File, BasicFileAttributes> changed = new LinkedHashMap<>();
         for (File file : Objects.requireNonNull(folder.listFiles())) {
-            if (file.isFile()) {
-                FileInfo fileInfo = generateFile(file);
-                newFileList.put(file.getName(), fileInfo);
-
-                if (!currentFileList.containsKey(file.getName()) ||
-                        !currentFileList.get(file.getName()).equals(fileInfo)) {
-                    updated = true;
+            // 以"."开头的是索引、暂存与同步中的临时文件，与后台索引一致不列出
+            if (file.isFile() && !file.getName().startsWith(".")) {
+                BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                FileInfo fileInfo = hashIndex.lookup(file.getName(), attrs);
+                if (fileInfo == null) {
+                    changed.put(file, attrs);
+                    continue;
                 }
+                newFileList.put(file.getName(), fileInfo);
             }
         }
-        // Remove files that no longer exist in the folder from the current list
-        List<String> toRemove = new ArrayList<>();
-        for (String fileName : currentFileList.keySet()) {
-            if (!newFileList.containsKey(fileName)) {
-                toRemove.add(fileName);
-                updated = true;
-            }
+        if (!changed.isEmpty()) {
+            newFileList.putAll(hashChanged(changed));
         }
-        for (String fileName : toRemove) {
-            currentFileList.remove(fileName);
+        // 目录中已不存在的文件不进入新快照
+        hashIndex.retainAll(newFileList.keySet());
+        if (chunkStore != null) {
+            // 存储中的文件，同名普通文件优先
+            for (Map.Entry<String, FileInfo> stored : chunkStore.manifests().entrySet()) {
+                newFileList.putIfAbsent(stored.getKey(), stored.getValue());
+            }
         }
+        hashIndex.save();
+        publish(newFileList);
+    }
 
-        if (updated) {
-            currentFileList = newFileList;
+    /**
+     * 发布新的文件列表：内容与当前快照相同时保留原快照（版本号与序列化缓存不变），
+     * 否则版本号加一，原快照留作增量基准
+     */
+    private void publish(Map<String, FileInfo> files) {
+        FileListSnapshot current = snapshot;
+        if (FileListSnapshot.sameContent(current.files, files)) {
+            return;
+        }
+        synchronized (history) {
+            history.addLast(current);
+            if (history.size() > HISTORY_SIZE) {
+                history.removeFirst();
+            }
         }
+        snapshot = new FileListSnapshot(current.version + 1, files);
     }
 
-    private void sendFileList(PrintWriter out) {
-        // 构建可扩展的JSON结构
-        List<Map<String, Object>> fileList = new ArrayList<>();
-
-        for (FileInfo fileInfo : currentFileList.values()) {
-            Map<String, Object> fileData = new LinkedHashMap<>();
-            fileData.put("filename", fileInfo.filename);
-            fileData.put("total_chunks", fileInfo.chunks.isEmpty() ? 0 : fileInfo.total_chunks);
-            fileData.put("chunk_size", FileInfo.chunk_size);  // 保持全局块大小
-
-            //分块数据智能封装
-            List<Map<String, Object>> chunks = new ArrayList<>();
-            if (!fileInfo.chunks.isEmpty()) {
-                for (FileInfo.ChunkInfo chunk : fileInfo.chunks) {
-                    Map<String, Object> chunkData = new HashMap<>();
-                    chunkData.put("number", chunk.chunk_number);
-                    chunkData.put("hash", chunk.hash);
-                    chunkData.put("offset", chunk.chunk_number * FileInfo.chunk_size);  // 增加计算字段
-                    chunks.add(chunkData);
+    /**
+     * @return 近期历史中指定版本的快照，已淘汰或从未存在时返回null
+     */
+    private FileListSnapshot historical(long version) {
+        synchronized (history) {
+            for (FileListSnapshot old : history) {
+                if (old.version == version) {
+                    return old;
                 }
             }
-            fileData.put("chunks", chunks);
+        }
+        return null;
+    }
 
-            // 增加校验元数据
-            fileData.put("protocol_version", "1.0");
-            fileData.put("timestamp", System.currentTimeMillis());
-            fileList.add(fileData);
+    /**
+     * 按请求方持有的版本生成未变化或增量应答
+     *
+     * @return 需要发送全量列表时返回null
+     */
+    private String conditionalReply(FileListSnapshot current, long since, boolean rootsOnly) {
+        if (since == FileListSnapshot.UNVERSIONED) {
+            return null;
         }
+        if (since == current.version) {
+            return current.cached("not_modified", () -> {
+                Map<String, Object> payload = new LinkedHashMap<>();
+                payload.put("version", current.version);
+                payload.put("not_modified", true);
+                return new Gson().toJson(payload);
+            });
+        }
+        FileListSnapshot base = historical(since);
+        if (base == null) {
+            return null;
+        }
+        return current.cached((rootsOnly ? "delta-roots:" : "delta:") + since,
+                () -> buildDeltaJson(base, current, rootsOnly));
+    }
 
-        // 构建完整报文
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("files", fileList);
+    private String buildDeltaJson(FileListSnapshot base, FileListSnapshot current, boolean rootsOnly) {
+        List<Map<String, Object>> changed = new ArrayList<>();
+        for (FileInfo fileInfo : current.files.values()) {
+            FileInfo old = base.files.get(fileInfo.filename);
+            if (old == null || !FileListSnapshot.sameContent(old, fileInfo)) {
+                changed.add(fileEntry(fileInfo, rootsOnly));
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String name : base.files.keySet()) {
+            if (!current.files.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("version", current.version);
+        payload.put("base", base.version);
+        payload.put("files", changed);
+        payload.put("removed", removed);
+        return new Gson().toJson(payload);
+    }
 
+    private static byte[] binaryManifest(FileListSnapshot current, boolean rootsOnly) {
+        return current.cached(rootsOnly ? "bin-roots" : "bin", () -> BinaryManifest.encode(current, rootsOnly));
+    }
+
+    /**
+     * 计算新增或变化文件的哈希并记入索引（开启并行模式时在fork/join线程池中并行计算）
+     *
+     * @param changed 需要重新计算的文件及其当前属性
+     * @return 文件名 → 文件信息
+     */
+    private Map<String, FileInfo> hashChanged(Map<File, BasicFileAttributes> changed)
+            throws IOException, NoSuchAlgorithmException {
+        Map<String, FileInfo> result;
+        if (parallelHasher != null && !changed.isEmpty()) {
+            List<Path> paths = new ArrayList<>(changed.size());
+            for (File file : changed.keySet()) {
+                paths.add(file.toPath());
+            }
+            result = parallelHasher.hashAll(paths);
+        } else {
+            result = new HashMap<>();
+            for (File file : changed.keySet()) {
+                result.put(file.getName(), generateFile(file));
+            }
+        }
+        for (Map.Entry<File, BasicFileAttributes> entry : changed.entrySet()) {
+            hashIndex.put(result.get(entry.getKey().getName()), entry.getValue());
+        }
+        return result;
+    }
 
+    private void sendFileList(PrintWriter out, String json) {
+        if (out instanceof FrameWriter) {
+            // 分帧协议：整个列表作为一个定长帧发送
+            ((FrameWriter) out).sendFrame(ControlFrame.FILE_LIST, json);
+            return;
+        }
         // 序列化并发送（使用GSON库）
         out.println("File_List");
-        out.println(new Gson().toJson(payload));
+        out.println(json);
         out.flush();  // 保持原有刷新机制
     }
 
-    public Map<String, FileInfo> receiveFileList(BufferedReader in) throws IOException {
-        StringBuilder json = new StringBuilder();
-        String line;
-        while ((line = in.readLine()) != null) { // 兼容多行JSON传输
-            json.append(line);
-        }
+    /**
+     * 生成当前文件列表的JSON报文（{"files":[...]}，行协议与分帧协议共用）
+     */
+    public String buildFileListJson() {
+        return buildFileListJson(false);
+    }
 
-        JsonObject root = JsonParser.parseString(json.toString()).getAsJsonObject();
-        // 验证协议版本
-        JsonArray filesArray = root.getAsJsonArray("files");
-        for (JsonElement fileElement : filesArray) {
-            JsonObject fileObj = fileElement.getAsJsonObject();
+    /**
+     * 生成文件列表JSON报文（同一快照只序列化一次）
+     *
+     * @param rootsOnly 为true时省略{@code chunks}，只保留{@code merkle_root}
+     */
+    public String buildFileListJson(boolean rootsOnly) {
+        return fileListJson(snapshot, rootsOnly);
+    }
 
-            // 增强字段存在性校验（防御性编程）
-            if (!fileObj.has("protocol_version"))  {
-                throw new ProtocolException("协议版本字段缺失");
+    private static String fileListJson(FileListSnapshot current, boolean rootsOnly) {
+        return current.cached(rootsOnly ? "json-roots" : "json", () -> {
+            // 构建可扩展的JSON结构
+            List<Map<String, Object>> fileList = new ArrayList<>();
+            for (FileInfo fileInfo : current.files.values()) {
+                fileList.add(fileEntry(fileInfo, rootsOnly));
             }
+            // 构建完整报文
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("version", current.version);
+            payload.put("files", fileList);
+            return new Gson().toJson(payload);
+        });
+    }
 
-            String version = fileObj.get("protocol_version").getAsString();
-            if (!"1.0".equals(version)) {
-                throw new ProtocolException("文件" + fileObj.get("filename")  + "版本不兼容，当前支持1.0");
+    /**
+     * 单个文件的JSON条目（全量列表与增量应答共用）
+     */
+    private static Map<String, Object> fileEntry(FileInfo fileInfo, boolean rootsOnly) {
+        Map<String, Object> fileData = new LinkedHashMap<>();
+        fileData.put("filename", fileInfo.filename);
+        fileData.put("total_chunks", fileInfo.chunks.isEmpty() ? 0 : fileInfo.total_chunks);
+        fileData.put("chunk_size", fileInfo.getChunkSize());  // 各文件的块大小（ChunkSizePolicy）
+        fileData.put("file_size", fileInfo.getFileSize());
+        fileData.put("file_hash", fileInfo.getFileHash());
+        fileData.put("merkle_root", fileInfo.getMerkleRoot());
+
+        //分块数据智能封装
+        List<Map<String, Object>> chunks = new ArrayList<>();
+        if (!rootsOnly && !fileInfo.chunks.isEmpty()) {
+            for (FileInfo.ChunkInfo chunk : fileInfo.chunks) {
+                Map<String, Object> chunkData = new HashMap<>();
+                chunkData.put("number", chunk.chunk_number);
+                chunkData.put("hash", chunk.hash);
+                chunkData.put("offset", chunk.offset);
+                chunkData.put("length", chunk.length);
+                chunks.add(chunkData);
             }
+        }
+        if (!rootsOnly) {
+            fileData.put("chunks", chunks);
+        }
+
+        // 增加校验元数据
+        fileData.put("protocol_version", "1.0");
+        fileData.put("chunk_algorithm", fileInfo.getChunkAlgorithm());
+        fileData.put("chunking", fileInfo.getChunking());
+        fileData.put("timestamp", System.currentTimeMillis());
+        return fileData;
+    }
+
+    public Map<String, FileInfo> receiveFileList(BufferedReader in) throws IOException {
+        return receiveFileList(in, null).files;
+    }
+
+    /**
+     * 读取对端的文件列表应答（行协议：JSON之后对端关闭连接）
+     *
+     * @param base 请求时附带版本对应的本地快照，没有时为null
+     */
+    public FileListSnapshot receiveFileList(BufferedReader in, FileListSnapshot base) throws IOException {
+        // 边读边解析，不再先拼接整个报文（兼容多行JSON传输）
+        return parseFileList(in, base);
+    }
+
+    /**
+     * 读取{@value #FRAME_HEADER}应答的JSON负载（恰好读完length字节，连接可继续用于下一个请求）
+     *
+     * @param in     连接输入流（应答行已读取）
+     * @param length 应答行声明的负载字节数
+     * @param base   请求时附带版本对应的本地快照，没有时为null
+     */
+    public static FileListSnapshot receiveFileList(InputStream in, long length, FileListSnapshot base)
+            throws IOException {
+        BoundedInputStream body = new BoundedInputStream(in, length);
+        FileListSnapshot snapshot = parseFileList(new InputStreamReader(body, StandardCharsets.UTF_8), base);
+        body.drain(); // JSON之后的空白也属于本帧
+        return snapshot;
+    }
 
+    /**
+     * 解析文件列表JSON（全量、增量或未变化应答）
+     *
+     * @param base 请求时附带版本对应的快照；增量应答在其上合并，未变化应答直接返回它
+     * @return 对端当前快照（旧版本报文的版本号为{@link FileListSnapshot#UNVERSIONED}）
+     * @throws ProtocolException   协议版本不兼容，或应答的基准版本与base不符
+     * @throws JsonSyntaxException JSON格式错误
+     */
+    public static FileListSnapshot parseFileList(String json, FileListSnapshot base) throws ProtocolException {
+        try {
+            return parseFileList(new StringReader(json), base);
+        } catch (ProtocolException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * 流式解析文件列表JSON（{@link JsonReader}单遍读取）
+     *
+     * <p>逐个读取文件条目并直接构造{@link FileInfo}/{@link FileInfo.ChunkInfo}，
+     * 协议版本在读到该文件的{@code protocol_version}时即校验，不构建整棵JSON树，也不复制整个报文，
+     * 内存占用只有解析结果本身。
+     *
+     * @param json 报文来源（读到顶层对象结束为止，不关闭）
+     * @param base 请求时附带版本对应的快照
+     * @throws ProtocolException 协议版本不兼容、字段缺失或类型错误，或应答的基准版本与base不符
+     * @throws IOException       读取失败或JSON格式错误
+     */
+    public static FileListSnapshot parseFileList(Reader json, FileListSnapshot base) throws IOException {
+        JsonReader reader = new JsonReader(json);
+        long snapshotVersion = FileListSnapshot.UNVERSIONED;
+        long since = FileListSnapshot.UNVERSIONED;
+        boolean notModified = false;
+        Map<String, FileInfo> files = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "version":
+                        snapshotVersion = reader.nextLong();
+                        break;
+                    case "not_modified":
+                        notModified = reader.nextBoolean();
+                        break;
+                    case "base":
+                        since = reader.nextLong();
+                        break;
+                    case "removed":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            removed.add(reader.nextString());
+                        }
+                        reader.endArray();
+                        break;
+                    case "files":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            FileInfo info = readFileEntry(reader);
+                            files.put(info.filename, info);
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // 字段类型与协议不符
+            throw new ProtocolException("文件列表格式错误: " + e.getMessage());
+        }
+        if (notModified) {
+            if (base == null || base.version != snapshotVersion) {
+                throw new ProtocolException("未变化应答与本地版本不符: " + snapshotVersion);
+            }
+            return base;
+        }
+        if (since != FileListSnapshot.UNVERSIONED) {
+            if (base == null || base.version != since) {
+                throw new ProtocolException("增量应答的基准版本不符: " + since);
+            }
+            Map<String, FileInfo> merged = new HashMap<>(base.files);
+            merged.keySet().removeAll(removed);
+            merged.putAll(files);
+            files = merged;
         }
+        return new FileListSnapshot(snapshotVersion, files);
+    }
 
-        // 反序列化核心数据
-        Map<String, FileInfo> result = new HashMap<>();
-        for (JsonElement elem : root.getAsJsonArray("files")) {
-            JsonObject fileObj = elem.getAsJsonObject();
-            FileInfo info = new FileInfo();
-            info.filename = fileObj.get("filename").getAsString();
-            info.total_chunks = fileObj.get("total_chunks").getAsInt();
+    /**
+     * 读取一个文件条目（字段顺序不限，未知字段跳过）
+     */
+    private static FileInfo readFileEntry(JsonReader reader) throws IOException {
+        String filename = null;
+        String version = null;
+        String fileHash = null;
+        String merkleRoot = null;
+        String chunkAlgorithm = null;
+        String chunking = null;
+        int totalChunks = 0;
+        long fileSize = 0;
+        long chunkSize = FileInfo.chunk_size;
+        // 分块数据重建（只携带Merkle根的列表没有chunks）
+        List<FileInfo.ChunkInfo> chunks = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "filename":
+                    filename = reader.nextString();
+                    break;
+                case "protocol_version":
+                    version = reader.nextString();
+                    if (!"1.0".equals(version)) {
+                        throw new ProtocolException("文件" + filename + "版本不兼容，当前支持1.0");
+                    }
+                    break;
+                case "total_chunks":
+                    totalChunks = reader.nextInt();
+                    break;
+                case "chunk_size":
+                    chunkSize = reader.nextLong();
+                    break;
+                case "file_size":
+                    fileSize = reader.nextLong();
+                    break;
+                case "file_hash":
+                    fileHash = nextStringOrNull(reader);
+                    break;
+                case "merkle_root":
+                    merkleRoot = nextStringOrNull(reader);
+                    break;
+                case "chunk_algorithm":
+                    chunkAlgorithm = nextStringOrNull(reader);
+                    break;
+                case "chunking":
+                    chunking = nextStringOrNull(reader);
+                    break;
+                case "chunks":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        chunks.add(readChunk(reader));
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        // 增强字段存在性校验（防御性编程）
+        if (version == null) {
+            throw new ProtocolException("协议版本字段缺失");
+        }
+        if (filename == null) {
+            throw new ProtocolException("文件名字段缺失");
+        }
+        FileInfo info = new FileInfo(filename, totalChunks, chunks, fileSize, fileHash, chunkSize);
+        info.setMerkleRoot(merkleRoot);
+        info.setChunkAlgorithm(chunkAlgorithm);
+        info.setChunking(chunking);
+        return info;
+    }
 
-            // 分块数据重建
-            for (JsonElement chunkElem : fileObj.getAsJsonArray("chunks")) {
-                JsonObject chunk = chunkElem.getAsJsonObject();
-                info.chunks.add(new FileInfo.ChunkInfo(
-                        chunk.get("number").getAsInt(),
-                        chunk.get("hash").getAsString()
-                ));
+    private static FileInfo.ChunkInfo readChunk(JsonReader reader) throws IOException {
+        int number = 0;
+        String hash = null;
+        long offset = -1;
+        int length = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "number":
+                    number = reader.nextInt();
+                    break;
+                case "hash":
+                    hash = reader.nextString();
+                    break;
+                case "offset":
+                    offset = reader.nextLong();
+                    break;
+                case "length":
+                    length = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
             }
-            result.put(info.filename, info);
         }
-        return result;
+        reader.endObject();
+        if (hash == null) {
+            throw new ProtocolException("块哈希字段缺失");
+        }
+        // 未携带长度的块由FileInfo按块大小补全偏移
+        return length < 0 ? new FileInfo.ChunkInfo(number, hash) : new FileInfo.ChunkInfo(number, hash, offset, length);
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
     }
 
     public boolean compareFileList(BufferedReader in) {
         try {
-            //比较本地文件列表变量和远程客户端发送的列表，全部包含返回true，有缺失返回false
-            remoteFileList = receiveFileList(in);
-            if (isLocalConsistent(currentFileList, remoteFileList)) {
-                return true;
-            }
+            //比较本地文件列表变量和远程客户端发送的列表，全部存在且内容相同返回true，有缺失或内容不同返回false
+            return compareFileList(receiveFileList(in));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        return false;
+    }
+
+    /**
+     * 记录已解析的远端列表（JSON或二进制清单）并与本地比较
+     *
+     * @return 远端文件本地全部存在且内容相同返回true
+     */
+    public boolean compareFileList(Map<String, FileInfo> remote) {
+        remoteFileList = remote;
+        return isLocalConsistent(snapshot.files, remoteFileList);
     }
 
     public boolean isLocalConsistent(Map<String, FileInfo> local, Map<String, FileInfo> remote) {
-        // 关键文件全量覆盖检查
-        return remote.keySet().stream().allMatch(local::containsKey);
+        // 同名文件内容不同（对端已修改）也需要同步
+        return remote.entrySet().stream()
+                .allMatch(entry -> entry.getValue().sameContentAs(local.get(entry.getKey())));
     }
 
     private FileInfo generateFile(File file) throws IOException, NoSuchAlgorithmException {
-        final long fileSize = file.length();
-        final int totalChunks = calculateTotalChunks(fileSize);
-        final List<FileInfo.ChunkInfo> chunks = new ArrayList<>();
-        final Path path = file.toPath();
-
-        // 优化1: 文件级哈希与分块哈希并行计算
-        try (InputStream is = Files.newInputStream(path);
-             BufferedInputStream bis = new BufferedInputStream(is)) {
-
-            MessageDigest fileDigest = MessageDigest.getInstance("SHA-256");
-            DigestInputStream fileHashStream = new DigestInputStream(bis, fileDigest);
-
-            for (int i = 0; i < totalChunks; i++) {
-                // 优化2: 分块读取与哈希计算
-                long remaining = Math.min(FileInfo.chunk_size, fileSize - i * FileInfo.chunk_size);
-                byte[] chunkBuffer = new byte[(int) remaining];
-                readFully(fileHashStream, chunkBuffer);  // 确保完整读取
-
-                // 优化3: 复用缓冲数据计算分块哈希
-                try (ByteArrayInputStream chunkStream = new ByteArrayInputStream(chunkBuffer)) {
-                    String chunkHash = FileInfo.calculateHash(chunkStream);
-                    chunks.add(new FileInfo.ChunkInfo(i + 1, chunkHash));
-                }
-            }
+        return FileHasher.hashFile(file.toPath());
+    }
 
-            // 获取文件级哈希
-            String fileHash = bytesToHex(fileDigest.digest());
-            return new FileInfo(file.getName(), totalChunks, chunks, fileSize, fileHash);
-        }
+    public Map<String, FileInfo> getFileList() {
+        return this.snapshot.files;
     }
 
-    // 辅助方法：精确读取字节流
-    private void readFully(InputStream is, byte[] buffer) throws IOException {
-        int bytesRead = 0;
-        while (bytesRead < buffer.length) {
-            int res = is.read(buffer, bytesRead, buffer.length - bytesRead);
-            if (res == -1) throw new EOFException("Unexpected end of stream");
-            bytesRead += res;
+    /**
+     * 只读取前length字节的输入流（不关闭底层连接）
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
         }
-    }
 
-    // 辅助方法：分块数计算（防御整数溢出）
-    private int calculateTotalChunks(long fileSize) {
-        if (FileInfo.chunk_size <= 0) throw new IllegalArgumentException("Invalid chunk size");
-        long total = (fileSize + FileInfo.chunk_size - 1) / FileInfo.chunk_size;
-        if (total > Integer.MAX_VALUE) throw new IllegalStateException("File too large for chunking");
-        return (int) total;
-    }
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("文件列表不完整，缺少" + remaining + "字节");
+            }
+            remaining--;
+            return b;
+        }
 
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("文件列表不完整，缺少" + remaining + "字节");
+            }
+            remaining -= n;
+            return n;
+        }
 
-    public Map<String, FileInfo> getFileList() {
-        return this.currentFileList;
+        @Override
+        public void close() {
+            // 连接由调用方管理
+        }
+
+        /**
+         * 跳过本帧剩余的字节
+         */
+        void drain() throws IOException {
+            byte[] skip = new byte[512];
+            while (read(skip, 0, skip.length) > 0) {
+                // 丢弃
+            }
+        }
     }
 }
@@ -0,0 +1,85 @@
+package sample.AllNeed;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 带版本号的文件列表快照（不可变）
+ *
+ * <p>{@link FileListManager}每次发布内容确有变化的列表时版本号加一；内容未变的重新扫描不产生新快照。
+ * 请求方在列表请求后附上已持有的版本号（{@code fl <版本>}、{@code LIST_REQUEST <版本>}），
+ * 对端按版本应答：
+ * <ul>
+ *   <li><b>未变化</b>：{@code {"version":v,"not_modified":true}}</li>
+ *   <li><b>增量</b>：请求的版本仍在近期历史中时只发送变化的文件与删除的文件名
+ *   {@code {"version":v,"base":旧版本,"files":[...],"removed":[...]}}</li>
+ *   <li><b>全量</b>：其余情况发送完整列表（JSON带{@code version}字段，二进制清单头部携带版本）</li>
+ * </ul>
+ * 同一快照的序列化结果（JSON、二进制清单、增量报文）按格式缓存在快照上，重复请求不再重新序列化。
+ *
+ * @since 2025.3.22
+ */
+public final class FileListSnapshot {
+    /**
+     * 对端未携带版本（旧版本报文）
+     */
+    public static final long UNVERSIONED = -1;
+    static final FileListSnapshot EMPTY = new FileListSnapshot(0, Collections.emptyMap());
+
+    public final long version;
+    /**
+     * 文件名 → 文件信息（不可修改）
+     */
+    public final Map<String, FileInfo> files;
+    /**
+     * 格式键 → 序列化结果
+     */
+    private final Map<String, Object> encoded = new ConcurrentHashMap<>();
+
+    public FileListSnapshot(long version, Map<String, FileInfo> files) {
+        this.version = version;
+        this.files = Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * 取得缓存的序列化结果，首次请求时生成
+     *
+     * @param key     格式键
+     * @param encoder 生成方法（不能再调用本方法：ConcurrentHashMap不允许嵌套computeIfAbsent）
+     */
+    @SuppressWarnings("unchecked")
+    <T> T cached(String key, Supplier<T> encoder) {
+        return (T) encoded.computeIfAbsent(key, k -> encoder.get());
+    }
+
+    /**
+     * 比较两个版本的同名文件内容是否相同（整体哈希、大小、分块算法、分块方式与块大小）
+     */
+    static boolean sameContent(FileInfo a, FileInfo b) {
+        return a.getFileSize() == b.getFileSize()
+                && Objects.equals(a.getFileHash(), b.getFileHash())
+                && a.getChunkAlgorithm().equals(b.getChunkAlgorithm())
+                && a.getChunking().equals(b.getChunking())
+                && a.getChunkSize() == b.getChunkSize()
+                && a.chunks.size() == b.chunks.size();
+    }
+
+    /**
+     * @return 两个文件映射内容是否完全相同
+     */
+    static boolean sameContent(Map<String, FileInfo> a, Map<String, FileInfo> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (Map.Entry<String, FileInfo> entry : a.entrySet()) {
+            FileInfo other = b.get(entry.getKey());
+            if (other == null || !sameContent(entry.getValue(), other)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+package sample.AllNeed;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.function.Consumer;
+
+/**
+ * 分帧协议下的应答输出
+ *
+ * <p>保持PrintWriter接口，面向行协议编写的应答代码无需修改：每次{@code println}（自动flush）
+ * 输出一个{@link ControlFrame#TEXT}帧；列表等结构化负载通过{@link #sendFrame(byte, String)}
+ * 作为单个带类型的帧发送。所有帧携带构造时指定的请求ID。
+ *
+ * @see ControlFrame 帧格式
+ * @since 2025.3.22
+ */
+public class FrameWriter extends PrintWriter {
+    private final TextFramer framer;
+
+    /**
+     * @param sink      接收已编码帧的目标（如客户端发送队列）
+     * @param requestId 应答对应的请求ID（主动推送为0）
+     */
+    public FrameWriter(Consumer<byte[]> sink, int requestId) {
+        this(new TextFramer(sink, requestId));
+    }
+
+    private FrameWriter(TextFramer framer) {
+        super(framer, true);
+        this.framer = framer;
+    }
+
+    /**
+     * 发送带类型的完整帧（先输出已缓冲的文本）
+     *
+     * @param type    帧类型
+     * @param payload 负载文本
+     */
+    public void sendFrame(byte type, String payload) {
+        synchronized (lock) {
+            flush();
+            framer.sink.accept(ControlFrame.encode(type, framer.requestId, payload));
+        }
+    }
+
+    /**
+     * 发送二进制负载的帧（先输出已缓冲的文本）
+     *
+     * @param type    帧类型
+     * @param payload 负载字节
+     */
+    public void sendFrame(byte type, byte[] payload) {
+        synchronized (lock) {
+            flush();
+            framer.sink.accept(ControlFrame.encode(type, framer.requestId, payload));
+        }
+    }
+
+    /**
+     * 累积字符，flush时去掉末尾换行符并编码为TEXT帧
+     */
+    private static final class TextFramer extends Writer {
+        private final Consumer<byte[]> sink;
+        private final int requestId;
+        private final StringBuilder text = new StringBuilder();
+
+        TextFramer(Consumer<byte[]> sink, int requestId) {
+            this.sink = sink;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            text.append(cbuf, off, len);
+        }
+
+        @Override
+        public void flush() {
+            int len = text.length();
+            if (len == 0) {
+                return;
+            }
+            if (text.charAt(len - 1) == '\n') {
+                len--;
+                if (len > 0 && text.charAt(len - 1) == '\r') {
+                    len--;
+                }
+            }
+            sink.accept(ControlFrame.encode(ControlFrame.TEXT, requestId, text.substring(0, len)));
+            text.setLength(0);
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package sample.AllNeed;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 分块哈希的Merkle树
+ *
+ * <p>文件列表只交换根哈希；两端根哈希不同时，按层向下请求差异节点的子节点，
+ * 每层一次往返，只需比较O(差异块数 × 树高)个哈希即可定位不同的块。
+ * <ul>
+ *   <li><b>叶子</b>：{@code SHA-256(0x00 || offset(8B) || length(4B) || 块哈希)}，块的位置与长度也受根哈希保护</li>
+ *   <li><b>内部节点</b>：{@code SHA-256(0x01 || 左 || 右)}，前缀区分叶子与内部节点，防止二者互相伪造</li>
+ *   <li><b>奇数节点</b>：一层末尾落单的节点原样提升到上一层（不复制、不重算），
+ *   因此第{@code level}层的节点{@code i}始终覆盖叶子区间{@code [i << level, (i + 1) << level)}</li>
+ *   <li><b>空文件</b>：根为{@code SHA-256(0x00)}，高度为0</li>
+ * </ul>
+ * 层号从叶子开始计（叶子为第0层，根为第{@link #height()}层）。
+ * 下探得到的叶子已由根哈希证明，接收方按叶子中的块哈希逐块校验收到的数据，不必等待整个文件。
+ *
+ * @see FileInfo#getMerkleRoot()
+ * @since 2025.3.22
+ */
+public final class MerkleTree {
+    private static final byte LEAF = 0x00;
+    private static final byte NODE = 0x01;
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * levels[0]为叶子，最后一层只有根
+     */
+    private final byte[][][] levels;
+    private final int leafCount;
+
+    private MerkleTree(byte[][][] levels, int leafCount) {
+        this.levels = levels;
+        this.leafCount = leafCount;
+    }
+
+    /**
+     * 由分块列表构建（块须按偏移顺序排列）
+     */
+    public static MerkleTree build(List<FileInfo.ChunkInfo> chunks) {
+        if (chunks.isEmpty()) {
+            MessageDigest md = DIGESTS.get();
+            md.reset();
+            md.update(LEAF);
+            return new MerkleTree(new byte[][][]{{md.digest()}}, 0);
+        }
+        byte[][] leaves = new byte[chunks.size()][];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = leafHash(chunks.get(i));
+        }
+        List<byte[][]> levels = new ArrayList<>();
+        levels.add(leaves);
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            level = parents(level);
+            levels.add(level);
+        }
+        return new MerkleTree(levels.toArray(new byte[0][][]), leaves.length);
+    }
+
+    /**
+     * 由分块表构建（直接使用表中的原始校验值，不创建块对象）
+     */
+    public static MerkleTree build(ChunkTable table) {
+        if (table.size() == 0) {
+            return build(table.asList());
+        }
+        byte[][] leaves = new byte[table.size()][];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = leafHash(table.offset(i), table.length(i), table.digest(i));
+        }
+        List<byte[][]> levels = new ArrayList<>();
+        levels.add(leaves);
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            level = parents(level);
+            levels.add(level);
+        }
+        return new MerkleTree(levels.toArray(new byte[0][][]), leaves.length);
+    }
+
+    /**
+     * 叶子哈希
+     *
+     * @throws IllegalArgumentException 块哈希不是十六进制时抛出
+     */
+    public static byte[] leafHash(FileInfo.ChunkInfo chunk) {
+        return leafHash(chunk.offset, chunk.length, FileHasher.fromHex(chunk.hash));
+    }
+
+    private static byte[] leafHash(long offset, int length, byte[] digest) {
+        MessageDigest md = DIGESTS.get();
+        md.reset();
+        md.update(LEAF);
+        md.update(ByteBuffer.allocate(12).putLong(offset).putInt(length).array());
+        md.update(digest);
+        return md.digest();
+    }
+
+    /**
+     * 内部节点哈希
+     */
+    public static byte[] nodeHash(byte[] left, byte[] right) {
+        MessageDigest md = DIGESTS.get();
+        md.reset();
+        md.update(NODE);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    private static byte[][] parents(byte[][] level) {
+        byte[][] up = new byte[(level.length + 1) / 2][];
+        for (int i = 0; i < up.length; i++) {
+            int left = i * 2;
+            up[i] = left + 1 < level.length ? nodeHash(level[left], level[left + 1]) : level[left];
+        }
+        return up;
+    }
+
+    public byte[] root() {
+        return levels[levels.length - 1][0];
+    }
+
+    public String rootHex() {
+        return FileHasher.toHex(root());
+    }
+
+    public int leafCount() {
+        return leafCount;
+    }
+
+    /**
+     * @return 根所在的层号（单块文件与空文件为0）
+     */
+    public int height() {
+        return levels.length - 1;
+    }
+
+    /**
+     * @return 指定层的节点数
+     */
+    public int width(int level) {
+        return levels[level].length;
+    }
+
+    public byte[] node(int level, int index) {
+        return levels[level][index];
+    }
+
+    /**
+     * 自根向下比较两棵形状相同的树，找出不同的叶子
+     *
+     * <p>每层把所有差异节点的子节点合并为一次{@link NodeSource#nodes}请求；
+     * 收到的子节点先与已确认的远端父节点核对，远端返回的内容与其根哈希不符时抛出异常。
+     *
+     * @param remoteRoot 远端根哈希（来自文件列表）
+     * @param remote     远端节点来源
+     * @return 不同叶子的下标（升序）；根哈希相同时为空
+     * @throws ProtocolException 远端节点与其父节点不符
+     * @throws IOException       读取远端节点失败
+     */
+    public List<Integer> diff(byte[] remoteRoot, NodeSource remote) throws IOException {
+        List<Integer> differing = new ArrayList<>();
+        if (Arrays.equals(root(), remoteRoot)) {
+            return differing;
+        }
+        differing.add(0);
+        List<byte[]> trusted = new ArrayList<>();
+        trusted.add(remoteRoot);
+        for (int level = height() - 1; level >= 0; level--) {
+            int width = width(level);
+            List<Integer> children = new ArrayList<>();
+            for (int parent : differing) {
+                children.add(parent * 2);
+                if (parent * 2 + 1 < width) {
+                    children.add(parent * 2 + 1);
+                }
+            }
+            byte[][] fetched = remote.nodes(level, children);
+            if (fetched.length != children.size()) {
+                throw new ProtocolException("远端返回的节点数不符");
+            }
+            // 逐个父节点核对：子节点必须能重算出已确认的父哈希
+            for (int p = 0, c = 0; p < differing.size(); p++) {
+                int parent = differing.get(p);
+                byte[] expected;
+                if (parent * 2 + 1 < width) {
+                    expected = nodeHash(fetched[c], fetched[c + 1]);
+                    c += 2;
+                } else {
+                    expected = fetched[c];
+                    c += 1;
+                }
+                if (!Arrays.equals(expected, trusted.get(p))) {
+                    throw new ProtocolException("第" + (level + 1) + "层节点" + parent + "子树校验失败");
+                }
+            }
+            differing = new ArrayList<>();
+            trusted = new ArrayList<>();
+            for (int i = 0; i < children.size(); i++) {
+                int index = children.get(i);
+                if (!Arrays.equals(fetched[i], node(level, index))) {
+                    differing.add(index);
+                    trusted.add(fetched[i]);
+                }
+            }
+        }
+        return differing;
+    }
+
+    /**
+     * 远端Merkle树节点来源
+     */
+    public interface NodeSource {
+        /**
+         * 取得远端指定层的若干节点
+         *
+         * @param level   层号（0为叶子）
+         * @param indices 节点下标（升序）
+         * @return 与下标一一对应的节点哈希
+         */
+        byte[][] nodes(int level, List<Integer> indices) throws IOException;
+    }
+}
@@ -0,0 +1,194 @@
+package sample.AllNeed;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并行文件哈希（fork/join）
+ *
+ * <p>启动参数{@code -D}{@value #PARALLEL_PROPERTY}{@code =true}时，{@link FileListManager}扫描中需要重新计算的文件
+ * 交给本类并行处理：
+ * <ul>
+ *   <li><b>文件间并行</b>：每个文件一个任务，同时提交到线程池</li>
+ *   <li><b>块间并行</b>：超过一块的文件按块区间二分拆分，各块从共享的{@link FileChannel}按位置读取并独立计算</li>
+ *   <li><b>整体哈希</b>：与块任务同时运行一个顺序读取的整体SHA-256任务，结果与单线程计算完全一致，
+ *   客户端已有的整体哈希比较不受影响</li>
+ * </ul>
+ * 单块文件仍由{@link FileHasher#hashFile(Path)}单遍计算；内容定义分块（{@link FastCdc}）的文件只做文件间并行。
+ * 线程数默认CPU核数，可由{@value #THREADS_PROPERTY}指定。
+ *
+ * <p>大文件的耗时下限为整体哈希的顺序读取时间；多文件或多块时块哈希随核数扩展。
+ *
+ * @since 2025.3.22
+ */
+final class ParallelHasher {
+    static final String PARALLEL_PROPERTY = "p2p.index.parallel";
+    static final String THREADS_PROPERTY = "p2p.index.threads";
+
+    private final ForkJoinPool pool;
+
+    private ParallelHasher(int threads) {
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("hash-worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    /**
+     * 按启动参数创建
+     *
+     * @return 未开启并行模式时返回null
+     */
+    static ParallelHasher fromProperties() {
+        if (!Boolean.getBoolean(PARALLEL_PROPERTY)) {
+            return null;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new ParallelHasher(Math.max(1, Integer.getInteger(THREADS_PROPERTY, cores)));
+    }
+
+    /**
+     * 并行计算多个文件的哈希
+     *
+     * @param files 文件列表
+     * @return 文件名 → 文件信息（与输入顺序一致）
+     * @throws IOException 任一文件读取失败时抛出
+     */
+    Map<String, FileInfo> hashAll(List<Path> files) throws IOException {
+        List<FileTask> tasks = new ArrayList<>(files.size());
+        for (Path file : files) {
+            tasks.add(new FileTask(file));
+        }
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Map<String, FileInfo> result = new LinkedHashMap<>();
+        for (FileTask task : tasks) {
+            FileInfo info = task.join();
+            result.put(info.getFileName(), info);
+        }
+        return result;
+    }
+
+    /**
+     * 单个文件：整体哈希任务与块区间任务同时执行
+     */
+    private static final class FileTask extends RecursiveTask<FileInfo> {
+        private static final long serialVersionUID = 1L;
+        private final Path path;
+
+        FileTask(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        protected FileInfo compute() {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long chunkSize = ChunkSizePolicy.chunkSize(size, ChunkSizePolicy.Mode.SYNC);
+                ChunkChecksum algorithm = ChunkChecksum.configured();
+                FastCdc cdc = FastCdc.fromProperties();
+                if (cdc != null) {
+                    // 内容定义分块的边界依赖前文，不能按区间拆分
+                    return FileHasher.hashFile(path, algorithm, cdc);
+                }
+                if (size <= chunkSize) {
+                    return FileHasher.hashFile(path, algorithm, chunkSize);
+                }
+                long totalChunks = (size + chunkSize - 1) / chunkSize;
+                if (totalChunks > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("File too large for chunking");
+                }
+                String[] hashes = new String[(int) totalChunks];
+                ForkJoinTask<byte[]> whole = new RecursiveTask<byte[]>() {
+                    @Override
+                    protected byte[] compute() {
+                        try {
+                            return FileHasher.digest(channel, 0, size);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }.fork();
+                new ChunkRange(channel, size, chunkSize, algorithm, hashes, 0, hashes.length).invoke();
+                String fileHash = FileHasher.toHex(whole.join());
+                ChunkTable.Builder chunks = new ChunkTable.Builder(hashes.length);
+                for (int i = 0; i < hashes.length; i++) {
+                    long offset = i * chunkSize;
+                    chunks.add(hashes[i], offset, (int) Math.min(chunkSize, size - offset));
+                }
+                FileInfo info = new FileInfo(path.getFileName().toString(), hashes.length,
+                        chunks.build(size, chunkSize), size, fileHash);
+                info.setChunkAlgorithm(algorithm.name());
+                return info;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * 块区间[from, to)：拆分到单块后计算
+     */
+    private static final class ChunkRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long size;
+        private final long chunkSize;
+        private final ChunkChecksum algorithm;
+        private final String[] hashes;
+        private final int from;
+        private final int to;
+
+        ChunkRange(FileChannel channel, long size, long chunkSize, ChunkChecksum algorithm, String[] hashes,
+                   int from, int to) {
+            this.channel = channel;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.algorithm = algorithm;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkRange(channel, size, chunkSize, algorithm, hashes, from, mid),
+                        new ChunkRange(channel, size, chunkSize, algorithm, hashes, mid, to));
+                return;
+            }
+            long position = from * chunkSize;
+            long length = Math.min(chunkSize, size - position);
+            try {
+                hashes[from] = FileHasher.checksum(channel, position, length, algorithm);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
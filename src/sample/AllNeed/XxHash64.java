@@ -0,0 +1,136 @@
+package sample.AllNeed;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * xxHash64流式实现（种子0，输出为大端十六进制，与xxhsum一致）
+ *
+ * <p>按32字节条带处理，条带以外的尾部字节暂存到内部缓冲，可跨多次{@link #update}累加。
+ *
+ * @see ChunkChecksum#XXH64
+ * @since 2025.3.22
+ */
+final class XxHash64 implements ChunkChecksum.Accumulator {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private final ByteBuffer tail = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long total;
+
+    XxHash64() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        v1 = P1 + P2;
+        v2 = P2;
+        v3 = 0;
+        v4 = -P1;
+        total = 0;
+        tail.clear();
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+        update(ByteBuffer.wrap(data, offset, length));
+    }
+
+    @Override
+    public void update(ByteBuffer buf) {
+        ByteOrder order = buf.order();
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            total += buf.remaining();
+            if (tail.position() > 0) {
+                // 先补满上次剩下的不完整条带
+                while (tail.hasRemaining() && buf.hasRemaining()) {
+                    tail.put(buf.get());
+                }
+                if (tail.hasRemaining()) {
+                    return;
+                }
+                stripe(tail, 0);
+                tail.clear();
+            }
+            int pos = buf.position();
+            int limit = buf.limit();
+            while (limit - pos >= 32) {
+                stripe(buf, pos);
+                pos += 32;
+            }
+            buf.position(pos);
+            tail.put(buf);
+        } finally {
+            buf.order(order);
+        }
+    }
+
+    private void stripe(ByteBuffer buf, int at) {
+        v1 = round(v1, buf.getLong(at));
+        v2 = round(v2, buf.getLong(at + 8));
+        v3 = round(v3, buf.getLong(at + 16));
+        v4 = round(v4, buf.getLong(at + 24));
+    }
+
+    @Override
+    public String finishHex() {
+        long h;
+        if (total >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = P5;
+        }
+        h += total;
+        int end = tail.position();
+        int i = 0;
+        for (; i + 8 <= end; i += 8) {
+            h ^= round(0, tail.getLong(i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i + 4 <= end) {
+            h ^= (tail.getInt(i) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < end; i++) {
+            h ^= (tail.get(i) & 0xFFL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        reset();
+        byte[] out = new byte[8];
+        for (int b = 7; b >= 0; b--) {
+            out[b] = (byte) h;
+            h >>>= 8;
+        }
+        return FileHasher.toHex(out);
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * P1 + P4;
+    }
+}
@@ -3,8 +3,11 @@ package sample.Client;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import sample.AllNeed.BinaryManifest;
+import sample.AllNeed.ControlFrame;
 import sample.AllNeed.FileInfo;
 import sample.AllNeed.FileListManager;
+import sample.AllNeed.FileListSnapshot;
 import sample.Server.IpAddressFetcher;
 import sample.Server.Server;
 
@@ -12,11 +15,14 @@ import javax.swing.*;
 import java.io.*;
 import java.lang.reflect.Type;
 import java.net.InetAddress;
+import java.net.ProtocolException;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +40,10 @@ import java.util.Map;
  * @see IpAddressFetcher
  */
 public class Client implements Runnable {
+    /**
+     * 控制通道协议选择参数（取值：text / framed，默认text保持原行协议）
+     */
+    public static final String PROTOCOL_PROPERTY = "p2p.control.protocol";
     /**
      * 服务器主机地址（IP）
      */
@@ -48,14 +58,38 @@ public class Client implements Runnable {
     private final JTextArea onlineArea;
     public ClientFileServer clientFileServer;
     public Thread runningThread;
-    public ArrayList<HashMap<String, String>> userList;
+    public volatile ArrayList<HashMap<String, String>> userList = new ArrayList<>();
     public Map<String, FileInfo> currentFileList;
+    /**
+     * 最近一次收到的服务器文件列表快照（版本号随下一次列表请求发送，服务器据此只回复未变化或增量）
+     */
+    private volatile FileListSnapshot serverListing;
     FileListManager fileListManager;
     private Socket socket;
     private BufferedReader in;
     private PrintWriter out;
+    /**
+     * 分帧协议的输入/输出（协商成功后非null）
+     */
+    private DataInputStream frameIn;
+    private DataOutputStream frameOut;
+    private int nextRequestId;
+    private boolean sentAny;
+    private boolean fileReceiverStarted;
     private volatile boolean connect_success = false;
     private volatile boolean connected = false;
+    /**
+     * 在线列表本地副本（键为昵称，按登录顺序），只在消息接收线程中修改
+     */
+    private final LinkedHashMap<String, HashMap<String, String>> userReplica = new LinkedHashMap<>();
+    /**
+     * 本地副本对应的服务器注册表版本，-1表示尚未收到快照
+     */
+    private long userVersion = -1;
+    /**
+     * 已请求重新同步、等待新快照期间忽略增量
+     */
+    private boolean userResyncPending;
 
     /**
      * 客户端构造函数，初始化网络连接和UI组件。
@@ -73,6 +107,7 @@ public class Client implements Runnable {
         new Thread(this).start();
         // 在类中定义锁对象
         fileListManager = new FileListManager();
+        fileListManager.startWatching();
     }
 
     public ClientFileServer getClientFileServer() {
@@ -85,7 +120,8 @@ public class Client implements Runnable {
      * 执行流程：
      * 1. 与服务器建立Socket连接（端口：Server.SERVER_PORT）
      * 2. 验证欢迎消息（Server.Welcome_Word）
-     * 3. 启动独立线程处理持续消息接收
+     * 3. 若启用{@value #PROTOCOL_PROPERTY}=framed，协商二进制分帧协议
+     * 4. 启动独立线程处理持续消息接收
      * </p>
      *
      * @implNote 通过connect_success标志位控制连接状态同步
@@ -94,50 +130,28 @@ public class Client implements Runnable {
     public void run() {
         try {
             socket = new Socket(this.host, Server.SERVER_PORT); // Use actual host address as needed
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            // 握手阶段逐字节读行，避免缓冲读取器预读吞掉协商后的帧数据
+            InputStream input = new BufferedInputStream(socket.getInputStream());
             out = new PrintWriter(socket.getOutputStream(), true);
             connected = true;
-            String msg = in.readLine(); // First word received must be welcome word
+            String msg = ControlFrame.readLine(input, Charset.defaultCharset()); // First word received must be welcome word
             Thread.sleep(100);//等待输出连接成功字样
 
             if (msg != null && msg.equals(Server.Welcome_Word)) {
                 ClientLogger.log(displayArea, msg + "\n");
+                if ("framed".equalsIgnoreCase(System.getProperty(PROTOCOL_PROPERTY))) {
+                    negotiateFraming(input);
+                }
                 while (true) {
                     if (this.connect_success) break;
                 }
             }
+            if (frameIn == null) {
+                in = new BufferedReader(new InputStreamReader(input));
+            }
 
             // 启动消息接收线程
-            runningThread = new Thread(() -> {
-                Boolean FileState = false;
-                while (true) {
-                    try {
-                        String response = in.readLine();
-                        if (response == null || response.equalsIgnoreCase("exit")) {
-                            break;
-                        } else if (response.equals("share")) {
-                            if (!FileState) {
-                                FileState = true;
-                                new FileReceiver(this.displayArea).start();
-                            }
-                        } else if (ListenUserList(response)) {//接受到USER_LIST启动刷新用户列表函数
-                            continue;
-                        } else if (response.equals("File_List")) {//接受到files启动刷新服务器文件列表格式
-                            response=in.readLine();
-                            ListenServerFileList(response);
-                            continue;
-                        }
-                        ClientLogger.log(displayArea, response);
-
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        SwingUtilities.invokeLater(() -> {
-                            ClientLogger.log(displayArea, "接受到错误信息: " + e.getMessage() + "\n");
-                        });
-                        break;
-                    }
-                }
-            });
+            runningThread = new Thread(frameIn == null ? this::receiveLines : this::receiveFrames);
             runningThread.start();
 
         } catch (Exception e) {
@@ -146,14 +160,123 @@ public class Client implements Runnable {
         }
     }
 
+    /**
+     * 协商二进制分帧协议（须在发送登录信息之前完成）。
+     *
+     * @param input 握手所用的输入流，协商成功后继续用于读取帧
+     * @throws IOException 网络异常时抛出
+     * @implNote 与sendMessage持有同一把锁；若登录信息已按行协议发出则放弃协商
+     */
+    private synchronized void negotiateFraming(InputStream input) throws IOException {
+        if (sentAny) {
+            return;
+        }
+        out.println(ControlFrame.NEGOTIATE);
+        String reply = ControlFrame.readLine(input, Charset.defaultCharset());
+        if (ControlFrame.ACCEPTED.equals(reply)) {
+            frameIn = new DataInputStream(input);
+            frameOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            ClientLogger.log(displayArea, "已启用二进制分帧协议");
+        } else {
+            ClientLogger.log(displayArea, "服务器不支持分帧协议: " + reply);
+        }
+    }
+
+    /**
+     * 行协议消息接收循环
+     */
+    private void receiveLines() {
+        while (true) {
+            try {
+                String response = in.readLine();
+                if (response == null || response.equalsIgnoreCase("exit")) {
+                    break;
+                } else if (ListenUserList(response)) {//接受到USER_LIST启动刷新用户列表函数
+                    continue;
+                } else if (ListenUserSnapshot(response)) {//在线列表快照
+                    continue;
+                } else if (response.equals("File_List")) {//接受到files启动刷新服务器文件列表格式
+                    response = in.readLine();
+                    ListenServerFileList(response);
+                    continue;
+                }
+                onText(response);
+            } catch (IOException e) {
+                onReceiveError(e);
+                break;
+            }
+        }
+    }
+
+    /**
+     * 分帧协议消息接收循环：每个帧按长度完整读取，列表类负载直接按类型分发
+     */
+    private void receiveFrames() {
+        while (true) {
+            try {
+                ControlFrame frame = ControlFrame.read(frameIn);
+                if (frame == null) {
+                    break;
+                }
+                if (frame.type == ControlFrame.USER_LIST) {
+                    replaceUserReplica(frame.payload);
+                } else if (frame.type == ControlFrame.USER_SNAPSHOT) {
+                    int split = frame.payload.indexOf('\n');
+                    if (split < 0) {
+                        requestUserResync("在线列表快照帧缺少版本行，重新同步");
+                    } else {
+                        applyUserSnapshot(frame.payload.substring(0, split), frame.payload.substring(split + 1));
+                    }
+                } else if (frame.type == ControlFrame.FILE_LIST) {
+                    ListenServerFileList(frame.payload);
+                } else if (frame.type == ControlFrame.FILE_LIST_BIN) {
+                    FileListSnapshot listing = BinaryManifest.read(new ByteArrayInputStream(frame.data));
+                    serverListing = listing;
+                    showServerFileList(listing.files);
+                } else if (frame.payload.equalsIgnoreCase("exit")) {
+                    break;
+                } else {
+                    onText(frame.payload);
+                }
+            } catch (IOException e) {
+                onReceiveError(e);
+                break;
+            }
+        }
+    }
+
+    /**
+     * 处理一条普通文本消息（两种协议共用）：分享通知、在线列表增量或显示日志
+     */
+    private void onText(String response) {
+        if (response.equals("share")) {
+            if (!fileReceiverStarted) {
+                fileReceiverStarted = true;
+                new FileReceiver(this.displayArea).start();
+            }
+        } else if (response.startsWith("UPLOAD_REJECTED#")) {//上传未通过服务器校验
+            String[] parts = response.split("#", 4);
+            ClientLogger.log(displayArea, "上传被服务器拒绝: " + (parts.length == 4
+                    ? parts[1] + " 第" + parts[2] + "块 " + parts[3] : response));
+        } else if (!ListenUserDelta(response)) {//在线列表增量
+            ClientLogger.log(displayArea, response);
+        }
+    }
+
+    private void onReceiveError(IOException e) {
+        e.printStackTrace();
+        SwingUtilities.invokeLater(() -> {
+            ClientLogger.log(displayArea, "接受到错误信息: " + e.getMessage() + "\n");
+        });
+    }
+
     /**
      * 解析服务器下发的文件列表元数据（JSON格式）。
      *
-     * @param response 服务器原始响应字符串，预期包含files键的文件列表
+     * @param response 服务器原始响应字符串，预期包含files键的文件列表（或未变化、增量应答，见{@link FileListSnapshot}）
      * @return true表示成功解析并更新文件列表，false表示非文件列表消息
-     * @throws JsonSyntaxException 当JSON格式不合法时抛出
-     * @throws ClassCastException  当数据类型转换异常时抛出
      * @示例响应格式： {
+     * "version": 1742600000000,
      * "files": [
      * {
      * "filename": "example.txt",
@@ -167,75 +290,72 @@ public class Client implements Runnable {
      * }
      */
     public boolean ListenServerFileList(String response) {
-
-
-        Gson gson = new Gson();
         try {
-            // 解析顶层数据结构
-            Map<String, Object> responseMap = gson.fromJson(response, new TypeToken<Map<String, Object>>() {
-            }.getType());
-
-                // 获取文件列表数组
-                List<Map<String, Object>> serverFiles = (List<Map<String, Object>>) responseMap.get("files");
-                // 创建临时文件列表
-                Map<String, FileInfo> serverFileList = new HashMap<>();
-                // 遍历每个文件项
-                for (Map<String, Object> fileEntry : serverFiles) {
-                    FileInfo fileInfo = new FileInfo();
-
-                    // 基础字段映射
-                    fileInfo.filename = (String) fileEntry.get("filename");
-                    fileInfo.total_chunks = ((Double) fileEntry.get("total_chunks")).intValue();
-
-                    // 分块数据映射
-                    List<Map<String, Object>> chunks = (List<Map<String, Object>>) fileEntry.get("chunks");
-                    fileInfo.chunks = new ArrayList<>();
-
-                    for (Map<String, Object> chunk : chunks) {
-                        FileInfo.ChunkInfo chunkInfo = new FileInfo.ChunkInfo(
-                                ((Double) chunk.get("number")).intValue(),
-                                (String) chunk.get("hash")
-                        );
-                        fileInfo.chunks.add(chunkInfo);
-                    }
-
-                    serverFileList.put(fileInfo.filename, fileInfo);
-                }
+            // 增量与未变化应答在上一次收到的列表上合并
+            FileListSnapshot listing = FileListManager.parseFileList(response, serverListing);
+            if (listing == serverListing) {
+                ClientLogger.log(displayArea, "══ 服务器文件列表未变化 ══");
+                return true;
+            }
+            serverListing = listing;
+            showServerFileList(listing.files);
+        } catch (JsonSyntaxException e) {
+            System.err.println("JSON 解析错误: " + e.getMessage());
+        } catch (ProtocolException e) {
+            // 基准版本不符：丢弃本地副本，下次请求全量列表
+            serverListing = null;
+            System.err.println("文件列表应答错误: " + e.getMessage());
+        }
+        return true;
+    }
 
-                // 更新当前文件列表
-                currentFileList = serverFileList;
-
-            ClientLogger.log(displayArea,  "══ 服务器文件列表详情 ══");
-            for (FileInfo file : serverFileList.values())  {
-                // 基础信息日志
-                ClientLogger.log(displayArea,  String.format(
-                        "▣ 文件 [%s] | 总分块数: %d | 块大小: %dB",
-                        file.filename,
-                        file.total_chunks,
-                        FileInfo.chunk_size
-                ));
-
-                // 分块详情日志（按需展开）
-                if (!file.chunks.isEmpty())  {
-                    ClientLogger.log(displayArea,  "  分块校验信息：");
-                    for (FileInfo.ChunkInfo chunk : file.chunks)  {
-                        ClientLogger.log(displayArea,  String.format(
-                                "    ↳ #%d | MD5: %s | 偏移量: %,d",
-                                chunk.chunk_number,
-                                chunk.hash,
-                                chunk.chunk_number  * FileInfo.chunk_size
-                        ));
-                    }
+    /**
+     * 发布服务器文件列表并输出详情（JSON与二进制清单共用）
+     */
+    private void showServerFileList(Map<String, FileInfo> serverFileList) {
+        // 更新当前文件列表
+        currentFileList = serverFileList;
+
+        ClientLogger.log(displayArea,  "══ 服务器文件列表详情 ══");
+        for (FileInfo file : serverFileList.values())  {
+            // 基础信息日志
+            ClientLogger.log(displayArea,  String.format(
+                    "▣ 文件 [%s] | 总分块数: %d | 块大小: %dB",
+                    file.filename,
+                    file.total_chunks,
+                    file.getChunkSize()
+            ));
+
+            // 分块详情日志（按需展开）
+            if (!file.chunks.isEmpty())  {
+                ClientLogger.log(displayArea,  "  分块校验信息：");
+                for (FileInfo.ChunkInfo chunk : file.chunks)  {
+                    ClientLogger.log(displayArea,  String.format(
+                            "    ↳ #%d | MD5: %s | 偏移量: %,d",
+                            chunk.chunk_number,
+                            chunk.hash,
+                            chunk.offset
+                    ));
                 }
             }
-            ClientLogger.log(displayArea,  "══ 列表同步完成 ══");
-            } catch(JsonSyntaxException e){
-                System.err.println("JSON 解析错误: " + e.getMessage());
-            } catch(ClassCastException e){
-                System.err.println(" 类型转换错误: " + e.getMessage());
-            }
+        }
+        ClientLogger.log(displayArea,  "══ 列表同步完成 ══");
+    }
 
-        return true;
+    /**
+     * @return 请求服务器文件列表的指令；分帧协议下按{@value BinaryManifest#FORMAT_PROPERTY}请求二进制清单，
+     * 已有服务器列表时附带其版本号
+     */
+    public String fileListCommand() {
+        StringBuilder command = new StringBuilder("fl");
+        if (frameOut != null && BinaryManifest.enabled()) {
+            command.append(' ').append(BinaryManifest.TOKEN);
+        }
+        FileListSnapshot listing = serverListing;
+        if (listing != null && listing.version != FileListSnapshot.UNVERSIONED) {
+            command.append(' ').append(listing.version);
+        }
+        return command.length() == 2 ? "filelist" : command.toString();
     }
 
     /**
@@ -254,27 +374,21 @@ public class Client implements Runnable {
                 // 读取数据长度
                 int length = Integer.parseInt(in.readLine());
 
-                // 读取JSON数据
+                // 读取JSON数据（read可能只返回部分字符，需读满length）
                 char[] buffer = new char[length];
-                in.read(buffer, 0, length);
+                int read = 0;
+                while (read < length) {
+                    int n = in.read(buffer, read, length - read);
+                    if (n < 0) {
+                        throw new EOFException("USER_LIST数据不完整");
+                    }
+                    read += n;
+                }
                 String jsonData = new String(buffer);
 
                 // 解析JSON数据
-                Gson gson = new Gson();
-                Type type = new TypeToken<ArrayList<HashMap<String, String>>>() {
-                }.getType();
-                this.userList = gson.fromJson(jsonData, type);
+                replaceUserReplica(jsonData);
                 displayArea.append("同步用户列表完成\n");
-                // 更新在线用户显示
-                // 更新在线用户显示
-                SwingUtilities.invokeLater(() -> {
-                    onlineArea.setText("");
-                    onlineArea.append("当前在线人数：" + this.userList.size() + "\n");
-                    for (HashMap<String, String> user : this.userList) {
-                        String line = String.format("%s:%s:%s\n", user.get("NAME"), user.get("IP"), user.get("PORT"));
-                        onlineArea.append(line);
-                    }
-                });
                 return true;
             } catch (Exception e) {
                 e.printStackTrace();
@@ -284,6 +398,131 @@ public class Client implements Runnable {
         return false;
     }
 
+    /**
+     * 处理在线列表快照（协议格式：USER_SNAPSHOT开头，订阅或重新同步时由服务器下发）。
+     *
+     * @param response 服务器消息首行
+     * @return true表示已处理快照，false表示非快照消息
+     * @implSpec 数据格式：
+     * 1. 首行消息为"USER_SNAPSHOT"
+     * 2. 第二行为注册表版本号
+     * 3. 第三行为单行JSON数组（字段NAME/IP/PORT）
+     */
+    private boolean ListenUserSnapshot(String response) {
+        if (!response.equals("USER_SNAPSHOT")) {
+            return false;
+        }
+        try {
+            applyUserSnapshot(in.readLine(), in.readLine());
+        } catch (IOException e) {
+            e.printStackTrace();
+            requestUserResync("在线列表快照解析失败: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * 以快照替换本地在线列表副本
+     *
+     * @param version  注册表版本号文本
+     * @param jsonData 在线用户JSON数组
+     */
+    private void applyUserSnapshot(String version, String jsonData) {
+        try {
+            long parsed = Long.parseLong(version.trim());
+            replaceUserReplica(jsonData);
+            userVersion = parsed;
+            userResyncPending = false;
+        } catch (Exception e) {
+            e.printStackTrace();
+            requestUserResync("在线列表快照解析失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 处理在线列表增量（协议格式：USER_DELTA#版本#JOIN|LEAVE#昵称#IP#端口）。
+     *
+     * <p>版本号必须与本地副本连续：旧版本直接忽略；出现跳变说明有增量丢失，
+     * 此时重新订阅以获取完整快照，等待快照期间的增量一律忽略。
+     *
+     * @param response 服务器消息
+     * @return true表示已处理增量，false表示非增量消息
+     */
+    private boolean ListenUserDelta(String response) {
+        if (!response.startsWith("USER_DELTA#")) {
+            return false;
+        }
+        String[] parts = response.split("#", 6);
+        if (parts.length < 6 || userVersion < 0 || userResyncPending) {
+            return true;
+        }
+        long version;
+        try {
+            version = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            return true;
+        }
+        if (version <= userVersion) {
+            return true;
+        }
+        if (version != userVersion + 1) {
+            requestUserResync("在线列表版本跳变 " + userVersion + " -> " + version + "，重新同步");
+            return true;
+        }
+        if (parts[2].equals("JOIN")) {
+            HashMap<String, String> user = new HashMap<>();
+            user.put("NAME", parts[3]);
+            user.put("IP", parts[4]);
+            user.put("PORT", parts[5]);
+            userReplica.put(parts[3], user);
+        } else {
+            userReplica.remove(parts[3]);
+        }
+        userVersion = version;
+        publishUserList();
+        return true;
+    }
+
+    /**
+     * 请求服务器重新下发在线列表快照
+     */
+    private void requestUserResync(String reason) {
+        System.err.println(reason);
+        userResyncPending = true;
+        sendMessage("subscribeUsers");
+    }
+
+    /**
+     * 用完整列表JSON替换本地副本并刷新显示
+     */
+    private void replaceUserReplica(String jsonData) {
+        Gson gson = new Gson();
+        Type type = new TypeToken<ArrayList<HashMap<String, String>>>() {
+        }.getType();
+        ArrayList<HashMap<String, String>> users = gson.fromJson(jsonData, type);
+        userReplica.clear();
+        for (HashMap<String, String> user : users) {
+            userReplica.put(user.get("NAME"), user);
+        }
+        publishUserList();
+    }
+
+    /**
+     * 由本地副本生成新的userList（整体替换，读者无需加锁）并更新在线用户显示
+     */
+    private void publishUserList() {
+        ArrayList<HashMap<String, String>> users = new ArrayList<>(userReplica.values());
+        this.userList = users;
+        SwingUtilities.invokeLater(() -> {
+            onlineArea.setText("");
+            onlineArea.append("当前在线人数：" + users.size() + "\n");
+            for (HashMap<String, String> user : users) {
+                String line = String.format("%s:%s:%s\n", user.get("NAME"), user.get("IP"), user.get("PORT"));
+                onlineArea.append(line);
+            }
+        });
+    }
+
     /**
      * 发送文本消息至服务器（线程安全方法）。
      *
@@ -291,7 +530,18 @@ public class Client implements Runnable {
      * @throws IllegalStateException 若连接未建立时调用
      */
     public synchronized void sendMessage(String message) {
-        out.println(message);
+        sentAny = true;
+        if (frameOut == null) {
+            out.println(message);
+            return;
+        }
+        try {
+            frameOut.write(ControlFrame.encode(ControlFrame.TEXT, ++nextRequestId, message));
+            frameOut.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            ClientLogger.log(displayArea, "消息发送失败: " + e.getMessage());
+        }
     }
 
     /**
@@ -321,6 +571,8 @@ public class Client implements Runnable {
                 String nickName = info[0];
                 String port = info[1];
                 sendMessage(nickName + "#" + ip + "#" + info[1]);
+                // 订阅在线列表：服务器先下发快照，此后推送登录/掉线增量
+                sendMessage("subscribeUsers");
                 this.connect_success = true;
                 this.clientFileServer = new ClientFileServer(Integer.parseInt(port), this);
                 clientFileServer.start();
@@ -363,7 +615,7 @@ public class Client implements Runnable {
      * 2. 依次关闭输入流、输出流、Socket连接
      */
     public void exit() {
-        out.println("exit");
+        sendMessage("exit");
         try {
             if (in != null) in.close();
             if (out != null) out.close();
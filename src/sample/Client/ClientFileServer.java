@@ -1,21 +1,34 @@
 package sample.Client;
 
 import com.google.gson.JsonParseException;
+import sample.AllNeed.BinaryManifest;
+import sample.AllNeed.ChunkStore;
+import sample.AllNeed.ControlFrame;
+import sample.AllNeed.FileHasher;
 import sample.AllNeed.FileInfo;
 import sample.AllNeed.FileListManager;
+import sample.AllNeed.FileListSnapshot;
+import sample.AllNeed.MerkleTree;
 
 import java.io.*;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
+import java.net.ProtocolException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -59,13 +72,21 @@ public class ClientFileServer extends Thread {
      */
     private volatile boolean isRunning = true;
     /**
-     * 服务器Socket对象
+     * 服务器监听通道（接受的连接带有SocketChannel，发送文件时可用transferTo零拷贝）
      */
-    private ServerSocket serverSocket;
+    private ServerSocketChannel serverSocket;
     /**
      * 客户端列表（格式："IP:Port"）
      */
     private List<String> ClientList;
+    /**
+     * 各节点最近一次的文件列表快照（键为"IP:Port"），再次请求时附带其版本号
+     */
+    private final Map<String, FileListSnapshot> peerListings = new ConcurrentHashMap<>();
+    /**
+     * 与各节点保持的列表长连接（键为"IP:Port"），下一次同步直接复用
+     */
+    private final Map<String, ListConnection> listConnections = new ConcurrentHashMap<>();
 
     /**
      * 构造方法初始化文件服务器
@@ -88,13 +109,59 @@ public class ClientFileServer extends Thread {
      * @return 握手成功返回true，否则false
      * @throws IOException 当I/O异常发生时抛出
      */
-    private static boolean performHandshake(PrintWriter out, BufferedReader in) throws IOException {
-        out.println("LIST_REQUEST");  // 发送列表请求
+    private static boolean performHandshake(PrintWriter out, BufferedReader in, FileListSnapshot base)
+            throws IOException {
+        out.println(listRequest(false, false, base));  // 发送列表请求
         String msg=in.readLine();
         return msg.equals("File_List");
         //return in.readLine().startsWith("File_List");  // 验证响应头
     }
 
+    /**
+     * 构造列表请求：开启Merkle同步时只请求根哈希，binary为true时请求二进制清单，
+     * framed为true时请求定长应答并保持连接，持有该节点的列表快照时附带其版本号
+     */
+    private static String listRequest(boolean binary, boolean framed, FileListSnapshot base) {
+        StringBuilder request = new StringBuilder("LIST_REQUEST");
+        if (MerkleDiffClient.enabled()) {
+            request.append(" roots");
+        }
+        if (binary) {
+            request.append(' ').append(BinaryManifest.TOKEN);
+        }
+        if (framed) {
+            request.append(' ').append(FileListManager.FRAME_TOKEN);
+        }
+        if (base != null && base.version != FileListSnapshot.UNVERSIONED) {
+            request.append(' ').append(base.version);
+        }
+        return request.toString();
+    }
+
+    /**
+     * 请求二进制清单
+     *
+     * @param base 该节点上一次的列表快照，没有时为null
+     * @return 远端文件列表；对端不支持二进制清单（旧版本不应答直接关闭连接）时返回null
+     */
+    private static FileListSnapshot requestBinaryList(String ip, int port, FileListSnapshot base) throws IOException {
+        try (Socket socket = new Socket(ip, port)) {
+            // 应答行之后紧跟二进制数据，不能用BufferedReader预读
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(listRequest(true, false, base));
+            String header = ControlFrame.readLine(in, StandardCharsets.UTF_8);
+            if ("File_List".equals(header) && base != null) {
+                // 未变化或增量应答
+                return FileListManager.parseFileList(ControlFrame.readLine(in, StandardCharsets.UTF_8), base);
+            }
+            if (!BinaryManifest.HEADER.equals(header)) {
+                return null;
+            }
+            return BinaryManifest.read(in);
+        }
+    }
+
     /**
      * 连接验证与文件传输处理
      *
@@ -103,6 +170,33 @@ public class ClientFileServer extends Thread {
      * @return 验证通过返回true，否则false
      */
     private boolean connectAndVerify(String ip, int port) {
+        String peer = ip + ":" + port;
+        FileListSnapshot base = peerListings.get(peer);
+        if (BinaryManifest.enabled()) {
+            try {
+                FileListSnapshot remote = requestBinaryList(ip, port, base);
+                if (remote != null) {
+                    return handleFileTransfer(peer, remote);
+                }
+                // 退回JSON列表
+            } catch (IOException e) {
+                System.err.printf(" 【%tT】连接 %s:%d 失败：%s%n",
+                        System.currentTimeMillis(), ip, port, e.getMessage());
+                return false;
+            }
+        }
+        try {
+            FileListSnapshot remote = requestFramedList(peer, ip, port, base);
+            if (remote != null) {
+                return handleFileTransfer(peer, remote);
+            }
+            // 对端为旧版本：退回以连接关闭定界的JSON列表
+        } catch (IOException e) {
+            peerListings.remove(peer);
+            System.err.printf(" 【%tT】连接 %s:%d 失败：%s%n",
+                    System.currentTimeMillis(), ip, port, e.getMessage());
+            return false;
+        }
         try {
                 Socket socket = new Socket(ip,port);
                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
@@ -117,27 +211,71 @@ public class ClientFileServer extends Thread {
                 throw new IOException("Stream initialization failed");
             }
             // 协议握手流程
-            if (performHandshake(out, in)) {
-                boolean flag =handleFileTransfer(in);
+            if (performHandshake(out, in, base)) {
+                boolean flag =handleFileTransfer(peer, this.client.fileListManager.receiveFileList(in, base));
                 socket.close();
                 return flag;
             }
-        } catch (IOException | NoSuchAlgorithmException e) {
+        } catch (IOException e) {
+            // 列表应答与本地快照不符时下次重新请求全量列表
+            peerListings.remove(peer);
             System.err.printf(" 【%tT】连接 %s:%d 失败：%s%n",
                     System.currentTimeMillis(), ip, port, e.getMessage());
         }
         return false;
     }
 
+    /**
+     * 通过长连接请求定长JSON列表：优先复用上次的连接，对端已关闭空闲连接时重新建立
+     *
+     * @return 远端文件列表；对端不支持定长应答时返回null
+     */
+    private FileListSnapshot requestFramedList(String peer, String ip, int port, FileListSnapshot base)
+            throws IOException {
+        ListConnection pooled = listConnections.remove(peer);
+        if (pooled != null) {
+            try {
+                FileListSnapshot remote = pooled.request(base);
+                if (remote != null) {
+                    listConnections.put(peer, pooled);
+                    return remote;
+                }
+            } catch (IOException e) {
+                // 连接已失效，下面重新建立
+            }
+            pooled.close();
+        }
+        ListConnection fresh = new ListConnection(ip, port);
+        try {
+            FileListSnapshot remote = fresh.request(base);
+            if (remote != null) {
+                listConnections.put(peer, fresh);
+                return remote;
+            }
+            fresh.close();
+            return null;
+        } catch (IOException e) {
+            fresh.close();
+            throw e;
+        }
+    }
+
     /**
      * 哈希比对与文件传输决策
      *
-     * @param in 输入流
+     * @param peer   节点地址（"IP:Port"）
+     * @param remote 已解析的远端列表（JSON、二进制清单或在上次快照上合并的增量）
      * @return 需要传输文件返回true，否则false
-     * @throws NoSuchAlgorithmException 当哈希算法不可用时抛出
      */
-    private boolean handleFileTransfer(BufferedReader in) throws NoSuchAlgorithmException {
-        if (!this.client.fileListManager.compareFileList(in)) {
+    private boolean handleFileTransfer(String peer, FileListSnapshot remote) {
+        if (remote.version != FileListSnapshot.UNVERSIONED) {
+            peerListings.put(peer, remote);
+        }
+        return reportComparison(this.client.fileListManager.compareFileList(remote.files));
+    }
+
+    private static boolean reportComparison(boolean consistent) {
+        if (!consistent) {
             System.out.printf(" 【%tT】发现不匹配服务器，触发传输%n", System.currentTimeMillis());
             return true;
         }
@@ -150,14 +288,15 @@ public class ClientFileServer extends Thread {
      */
     @Override
     public void run() {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
             this.serverSocket = serverSocket;
-            serverSocket.setReuseAddress(true);
+            serverSocket.socket().setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(port));
 
             System.out.printf(" 【%tT】文件服务器已启动，监听端口：%d%n", System.currentTimeMillis(), port);
 
             while (isRunning) {
-                Socket clientSocket = serverSocket.accept();
+                Socket clientSocket = serverSocket.accept().socket();
                 threadPool.execute(new ClientHandler(clientSocket));
             }
         } catch (IOException e) {
@@ -209,10 +348,17 @@ public class ClientFileServer extends Thread {
                 if(!filesToDownload.isEmpty()){
                ClientLogger.log(this.client.displayArea,"文件同步开始下载");
 
-                // 下载缺失文件
+                // 下载缺失文件：开启内容寻址存储时只下载存储中没有的块，否则本地已有旧版本时只同步差异块
+                ChunkStore store = this.client.fileListManager.getChunkStore();
                 for (String filename : filesToDownload) {
                     FileInfo remoteFile = remoteFiles.get(filename);
-                    downloadFile(ip, port, remoteFile);
+                    FileInfo localFile = localFiles.get(filename);
+                    if (store != null && syncToStore(ip, port, store, remoteFile)) {
+                        // 已写入分块存储
+                    } else if (localFile == null || !Files.isRegularFile(Paths.get(DOWNLOAD_DIR, filename))
+                            || !syncChunks(ip, port, localFile, remoteFile)) {
+                        downloadFile(ip, port, remoteFile);
+                    }
                     ClientLogger.log(this.client.displayArea,"文件下载"+remoteFile);
                 }
 
@@ -224,11 +370,47 @@ public class ClientFileServer extends Thread {
         }).start();
     }
 
+    /**
+     * 把远端文件同步到内容寻址存储（只下载存储中没有的块）
+     *
+     * @return 是否成功；失败时由调用方退回普通文件下载
+     */
+    private boolean syncToStore(String ip, String port, ChunkStore store, FileInfo remote) {
+        DeltaSyncClient delta = new DeltaSyncClient(ip, Integer.parseInt(port));
+        try {
+            int fetched = delta.syncToStore(store, remote);
+            this.client.fileListManager.registerStored(store.manifest(remote.filename));
+            ClientLogger.log(this.client.displayArea, String.format("文件%s: 存储中缺少%d/%d块，下载%d字节",
+                    remote.filename, fetched, remote.total_chunks, delta.getFetched()));
+            return true;
+        } catch (IOException e) {
+            ClientLogger.log(this.client.displayArea, "写入分块存储失败，改为普通文件下载: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 按块差异同步本地旧版本
+     *
+     * @return 是否同步成功；失败时由调用方退回整文件下载
+     */
+    private boolean syncChunks(String ip, String port, FileInfo local, FileInfo remote) {
+        DeltaSyncClient delta = new DeltaSyncClient(ip, Integer.parseInt(port));
+        try {
+            int changed = delta.sync(Paths.get(DOWNLOAD_DIR, remote.filename), local, remote);
+            ClientLogger.log(this.client.displayArea, String.format("文件%s: 同步%d/%d块，下载%d字节",
+                    remote.filename, changed, remote.total_chunks, delta.getFetched()));
+            return true;
+        } catch (IOException e) {
+            ClientLogger.log(this.client.displayArea, "按块同步失败，改为整文件下载: " + e.getMessage());
+            return false;
+        }
+    }
+
     private List<String> findMissingFiles(Map<String, FileInfo> remote, Map<String, FileInfo> local) {
         List<String> missing = new ArrayList<>();
         for (String filename : remote.keySet()) {
-            if (!local.containsKey(filename) ||
-                    !local.get(filename).getFileHash().equals(remote.get(filename).getFileHash())) {
+            if (DeltaSyncClient.needsSync(local.get(filename), remote.get(filename))) {
                 missing.add(filename);
             }
         }
@@ -259,6 +441,7 @@ public class ClientFileServer extends Thread {
                 try (FileChannel fileChannel = FileChannel.open(
                         downloadPath,
                         StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
                         StandardOpenOption.WRITE)) {
 
                     long transferred = 0;
@@ -307,8 +490,12 @@ public class ClientFileServer extends Thread {
         if (!isRunning) return;
         isRunning = false;
         threadPool.shutdown();
+        for (ListConnection connection : listConnections.values()) {
+            connection.close();
+        }
+        listConnections.clear();
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
+            if (serverSocket != null && serverSocket.isOpen()) {
                 serverSocket.close();
             }
         } catch (IOException e) {
@@ -340,10 +527,17 @@ public class ClientFileServer extends Thread {
     /**
      * 客户端请求处理程序（内部类）
      * 处理以下请求类型：
-     * 1. 文件列表请求（LIST_REQUEST）
-     * 2. 文件块请求（CHUNK_REQUEST）
+     * 1. 文件列表请求（LIST_REQUEST，带roots参数时只返回Merkle根，带bin参数时返回二进制清单，
+     *    带frame参数时以定长应答回复并保持连接、继续处理下一个请求，
+     *    末尾带版本号时按{@link FileListSnapshot}只回复未变化或增量）
+     * 2. 文件块请求（CHUNK_REQUEST，见{@link DeltaSyncClient}）与整文件请求（FILE_REQUEST）
+     * 3. Merkle树下探（TREE_REQUEST，见{@link MerkleDiffClient}）
      */
     private static class ClientHandler implements Runnable {
+        /**
+         * 列表长连接的空闲超时
+         */
+        private static final int KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
         private final Socket clientSocket;
 
         ClientHandler(Socket socket) {
@@ -357,62 +551,157 @@ public class ClientFileServer extends Thread {
 
                 System.out.printf(" 【%tT】客户端连接：%s%n", System.currentTimeMillis(), clientSocket.getRemoteSocketAddress());
 
-                    String command = in.readLine();
-                    if ("LIST_REQUEST".equals(command)) {
+                String command;
+                while ((command = in.readLine()) != null) {
+                    if (command.matches("LIST_REQUEST( roots)?( bin)?( frame)?( \\d+)?")) {
                         System.out.printf(" 【%tT】收到文件列表请求%n", System.currentTimeMillis());
-                        fileListManager.updateAndSendFileList(out);
+                        boolean roots = command.contains(" roots");
+                        String last = command.substring(command.lastIndexOf(' ') + 1);
+                        long since = last.matches("\\d+") ? Long.parseLong(last) : FileListSnapshot.UNVERSIONED;
+                        if (command.contains(" " + BinaryManifest.TOKEN)) {
+                            fileListManager.updateAndSendBinaryFileList(clientSocket.getOutputStream(), roots, since);
+                        } else if (command.contains(" " + FileListManager.FRAME_TOKEN)) {
+                            // 定长应答：连接保持打开，空闲超时后关闭
+                            fileListManager.updateAndSendFileListFrame(clientSocket.getOutputStream(), roots, since);
+                            clientSocket.setSoTimeout(KEEP_ALIVE_MILLIS);
+                            continue;
+                        } else {
+                            fileListManager.updateAndSendFileList(out, roots, false, since);
+                        }
+                    } else if (MerkleDiffClient.TREE_REQUEST.equals(command)) {
+                        handleTreeRequest(in, out);
                     } else if ("FILE_REQUEST".equals(command)) {
                         System.out.printf(" 【%tT】收到文件下载请求%n", System.currentTimeMillis());
-                        handleFileRequest(clientSocket);
+                        handleFileRequest(in, clientSocket);
+                    } else if (DeltaSyncClient.CHUNK_REQUEST.equals(command)) {
+                        System.out.printf(" 【%tT】收到文件块请求%n", System.currentTimeMillis());
+                        handleChunkRequest(in, clientSocket);
                     }
-
+                    break;
+                }
+            } catch (SocketTimeoutException e) {
+                // 长连接空闲超时
             } catch (IOException | NoSuchAlgorithmException e) {
                 System.err.printf(" 【%tT】请求处理异常：%s%n", System.currentTimeMillis(), e.getMessage());
             }
         }
 
-        private void handleFileRequest(Socket clientSocket) {
-            final String FILE_STORAGE_DIR = "./file/";
+        /**
+         * 应答Merkle树下探：先返回根与树形，再逐行应答节点请求直到END
+         */
+        private void handleTreeRequest(BufferedReader in, PrintWriter out) throws IOException {
+            String filename = in.readLine();
+            FileInfo info = filename == null ? null : fileListManager.getFileInfo(filename);
+            if (info == null) {
+                out.println(MerkleDiffClient.ERROR + " 文件不存在: " + filename);
+                return;
+            }
+            MerkleTree tree = info.getMerkleTree();
+            out.println(String.join(" ", MerkleDiffClient.TREE, tree.rootHex(), String.valueOf(tree.leafCount()),
+                    String.valueOf(tree.height()), info.getChunkAlgorithm(), info.getChunking()));
+            String line;
+            while ((line = in.readLine()) != null && !MerkleDiffClient.END.equals(line)) {
+                String[] parts = line.split(" ");
+                StringBuilder reply = new StringBuilder(parts[0]);
+                try {
+                    if (MerkleDiffClient.NODES.equals(parts[0]) && parts.length > 1) {
+                        int level = Integer.parseInt(parts[1]);
+                        for (int i = 2; i < parts.length; i++) {
+                            reply.append(' ').append(FileHasher.toHex(tree.node(level, Integer.parseInt(parts[i]))));
+                        }
+                    } else if (MerkleDiffClient.LEAVES.equals(parts[0])) {
+                        for (int i = 1; i < parts.length; i++) {
+                            FileInfo.ChunkInfo chunk = info.chunks.get(Integer.parseInt(parts[i]));
+                            reply.append(' ').append(chunk.offset).append(':').append(chunk.length)
+                                    .append(':').append(chunk.hash);
+                        }
+                    } else {
+                        out.println(MerkleDiffClient.ERROR + " 未知请求: " + parts[0]);
+                        continue;
+                    }
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    out.println(MerkleDiffClient.ERROR + " 节点下标非法: " + line);
+                    continue;
+                }
+                out.println(reply);
+            }
+        }
+
+        /**
+         * 应答块请求：按请求顺序发送各区间的原始字节（只允许本节点文件列表中的文件与文件范围内的区间）
+         */
+        private void handleChunkRequest(BufferedReader in, Socket socket) throws IOException {
+            DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            String filename = in.readLine();
+            String ranges = in.readLine();
+            if (filename == null || ranges == null || fileListManager.getFileInfo(filename) == null) {
+                dataOut.writeUTF(DeltaSyncClient.ERROR);
+                dataOut.writeUTF("文件不存在: " + filename);
+                dataOut.flush();
+                return;
+            }
+            try (SeekableByteChannel file = fileListManager.openContent(filename)) {
+                long size = file.size();
+                List<long[]> requested = new ArrayList<>();
+                for (String range : ranges.trim().split(" ")) {
+                    if (range.isEmpty()) {
+                        continue;
+                    }
+                    String[] parts = range.split(":");
+                    long offset;
+                    long length;
+                    try {
+                        offset = Long.parseLong(parts[0]);
+                        length = parts.length == 2 ? Long.parseLong(parts[1]) : -1;
+                    } catch (NumberFormatException e) {
+                        length = -1;
+                        offset = -1;
+                    }
+                    if (offset < 0 || length < 0 || offset + length > size) {
+                        dataOut.writeUTF(DeltaSyncClient.ERROR);
+                        dataOut.writeUTF("区间非法: " + range);
+                        dataOut.flush();
+                        return;
+                    }
+                    requested.add(new long[]{offset, length});
+                }
+                dataOut.writeUTF(DeltaSyncClient.CHUNK_RESPONSE);
+                for (long[] range : requested) {
+                    sendRange(file, range[0], range[1], dataOut, socket.getChannel(), filename);
+                }
+                dataOut.flush();
+            }
+        }
 
-            try (BufferedReader dataIn = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                 DataOutputStream dataOut = new DataOutputStream(clientSocket.getOutputStream()))  {
+        private void handleFileRequest(BufferedReader dataIn, Socket clientSocket) {
+            // 文件名已由run()中的读取器缓冲，不能在同一连接上再建一个读取器
+            try (DataOutputStream dataOut = new DataOutputStream(clientSocket.getOutputStream()))  {
 
                 // 1. 读取文件名（使用UTF协议）
                 String filename = dataIn.readLine();
                 System.out.println("[client]  收到文件请求: " + filename);
 
-                // 2. 构建文件路径
-                Path filePath = Paths.get(FILE_STORAGE_DIR  + filename);
-
-                // 3. 文件存在性检查
-                if (!Files.exists(filePath))  {
+                // 2. 打开文件（普通文件或内容寻址存储）并检查存在性
+                SeekableByteChannel file;
+                try {
+                    file = fileListManager.openContent(filename);
+                } catch (NoSuchFileException e) {
                     dataOut.writeUTF("ERROR:File  not found");
                     dataOut.flush();
                     System.out.println("[client]  文件不存在: " + filename);
                     return;
                 }
 
-                // 4. 读取文件内容（流式方式避免内存溢出）
-                byte[] fileData;
-                try (InputStream fileIn = Files.newInputStream(filePath);
-                     ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
-                    byte[] temp = new byte[8192];
-                    int bytesRead;
-                    while ((bytesRead = fileIn.read(temp))  != -1) {
-                        buffer.write(temp,  0, bytesRead);
-                    }
-                    fileData = buffer.toByteArray();
+                // 3. 发送文件响应（普通文件零拷贝发送，内存占用与文件大小无关）
+                try (SeekableByteChannel content = file) {
+                    long size = content.size();
+                    dataOut.writeUTF("FILE_RESPONSE");
+                    dataOut.writeLong(size);
+                    sendRange(content, 0, size, dataOut, clientSocket.getChannel(), filename);
+                    dataOut.flush();
+                    System.out.println("[client]  已发送文件: " + filename + " (" + size + " bytes)");
                 }
 
-
-
-                // 6. 发送文件响应
-                dataOut.writeUTF("FILE_RESPONSE");
-                dataOut.writeLong(fileData.length);
-                dataOut.write(fileData);
-                dataOut.flush();
-                System.out.println("[client]  已发送文件: " + filename + " (" + fileData.length  + " bytes)");
-
             } catch (IOException e) {
                 System.err.println("[client]  传输异常: " + e.getMessage());
             } finally {
@@ -424,6 +713,44 @@ public class ClientFileServer extends Thread {
             }
         }
 
+        /**
+         * 发送文件的一个区间
+         *
+         * <p>普通文件且连接带有SocketChannel时用{@link FileChannel#transferTo}直接从页缓存发送到套接字
+         * （Linux上为sendfile，不经过Java堆）；分块存储中的文件或普通Socket按64KB缓冲复制。
+         *
+         * @param out    已写入应答头的输出流，零拷贝发送前先刷出
+         * @param socket 连接的通道，普通Socket时为null
+         */
+        private void sendRange(SeekableByteChannel file, long position, long length, DataOutputStream out,
+                               SocketChannel socket, String filename) throws IOException {
+            long end = position + length;
+            if (file instanceof FileChannel && socket != null) {
+                out.flush();
+                FileChannel channel = (FileChannel) file;
+                while (position < end) {
+                    long n = channel.transferTo(position, end - position, socket);
+                    if (n <= 0 && position >= channel.size()) {
+                        throw new EOFException("文件在发送时被截短: " + filename);
+                    }
+                    position += n;
+                }
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(64 * 1024, Math.max(length, 1)));
+            file.position(position);
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int n = file.read(buffer);
+                if (n < 0) {
+                    throw new EOFException("文件在发送时被截短: " + filename);
+                }
+                out.write(buffer.array(), 0, n);
+                position += n;
+            }
+        }
+
         private void sendError(Socket socket, String message) {
             try (DataOutputStream dataOut = new DataOutputStream(socket.getOutputStream()))  {
                 dataOut.writeUTF(message);
@@ -434,4 +761,47 @@ public class ClientFileServer extends Thread {
         }
     }
 
-}
\ No newline at end of file
+
+    /**
+     * 与一个节点的列表长连接（{@code LIST_REQUEST frame}，应答按长度读取，连接可重复使用）
+     */
+    private static final class ListConnection implements Closeable {
+        private final Socket socket;
+        private final InputStream in;
+        private final PrintWriter out;
+
+        ListConnection(String ip, int port) throws IOException {
+            this.socket = new Socket(ip, port);
+            // 应答行之后紧跟定长负载，不能用BufferedReader预读
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        }
+
+        /**
+         * @return 远端文件列表；连接已被对端关闭或对端不支持定长应答时返回null
+         */
+        FileListSnapshot request(FileListSnapshot base) throws IOException {
+            out.println(listRequest(false, true, base));
+            String header = ControlFrame.readLine(in, StandardCharsets.UTF_8);
+            if (header == null || !header.startsWith(FileListManager.FRAME_HEADER + " ")) {
+                return null;
+            }
+            long length;
+            try {
+                length = Long.parseLong(header.substring(FileListManager.FRAME_HEADER.length() + 1));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("列表应答行格式错误: " + header);
+            }
+            return FileListManager.receiveFileList(in, length, base);
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // 只为释放连接
+            }
+        }
+    }
+}
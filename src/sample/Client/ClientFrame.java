@@ -10,9 +10,6 @@ import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
-import java.nio.file.Files;
 import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -181,30 +178,23 @@ public class ClientFrame extends JPanel {
     }
 
     /**
-     * 执行文件同步操作，包含三阶段流程：
+     * 执行文件同步操作，包含两阶段流程：
      * 1. 同步服务器文件列表
-     * 2. 同步在线用户列表
-     * 3. 启动客户端本地的文件发现服务
+     * 2. 基于本地在线用户副本启动客户端本地的文件发现服务
      *
      * @throws RuntimeException 当线程中断或IO异常时抛出
      * @see FileListManager 文件列表管理工具类
      * @see ClientFileServer 客户端文件服务模块
      */
     private void sync() {
-        client.sendMessage("filelist");
+        client.sendMessage(client.fileListCommand());
         try {
             displayArea.append("同步服务器文件列表\n");
             Thread.sleep(2000);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        updateOnlineUsers();
-        try {
-            displayArea.append("同步在线用户列表\n");
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
+        // 在线用户列表由服务器增量推送维护（client.userList始终为最新副本），无需再请求并等待
         try {
             ClientFileServer clientFileServer = this.client.getClientFileServer();
             clientFileServer.startFileDiscovery(clientFileServer.receiveClientList(client.userList));
@@ -214,12 +204,12 @@ public class ClientFrame extends JPanel {
     }
 
     /**
-     * 更新在线用户列表，向服务器请求最新用户数据
+     * 强制重新同步在线用户列表：重新订阅，服务器下发完整快照后继续推送增量
      *
      * @see Client#sendMessage(String) 消息发送机制
      */
     private void updateOnlineUsers() {
-        client.sendMessage("updateOnlineUsers");
+        client.sendMessage("subscribeUsers");
     }
 
     /**
@@ -251,13 +241,12 @@ public class ClientFrame extends JPanel {
     }
 
     /**
-     * 执行文件上传操作，包含分块传输机制：
-     * 1. 选择本地文件并生成元数据（文件名、大小、哈希）
-     * 2. 建立专用文件传输Socket连接
-     * 3. 分块传输文件（10MB/块）并实时更新进度条
-     * 4. 每块数据附加哈希校验
+     * 执行文件上传操作（可续传）：
+     * 1. 选择本地文件并生成元数据（文件名、大小、整体哈希与分块哈希）
+     * 2. 连接文件端口，服务器回复已收到的块，只发送缺失的块（10MB/块）
+     * 3. 进度条按服务器确认的块更新，断线后自动重连并从断点继续
      *
-     * @throws NoSuchAlgorithmException 哈希算法不可用时抛出
+     * @see ResumableUploader 会话协议与重试策略
      * @see FileListManager#generateFileInfo(java.nio.file.Path)  文件元数据生成方法
      */
     private void upload() {
@@ -268,74 +257,55 @@ public class ClientFrame extends JPanel {
             new Thread(() -> {
                 final AtomicInteger lastProgress = new AtomicInteger(0);
                 final AtomicLong lastUpdate = new AtomicLong(System.currentTimeMillis());
+                final long transferStart = System.currentTimeMillis();
                 try {
-                    Socket fileSock = new Socket(ip, Server.FILE_PORT);
-                    // 生成文件元数据
-                    FileInfo fileInfo = FileListManager.generateFileInfo(selectedFile.toPath());
-
-                    //发送文件名
-                    client.sendBinaryData(fileInfo.getFileName().getBytes(), fileInfo.getFileName().getBytes().length, fileSock);
-                    // 发送元数据
-                    client.sendMessage("UPLOAD_META#" + fileInfo.getFileName()
-                            + "#" + fileInfo.getFileSize()
-                            + "#" + fileInfo.getFileHash());
-
-                    // 分块发送
-                    try (InputStream is = Files.newInputStream(selectedFile.toPath())) {
-                        byte[] buffer = new byte[10 * 1024 * 1024]; // 10MB分块
-                        int bytesRead;
-                        int chunkIndex = 0;
-                        long totalBytesSent = 0;
-                        long transferStart = System.currentTimeMillis();
-
-                        while ((bytesRead = is.read(buffer)) > 0) {
-                            String chunkHash = FileListManager.calculateHash(buffer, bytesRead);
-                            client.sendMessage("UPLOAD_CHUNK#" + chunkIndex
-                                    + "#" + bytesRead
-                                    + "#" + chunkHash);
-                            client.sendBinaryData(buffer, bytesRead, fileSock); // 发送二进制数据
-                            chunkIndex++;
-
-                            // 精确进度计算
-                            totalBytesSent += bytesRead;
-                            int progress = (int) ((totalBytesSent * 100) / selectedFile.length());
-
-                            // 动态参数计算
-                            long elapsed = System.currentTimeMillis()  - transferStart;
-                            double speed = (totalBytesSent / 1048576.0) / (elapsed / 1000.0);
-                            double eta = (selectedFile.length()  - totalBytesSent) / (speed * 1048576.0);
-
-                            // 智能更新
-                            if (progress > lastProgress.get()  + 1 ||
-                                    System.currentTimeMillis()  - lastUpdate.get()  > 200) {
-                                SwingUtilities.invokeLater(()  -> {
-                                    progressBar.setValue(progress);
-                                    progressBar.setString(String.format(
-                                            "%d%% - %.1f MB/s - 剩余: %.1fs", progress, speed, eta));
-                                    // 动态颜色
-                                    progressBar.setForeground(new  Color(
-                                            Math.min(255,  50 + progress*2),
-                                            Math.max(0,  200 - progress),
-                                            100));
-                                });
-                                lastProgress.set(progress);
-                                lastUpdate.set(System.currentTimeMillis());
-                            }
-                        }
-                        SwingUtilities.invokeLater(()  -> {
-                            progressBar.setValue(100);
-                            progressBar.setString(" 上传完成");
-                        });
-                        fileSock.close();
-                    } catch (Exception ex) {
-                        SwingUtilities.invokeLater(()  -> {
-                            progressBar.setForeground(Color.RED);
-                            progressBar.setString(" 上传失败: " + ex.getMessage());
-                        });
-                    }
-
-                    appendToDisplayArea("上传文件成功：" + fileInfo.getFileName());
+                    ResumableUploader uploader = new ResumableUploader(ip, Server.FILE_PORT);
+                    int streams = uploader.getStreams();
+                    FileInfo fileInfo = uploader.upload(selectedFile.toPath(),
+                            new ResumableUploader.Progress() {
+                                @Override
+                                public void update(long sent, long total, long resumedAt) {
+                                    int progress = total == 0 ? 100 : (int) ((sent * 100) / total);
+                                    // 速度只计本次实际传输的字节，续传前已有的部分不计入
+                                    long elapsed = Math.max(1, System.currentTimeMillis() - transferStart);
+                                    double speed = ((sent - resumedAt) / 1048576.0) / (elapsed / 1000.0);
+                                    double eta = speed > 0 ? (total - sent) / (speed * 1048576.0) : 0;
+
+                                    // 智能更新
+                                    if (progress > lastProgress.get() + 1 ||
+                                            System.currentTimeMillis() - lastUpdate.get() > 200) {
+                                        SwingUtilities.invokeLater(() -> {
+                                            progressBar.setValue(progress);
+                                            progressBar.setString(String.format(
+                                                    "%d%% - %.1f MB/s（%d路） - 剩余: %.1fs", progress, speed, streams, eta));
+                                            // 动态颜色
+                                            progressBar.setForeground(new Color(
+                                                    Math.min(255, 50 + progress * 2),
+                                                    Math.max(0, 200 - progress),
+                                                    100));
+                                        });
+                                        lastProgress.set(progress);
+                                        lastUpdate.set(System.currentTimeMillis());
+                                    }
+                                }
+
+                                @Override
+                                public void retrying(int attempt, String reason) {
+                                    appendToDisplayArea("上传中断（第" + attempt + "次）: " + reason + "，正在续传\n");
+                                }
+                            });
+                    SwingUtilities.invokeLater(() -> {
+                        progressBar.setValue(100);
+                        progressBar.setString(" 上传完成");
+                    });
+                    long elapsed = Math.max(1, System.currentTimeMillis() - transferStart);
+                    appendToDisplayArea(String.format("上传文件成功：%s（%d路，平均%.1f MB/s）", fileInfo.getFileName(),
+                            streams, (fileInfo.getFileSize() / 1048576.0) / (elapsed / 1000.0)));
                 } catch (IOException | NoSuchAlgorithmException ex) {
+                    SwingUtilities.invokeLater(() -> {
+                        progressBar.setForeground(Color.RED);
+                        progressBar.setString(" 上传失败: " + ex.getMessage());
+                    });
                     appendToDisplayArea("上传失败: " + ex.getMessage() + "\n");
                 }
             }).start();
@@ -0,0 +1,370 @@
+package sample.Client;
+
+import sample.AllNeed.ChunkChecksum;
+import sample.AllNeed.ChunkStore;
+import sample.AllNeed.ChunkTable;
+import sample.AllNeed.FastCdc;
+import sample.AllNeed.FileHasher;
+import sample.AllNeed.FileInfo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按块差异同步（对端为{@link ClientFileServer}）
+ *
+ * <p>本地已有旧版本时只下载内容不同的块：
+ * <ul>
+ *   <li><b>固定分块</b>：按远端的块大小与算法逐位置比较（本地块大小或算法不同时先按远端参数重新计算本地分块），
+ *   差异块直接写回本地文件的对应偏移，最后截断到远端大小</li>
+ *   <li><b>内容定义分块</b>：插入或删除数据后块会平移，不能原地写入；按块哈希匹配，已有的块从本地旧文件复制，
+ *   其余块从对端下载，组装到临时文件后替换</li>
+ *   <li><b>只含Merkle根的列表</b>：由{@link MerkleDiffClient}下探定位差异块后原地写入</li>
+ * </ul>
+ * 每个下载的块都按列表中的校验值核对，写完后再对整个文件做一次校验（整体SHA-256或Merkle根），
+ * 任何一步失败都抛出异常，由调用方退回整文件下载。
+ *
+ * <p>块请求格式：
+ * <pre>
+ * CHUNK_REQUEST
+ * 文件名
+ * 偏移:长度 偏移:长度 ...
+ *                                      CHUNK_RESPONSE（writeUTF）+ 各区间的原始字节（按请求顺序）
+ *                                      或 ERROR + 原因（writeUTF）
+ * </pre>
+ *
+ * @since 2025.3.22
+ */
+public class DeltaSyncClient {
+    static final String CHUNK_REQUEST = "CHUNK_REQUEST";
+    static final String CHUNK_RESPONSE = "CHUNK_RESPONSE";
+    static final String ERROR = "ERROR";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String host;
+    private final int port;
+    private long fetched;
+
+    public DeltaSyncClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @return 上一次{@link #sync}从对端下载的字节数
+     */
+    public long getFetched() {
+        return fetched;
+    }
+
+    /**
+     * 判断本地文件是否需要与远端同步
+     *
+     * @see FileInfo#sameContentAs(FileInfo) 比较规则
+     */
+    public static boolean needsSync(FileInfo local, FileInfo remote) {
+        return local == null || !local.sameContentAs(remote);
+    }
+
+    /**
+     * 把本地旧版本同步为远端版本
+     *
+     * @param target 本地文件
+     * @param local  本地旧版本的文件信息
+     * @param remote 远端文件信息
+     * @return 差异块数
+     * @throws ProtocolException 对端拒绝、块校验失败、分块方式无法比较或最终校验不符
+     * @throws IOException       连接或读写失败
+     */
+    public int sync(Path target, FileInfo local, FileInfo remote) throws IOException {
+        fetched = 0;
+        List<FileInfo.ChunkInfo> changed;
+        if (remote.chunks.isEmpty() && remote.total_chunks > 0) {
+            // 只含根的列表：由Merkle下探定位差异块
+            changed = new MerkleDiffClient(host, port).diff(local, remote.getMerkleRoot());
+            if (changed == null || FastCdc.CDC.equals(remote.getChunking())) {
+                throw new ProtocolException("分块方式不同，无法按块比较: " + remote.filename);
+            }
+            patchInPlace(target, remote, changed);
+        } else if (FastCdc.CDC.equals(remote.getChunking())) {
+            changed = assemble(target, local, remote);
+        } else {
+            changed = changedFixedChunks(target, local, remote);
+            patchInPlace(target, remote, changed);
+        }
+        verify(target, remote);
+        return changed.size();
+    }
+
+    /**
+     * 把远端文件同步到内容寻址存储：只下载存储中没有的块，写入清单前按整体SHA-256校验
+     *
+     * @param store  内容寻址存储
+     * @param remote 远端文件信息（须携带完整的SHA-256分块列表）
+     * @return 下载的块数
+     * @throws ProtocolException 列表不适用于存储（非SHA-256分块或只含根）、块校验失败或整体校验不符
+     * @throws IOException       连接或读写失败
+     */
+    public int syncToStore(ChunkStore store, FileInfo remote) throws IOException {
+        fetched = 0;
+        if (!ChunkChecksum.SHA256.equals(remote.getChunkAlgorithm())
+                || (remote.chunks.isEmpty() && remote.total_chunks > 0)) {
+            throw new ProtocolException("列表未携带SHA-256分块，无法写入分块存储: " + remote.filename);
+        }
+        ChunkTable table = remote.getChunkTable();
+        // 固定后再检查已有的块：写清单前这些块不会因其他文件的替换而被删除
+        ChunkStore.Pin pin = store.pin(remote);
+        try {
+            Map<String, FileInfo.ChunkInfo> missing = new LinkedHashMap<>();
+            for (int i = 0; i < table.size(); i++) {
+                String hash = table.hash(i);
+                if (!missing.containsKey(hash) && !store.contains(hash)) {
+                    missing.put(hash, table.chunk(i));
+                }
+            }
+            if (!missing.isEmpty()) {
+                List<FileInfo.ChunkInfo> chunks = new ArrayList<>(missing.values());
+                try (ChunkStream stream = request(remote.filename, chunks)) {
+                    for (FileInfo.ChunkInfo chunk : chunks) {
+                        stream.store(chunk, store);
+                    }
+                }
+            }
+            if (remote.getFileHash() != null) {
+                String actual = sha256Of(table, store);
+                if (!remote.getFileHash().equals(actual)) {
+                    throw new ProtocolException("同步后文件校验不符: " + remote.filename);
+                }
+            }
+            store.writeManifest(remote);
+            return missing.size();
+        } finally {
+            pin.close();
+        }
+    }
+
+    /**
+     * 按分块顺序从存储读出并计算整体SHA-256
+     */
+    private static String sha256Of(ChunkTable table, ChunkStore store) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int i = 0; i < table.size(); i++) {
+            try (InputStream in = store.openChunk(table.hash(i))) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    md.update(buffer, 0, n);
+                }
+            }
+        }
+        return FileHasher.toHex(md.digest());
+    }
+
+    /**
+     * 按远端的块大小与算法逐位置比较固定分块
+     */
+    private static List<FileInfo.ChunkInfo> changedFixedChunks(Path target, FileInfo local, FileInfo remote)
+            throws IOException {
+        if (!FastCdc.FIXED.equals(local.getChunking()) || local.getChunkSize() != remote.getChunkSize()
+                || !local.getChunkAlgorithm().equals(remote.getChunkAlgorithm())) {
+            local = FileHasher.hashFile(target, ChunkChecksum.of(remote.getChunkAlgorithm()), remote.getChunkSize());
+        }
+        ChunkTable theirs = remote.getChunkTable();
+        ChunkTable ours = local.getChunkTable();
+        List<FileInfo.ChunkInfo> changed = new ArrayList<>();
+        for (int i = 0; i < theirs.size(); i++) {
+            if (i >= ours.size() || !theirs.sameHash(i, ours, i) || theirs.length(i) != ours.length(i)) {
+                changed.add(theirs.chunk(i));
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 下载差异块写回本地文件的对应偏移，并截断到远端大小
+     */
+    private void patchInPlace(Path target, FileInfo remote, List<FileInfo.ChunkInfo> changed) throws IOException {
+        ChunkChecksum algorithm = ChunkChecksum.of(remote.getChunkAlgorithm());
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            if (!changed.isEmpty()) {
+                try (ChunkStream chunks = request(remote.filename, changed)) {
+                    for (FileInfo.ChunkInfo chunk : changed) {
+                        chunks.copy(chunk, algorithm, file, chunk.offset);
+                    }
+                }
+            }
+            file.truncate(remote.getFileSize());
+        }
+    }
+
+    /**
+     * 按远端块顺序组装临时文件：本地已有的块从旧文件复制，其余块从对端下载
+     *
+     * @return 下载的块
+     */
+    private List<FileInfo.ChunkInfo> assemble(Path target, FileInfo local, FileInfo remote) throws IOException {
+        ChunkChecksum algorithm = ChunkChecksum.of(remote.getChunkAlgorithm());
+        Map<String, FileInfo.ChunkInfo> known = new HashMap<>();
+        if (local.getChunkAlgorithm().equals(remote.getChunkAlgorithm())) {
+            for (FileInfo.ChunkInfo chunk : local.chunks) {
+                known.put(chunk.hash, chunk);
+            }
+        }
+        List<FileInfo.ChunkInfo> missing = remote.chunksMissingFrom(local);
+        // 以"."开头，扫描时不会被当作共享文件
+        Path temp = target.resolveSibling("." + target.getFileName() + ".sync");
+        try (FileChannel source = FileChannel.open(target, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             ChunkStream chunks = missing.isEmpty() ? null : request(remote.filename, missing)) {
+            for (FileInfo.ChunkInfo chunk : remote.chunks) {
+                FileInfo.ChunkInfo have = known.get(chunk.hash);
+                if (have != null) {
+                    out.position(chunk.offset);
+                    long copied = 0;
+                    while (copied < have.length) {
+                        long n = source.transferTo(have.offset + copied, have.length - copied, out);
+                        if (n <= 0) {
+                            throw new EOFException("本地旧版本在同步时被截短: " + target);
+                        }
+                        copied += n;
+                    }
+                } else {
+                    chunks.copy(chunk, algorithm, out, chunk.offset);
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        return missing;
+    }
+
+    /**
+     * 整文件校验：整体SHA-256，列表未携带时按固定分块重新计算Merkle根比较
+     */
+    private static void verify(Path target, FileInfo remote) throws IOException {
+        FileInfo actual = FileHasher.hashFile(target, ChunkChecksum.of(remote.getChunkAlgorithm()),
+                remote.getChunkSize());
+        boolean ok;
+        if (actual.getFileSize() != remote.getFileSize()) {
+            ok = false;
+        } else if (remote.getFileHash() != null) {
+            ok = remote.getFileHash().equals(actual.getFileHash());
+        } else if (FastCdc.FIXED.equals(remote.getChunking())) {
+            ok = actual.getMerkleRoot().equals(remote.getMerkleRoot());
+        } else {
+            throw new ProtocolException("列表未携带整体哈希，无法校验: " + remote.filename);
+        }
+        if (!ok) {
+            throw new ProtocolException("同步后文件校验不符: " + remote.filename);
+        }
+    }
+
+    private ChunkStream request(String filename, List<FileInfo.ChunkInfo> chunks) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+            StringBuilder ranges = new StringBuilder();
+            for (FileInfo.ChunkInfo chunk : chunks) {
+                if (ranges.length() > 0) {
+                    ranges.append(' ');
+                }
+                ranges.append(chunk.offset).append(':').append(chunk.length);
+            }
+            out.println(CHUNK_REQUEST);
+            out.println(filename);
+            out.println(ranges);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            String header = in.readUTF();
+            if (ERROR.equals(header)) {
+                throw new ProtocolException("对端拒绝块请求: " + in.readUTF());
+            }
+            if (!CHUNK_RESPONSE.equals(header)) {
+                throw new ProtocolException("意外的应答: " + header);
+            }
+            return new ChunkStream(socket, in);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 一次块请求的应答流
+     */
+    private final class ChunkStream implements AutoCloseable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        ChunkStream(Socket socket, DataInputStream in) {
+            this.socket = socket;
+            this.in = in;
+        }
+
+        /**
+         * 读出下一块写入文件的指定位置，并按列表中的校验值核对
+         */
+        void copy(FileInfo.ChunkInfo chunk, ChunkChecksum algorithm, FileChannel file, long position)
+                throws IOException {
+            ChunkChecksum.Accumulator accumulator = algorithm.newAccumulator();
+            long remaining = chunk.length;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new EOFException("块数据不完整: " + chunk.chunk_number);
+                }
+                accumulator.update(buffer, 0, n);
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                while (data.hasRemaining()) {
+                    position += file.write(data, position);
+                }
+                remaining -= n;
+                fetched += n;
+            }
+            if (!chunk.hash.equals(accumulator.finishHex())) {
+                throw new ProtocolException("块" + chunk.chunk_number + "校验失败，远端文件可能已变化");
+            }
+        }
+
+        /**
+         * 读出下一块写入内容寻址存储（存储按SHA-256校验）
+         */
+        void store(FileInfo.ChunkInfo chunk, ChunkStore store) throws IOException {
+            store.put(chunk.hash, in, chunk.length);
+            fetched += chunk.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package sample.Client;
+
+import sample.AllNeed.FileHasher;
+import sample.AllNeed.FileInfo;
+import sample.AllNeed.MerkleTree;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于Merkle树下探的文件差异定位（对端为{@link ClientFileServer}）
+ *
+ * <p>启动参数{@code -D}{@value #PROPERTY}{@code =true}时，节点间交换的文件列表只携带Merkle根；
+ * 根不同的文件通过一个连接逐层下探，每层一次往返：
+ * <pre>
+ * 请求方                               文件节点
+ * TREE_REQUEST
+ * 文件名
+ *                                      TREE 根哈希 叶子数 树高 分块算法 分块方式   （或 ERROR 原因）
+ * NODES 层号 下标...                   NODES 哈希...            （层号≥1）
+ * LEAVES 下标...                       LEAVES 偏移:长度:块哈希...（叶子，请求方自行计算叶子哈希）
+ * END
+ * </pre>
+ * 每层收到的节点都先与已确认的父节点核对，最终定位到的块也已由根哈希证明，可直接按块下载。
+ * 两端分块算法、分块方式或叶子数不同时树的形状不同，不能按位置比较，由调用方退回整文件或按块哈希集合比较。
+ *
+ * @see MerkleTree#diff
+ * @since 2025.3.22
+ */
+public class MerkleDiffClient {
+    public static final String PROPERTY = "p2p.sync.merkle";
+    static final String TREE_REQUEST = "TREE_REQUEST";
+    static final String TREE = "TREE";
+    static final String NODES = "NODES";
+    static final String LEAVES = "LEAVES";
+    static final String END = "END";
+    static final String ERROR = "ERROR";
+
+    private final String host;
+    private final int port;
+    private int roundTrips;
+
+    public MerkleDiffClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @return 是否开启了只交换根哈希的文件列表
+     */
+    public static boolean enabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * @return 上一次{@link #diff}的下探往返次数（含首次TREE应答）
+     */
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * 找出远端文件中与本地版本不同的块
+     *
+     * @param local      本地版本
+     * @param remoteRoot 文件列表中的远端Merkle根
+     * @return 远端的差异块（已由根哈希证明）；两端树形状不同时返回null
+     * @throws ProtocolException 远端拒绝请求、根哈希已变化或节点校验失败
+     * @throws IOException       连接失败
+     */
+    public List<FileInfo.ChunkInfo> diff(FileInfo local, String remoteRoot) throws IOException {
+        roundTrips = 0;
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+            out.println(TREE_REQUEST);
+            out.println(local.filename);
+            String[] head = reply(in, TREE);
+            if (head.length < 6) {
+                throw new ProtocolException("TREE应答格式错误");
+            }
+            if (remoteRoot != null && !remoteRoot.equals(head[1])) {
+                throw new ProtocolException("远端文件已变化: " + local.filename);
+            }
+            MerkleTree tree = local.getMerkleTree();
+            if (Integer.parseInt(head[2]) != tree.leafCount()
+                    || !head[4].equals(local.getChunkAlgorithm()) || !head[5].equals(local.getChunking())) {
+                out.println(END);
+                return null;
+            }
+            byte[] root = FileHasher.fromHex(head[1]);
+            Map<Integer, FileInfo.ChunkInfo> leaves = new HashMap<>();
+            List<Integer> differing = tree.diff(root, (level, indices) -> level == 0
+                    ? fetchLeaves(in, out, indices, leaves)
+                    : fetchNodes(in, out, level, indices));
+            if (tree.height() == 0 && !differing.isEmpty()) {
+                // 单块文件：根即叶子，直接取叶子并与根核对
+                byte[][] leaf = fetchLeaves(in, out, differing, leaves);
+                if (!Arrays.equals(leaf[0], root)) {
+                    throw new ProtocolException("叶子与根哈希不符: " + local.filename);
+                }
+            }
+            out.println(END);
+            List<FileInfo.ChunkInfo> result = new ArrayList<>(differing.size());
+            for (int index : differing) {
+                result.add(leaves.get(index));
+            }
+            return result;
+        }
+    }
+
+    private byte[][] fetchNodes(BufferedReader in, PrintWriter out, int level, List<Integer> indices)
+            throws IOException {
+        StringBuilder request = new StringBuilder(NODES).append(' ').append(level);
+        for (int index : indices) {
+            request.append(' ').append(index);
+        }
+        out.println(request);
+        String[] parts = reply(in, NODES);
+        byte[][] nodes = new byte[parts.length - 1][];
+        for (int i = 1; i < parts.length; i++) {
+            nodes[i - 1] = FileHasher.fromHex(parts[i]);
+        }
+        return nodes;
+    }
+
+    private byte[][] fetchLeaves(BufferedReader in, PrintWriter out, List<Integer> indices,
+                                 Map<Integer, FileInfo.ChunkInfo> leaves) throws IOException {
+        StringBuilder request = new StringBuilder(LEAVES);
+        for (int index : indices) {
+            request.append(' ').append(index);
+        }
+        out.println(request);
+        String[] parts = reply(in, LEAVES);
+        if (parts.length - 1 != indices.size()) {
+            throw new ProtocolException("远端返回的叶子数不符");
+        }
+        byte[][] nodes = new byte[indices.size()][];
+        for (int i = 0; i < nodes.length; i++) {
+            String[] fields = parts[i + 1].split(":");
+            if (fields.length != 3) {
+                throw new ProtocolException("叶子格式错误: " + parts[i + 1]);
+            }
+            int index = indices.get(i);
+            FileInfo.ChunkInfo chunk = new FileInfo.ChunkInfo(index + 1, fields[2],
+                    Long.parseLong(fields[0]), Integer.parseInt(fields[1]));
+            leaves.put(index, chunk);
+            nodes[i] = MerkleTree.leafHash(chunk);
+        }
+        return nodes;
+    }
+
+    /**
+     * 读取一行应答并检查类型
+     */
+    private String[] reply(BufferedReader in, String expected) throws IOException {
+        String line = in.readLine();
+        roundTrips++;
+        if (line == null) {
+            throw new ProtocolException("连接已关闭");
+        }
+        String[] parts = line.split(" ");
+        if (!parts[0].equals(expected)) {
+            throw new ProtocolException(line.startsWith(ERROR) ? line.substring(ERROR.length()).trim() : "意外的应答: " + line);
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,339 @@
+package sample.Client;
+
+import sample.AllNeed.ChunkChecksum;
+import sample.AllNeed.ChunkSizePolicy;
+import sample.AllNeed.FileHasher;
+import sample.AllNeed.FileInfo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可续传上传客户端（服务器文件端口的会话协议，格式见服务器端UploadSessions）
+ *
+ * <p>每次连接先发送OPEN（文件名、大小、块大小、整体哈希），服务器回复缺失块位图，
+ * 只发送缺失的块；块数据经{@link FileChannel#transferTo}由文件直接写入socket。
+ * 服务器逐块回送ACK/NACK，由独立线程读取。连接中断或有块未通过校验时重新连接，
+ * 从服务器记录的断点继续，最多尝试{@value #MAX_ATTEMPTS}次。
+ *
+ * <p>多路并行：启动参数{@code -D}{@value #STREAMS_PROPERTY}{@code =N}时同时建立N条连接加入同一上传会话，
+ * 各连接从共享队列领取缺失块，服务器按块偏移写入预分配的文件。单条TCP连接受窗口与单核发送限制时，
+ * 多路可提高总吞吐；进度回调中的字节数为各路之和。
+ *
+ * @see FileHasher#hashFile(Path, ChunkChecksum, long) 块哈希来源
+ * @since 2025.3.22
+ */
+public class ResumableUploader {
+    /**
+     * 并行连接数参数（默认1）
+     */
+    public static final String STREAMS_PROPERTY = "p2p.upload.streams";
+    static final int MAGIC = 0xF11E5E55;
+    private static final int STATUS_OK = 0;
+    private static final byte ACK = 0;
+    private static final byte COMPLETE = 2;
+    private static final byte INCOMPLETE = 3;
+    private static final int END = -1;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int MAX_STREAMS = 16;
+    private static final long BACKOFF_MILLIS = 500;
+
+    /**
+     * 上传进度回调（多路时可能在不同线程中调用）
+     */
+    public interface Progress {
+        /**
+         * @param sent      已确认在服务器上的字节数（含续传前已完成的部分，多路为总和）
+         * @param total     文件大小
+         * @param resumedAt 本次连接开始时服务器已有的字节数
+         */
+        void update(long sent, long total, long resumedAt);
+
+        /**
+         * 即将重新连接续传
+         *
+         * @param attempt 已失败的次数
+         * @param reason  失败原因
+         */
+        default void retrying(int attempt, String reason) {
+        }
+    }
+
+    private final InetSocketAddress server;
+    private final int streams;
+
+    /**
+     * 按{@value #STREAMS_PROPERTY}决定并行连接数
+     */
+    public ResumableUploader(String host, int port) {
+        this(host, port, Integer.getInteger(STREAMS_PROPERTY, 1));
+    }
+
+    /**
+     * @param streams 并行连接数（1 ~ {@value #MAX_STREAMS}）
+     */
+    public ResumableUploader(String host, int port, int streams) {
+        this.server = new InetSocketAddress(host, port);
+        this.streams = Math.max(1, Math.min(MAX_STREAMS, streams));
+    }
+
+    public int getStreams() {
+        return streams;
+    }
+
+    /**
+     * 上传文件，直到服务器确认整体哈希一致
+     *
+     * @param path     本地文件
+     * @param progress 进度回调（在上传线程中调用）
+     * @return 上传文件的元数据
+     * @throws ProtocolException 服务器拒绝上传参数或整体校验失败时抛出（不再重试）
+     * @throws IOException       重试次数用尽时抛出最后一次的错误
+     */
+    public FileInfo upload(Path path, Progress progress) throws IOException, NoSuchAlgorithmException {
+        // 服务器按SHA-256校验每块，不受本地分块校验算法配置影响；块大小按上传方式选择
+        FileInfo info = FileHasher.hashFile(path, ChunkChecksum.of(ChunkChecksum.SHA256),
+                ChunkSizePolicy.chunkSize(Files.size(path), ChunkSizePolicy.Mode.UPLOAD));
+        IOException last = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                if (attempt(path, info, progress)) {
+                    return info;
+                }
+                last = new IOException("部分块未通过服务器校验");
+                progress.retrying(attempt, last.getMessage());
+            } catch (ProtocolException e) {
+                throw e;
+            } catch (IOException e) {
+                last = e;
+                progress.retrying(attempt, e.getMessage());
+                try {
+                    Thread.sleep(BACKOFF_MILLIS << (attempt - 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("上传被中断", ie);
+                }
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * 一轮上传：建立各路连接，按第一路收到的位图补传缺失块
+     *
+     * @return 服务器确认完成返回true；有块被NACK（需重新连接补传）返回false
+     */
+    private boolean attempt(Path path, FileInfo info, Progress progress) throws IOException {
+        long size = info.getFileSize();
+        int chunkSize = (int) info.getChunkSize();
+        List<Stream> open = new ArrayList<>(streams);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] bitmap = null;
+            for (int i = 0; i < streams; i++) {
+                Stream stream = new Stream(SocketChannel.open(server), file, info, chunkSize);
+                open.add(stream);
+                byte[] received = stream.open();
+                if (bitmap == null) {
+                    bitmap = received;
+                }
+            }
+            Queue<Integer> missing = new ConcurrentLinkedQueue<>();
+            long present = size;
+            for (int i = 0; i < info.getTotalChunks(); i++) {
+                if (i >> 3 < bitmap.length && (bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+                    missing.add(i);
+                    present -= chunkLength(size, chunkSize, i);
+                }
+            }
+            long resumedAt = present;
+            AtomicLong confirmed = new AtomicLong(present);
+            progress.update(present, size, resumedAt);
+
+            List<Thread> senders = new ArrayList<>(streams);
+            for (int i = 0; i < open.size(); i++) {
+                Stream stream = open.get(i);
+                Thread sender = new Thread(() -> stream.send(missing, confirmed, resumedAt, progress),
+                        "upload-stream-" + (i + 1));
+                sender.setDaemon(true);
+                sender.start();
+                senders.add(sender);
+            }
+            for (Thread sender : senders) {
+                try {
+                    sender.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("上传被中断", e);
+                }
+            }
+            IOException error = null;
+            for (Stream stream : open) {
+                if (stream.result == COMPLETE) {
+                    return true; // 最后完成的一路收到整体校验结果
+                }
+                if (stream.error != null) {
+                    error = stream.error;
+                } else if (stream.result != INCOMPLETE) {
+                    throw new ProtocolException("服务器整体校验失败");
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return false; // 被NACK的块在服务器位图中仍为缺失，重新连接后补传
+        } finally {
+            for (Stream stream : open) {
+                stream.close();
+            }
+        }
+    }
+
+    private static int chunkLength(long size, int chunkSize, int index) {
+        return (int) Math.min(chunkSize, size - (long) index * chunkSize);
+    }
+
+    /**
+     * 一路连接：发送线程从共享队列领取块，应答线程读取ACK
+     */
+    private static final class Stream {
+        private final SocketChannel channel;
+        private final FileChannel file;
+        private final FileInfo info;
+        private final long size;
+        private final int chunkSize;
+        private volatile byte result = -1;
+        private volatile IOException error;
+
+        Stream(SocketChannel channel, FileChannel file, FileInfo info, int chunkSize) {
+            this.channel = channel;
+            this.file = file;
+            this.info = info;
+            this.size = info.getFileSize();
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * 发送OPEN并读取缺失块位图
+         *
+         * @throws ProtocolException 服务器拒绝时抛出
+         */
+        byte[] open() throws IOException {
+            byte[] name = info.getFileName().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer open = ByteBuffer.allocate(4 + 4 + name.length + 8 + 4 + 32);
+            open.putInt(MAGIC).putInt(name.length).put(name).putLong(size).putInt(chunkSize)
+                    .put(FileHasher.fromHex(info.getFileHash())).flip();
+            write(channel, open);
+
+            ByteBuffer head = ByteBuffer.allocate(8);
+            readFully(channel, head, 4);
+            if (head.getInt(0) != STATUS_OK) {
+                readFully(channel, head, 4);
+                ByteBuffer msg = ByteBuffer.allocate(head.getInt(0));
+                readFully(channel, msg, msg.capacity());
+                throw new ProtocolException("服务器拒绝上传: " + new String(msg.array(), StandardCharsets.UTF_8));
+            }
+            readFully(channel, head, 8);
+            ByteBuffer bitmap = ByteBuffer.allocate(head.getInt(4));
+            readFully(channel, bitmap, bitmap.capacity());
+            return bitmap.array();
+        }
+
+        /**
+         * 领取并发送块直到队列为空，发送结束标记后等待服务器结果（在发送线程中执行）
+         */
+        void send(Queue<Integer> missing, AtomicLong confirmed, long resumedAt, Progress progress) {
+            Thread acks = new Thread(() -> readAcks(confirmed, resumedAt, progress), Thread.currentThread().getName() + "-ack");
+            acks.setDaemon(true);
+            acks.start();
+            try {
+                ByteBuffer chunkHead = ByteBuffer.allocate(4 + 4 + 32);
+                Integer index;
+                while ((index = missing.poll()) != null) {
+                    int length = chunkLength(size, chunkSize, index);
+                    chunkHead.clear();
+                    chunkHead.putInt(index).putInt(length).put(FileHasher.fromHex(info.getChunks().get(index).getHash())).flip();
+                    write(channel, chunkHead);
+                    long position = (long) index * chunkSize;
+                    long end = position + length;
+                    while (position < end) {
+                        position += file.transferTo(position, end - position, channel);
+                    }
+                }
+                chunkHead.clear();
+                chunkHead.putInt(END).flip();
+                write(channel, chunkHead);
+                acks.join();
+            } catch (IOException e) {
+                error = e;
+                close(); // 使应答线程结束
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = new IOException("上传被中断", e);
+                close();
+            }
+        }
+
+        /**
+         * 读取服务器的块确认，直到收到最终结果
+         */
+        private void readAcks(AtomicLong confirmed, long resumedAt, Progress progress) {
+            ByteBuffer ack = ByteBuffer.allocate(5);
+            try {
+                while (true) {
+                    readFully(channel, ack, 5);
+                    int index = ack.getInt(0);
+                    byte status = ack.get(4);
+                    if (index == END) {
+                        result = status;
+                        return;
+                    }
+                    if (status == ACK) {
+                        progress.update(confirmed.addAndGet(chunkLength(size, chunkSize, index)), size, resumedAt);
+                    }
+                }
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 只为释放连接
+            }
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buf, int length) throws IOException {
+        buf.clear().limit(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException("服务器关闭了连接");
+            }
+        }
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+}
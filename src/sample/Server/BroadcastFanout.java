@@ -0,0 +1,164 @@
+package sample.Server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 广播扇出阶段
+ *
+ * <p>广播消息只编码一次，随后投递到每个在线客户端的{@link OutboundQueue}，
+ * 由各自的写线程异步写出。单个卡住的客户端只会堆积自己的队列，不再拖慢发送者和其他客户端。
+ *
+ * <p>配置参数（JVM系统属性）：
+ * <ul>
+ *   <li>{@value #CAPACITY_PROPERTY}：每客户端队列可排队的广播条数，默认{@value #DEFAULT_CAPACITY}</li>
+ *   <li>{@value #POLICY_PROPERTY}：慢消费者策略 drop_oldest / disconnect / coalesce，默认drop_oldest</li>
+ * </ul>
+ *
+ * @see OutboundQueue.Policy 慢消费者策略
+ * @since 2025.3.22
+ */
+public final class BroadcastFanout {
+    static final String CAPACITY_PROPERTY = "p2p.outbound.capacity";
+    static final String POLICY_PROPERTY = "p2p.outbound.policy";
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final UserRegistry registry;
+    private final int capacity = Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY);
+    private final OutboundQueue.Policy policy = OutboundQueue.Policy.parse(System.getProperty(POLICY_PROPERTY));
+    private final AtomicLong broadcasts = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+
+    BroadcastFanout(UserRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 按当前配置为新连接创建发送队列
+     *
+     * @param onReady 入队回调，可为null
+     * @return 新的有界发送队列
+     */
+    OutboundQueue newQueue(Runnable onReady) {
+        return new OutboundQueue(capacity, policy, onReady);
+    }
+
+    /**
+     * 向在线用户广播
+     *
+     * @param text        消息内容
+     * @param coalesceKey 合并键（仅COALESCE策略生效），可为null
+     * @param exclude     不接收本消息的会话（发送者自身），可为null
+     */
+    void broadcast(String text, String coalesceKey, ClientSession exclude) {
+        OutboundMessage message = OutboundMessage.broadcast(text, coalesceKey);
+        broadcasts.incrementAndGet();
+        for (UserRegistry.OnlineUser user : registry.users()) {
+            ClientSession session = user.getSession();
+            if (session != exclude) {
+                deliver(session, message);
+            }
+        }
+    }
+
+    /**
+     * 投递到单个会话并按入队结果更新计数
+     */
+    void deliver(ClientSession session, OutboundMessage message) {
+        switch (session.outbound().offer(message)) {
+            case ENQUEUED:
+                deliveries.incrementAndGet();
+                break;
+            case DROPPED_OLDEST:
+                deliveries.incrementAndGet();
+                dropped.incrementAndGet();
+                break;
+            case COALESCED:
+                deliveries.incrementAndGet();
+                coalesced.incrementAndGet();
+                break;
+            case DROPPED:
+                dropped.incrementAndGet();
+                break;
+            case REJECTED:
+                disconnects.incrementAndGet();
+                session.disconnect("发送队列溢出（" + capacity + "条）");
+                break;
+            default:
+                break;
+        }
+    }
+
+    public OutboundQueue.Policy getPolicy() {
+        return policy;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getBroadcasts() {
+        return broadcasts.get();
+    }
+
+    public long getDeliveries() {
+        return deliveries.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getDisconnects() {
+        return disconnects.get();
+    }
+
+    /**
+     * 汇总当前全部在线客户端的队列深度
+     *
+     * @return 排队消息总数
+     */
+    public long getQueuedTotal() {
+        long total = 0;
+        for (UserRegistry.OnlineUser user : registry.users()) {
+            total += user.getSession().outbound().depth();
+        }
+        return total;
+    }
+
+    /**
+     * 生成统计报告（stats指令的应答内容）
+     *
+     * @return 多行文本
+     */
+    String describe() {
+        StringBuilder sb = new StringBuilder("-- 广播队列统计 --\n");
+        sb.append("策略: ").append(policy).append("  容量: ").append(capacity).append('\n');
+        sb.append("广播: ").append(broadcasts.get())
+                .append("  投递: ").append(deliveries.get())
+                .append("  丢弃: ").append(dropped.get())
+                .append("  合并: ").append(coalesced.get())
+                .append("  断开: ").append(disconnects.get()).append('\n');
+        int maxDepth = 0;
+        String slowest = "-";
+        long total = 0;
+        for (UserRegistry.OnlineUser user : registry.users()) {
+            OutboundQueue queue = user.getSession().outbound();
+            int depth = queue.depth();
+            total += depth;
+            if (depth > maxDepth) {
+                maxDepth = depth;
+                slowest = user.nickname;
+            }
+        }
+        sb.append("排队总数: ").append(total).append("  最深队列: ").append(slowest).append('(').append(maxDepth).append(")\n");
+        sb.append("-----------------");
+        return sb.toString();
+    }
+}
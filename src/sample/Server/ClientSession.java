@@ -0,0 +1,54 @@
+package sample.Server;
+
+import java.net.InetAddress;
+
+/**
+ * 控制通道会话抽象（线程引擎与NIO引擎共用）
+ *
+ * <p>服务器的广播、在线列表维护只依赖本接口，从而可以在启动时切换底层连接引擎：
+ * <ul>
+ *   <li>{@link Server.CreateServerThread} - 每连接一个阻塞线程（传统引擎）</li>
+ *   <li>{@link NioControlServer} - 少量事件循环线程复用全部连接（NIO引擎）</li>
+ * </ul>
+ *
+ * @see Server#broadcastToClients(String)
+ * @since 2025.3.22
+ */
+public interface ClientSession {
+
+    /**
+     * 向该客户端发送一行文本（自动追加换行符）
+     *
+     * @param msg 消息内容
+     * @implNote 实现必须允许任意线程调用，消息进入{@link #outbound()}队列后异步写出
+     */
+    void sendMessage(String msg);
+
+    /**
+     * 获取登录时登记的昵称
+     *
+     * @return 昵称，未登录时为null
+     */
+    String getNickname();
+
+    /**
+     * 获取客户端地址（用于与文件端口的数据连接关联）
+     *
+     * @return 控制通道对端地址
+     */
+    InetAddress getRemoteAddress();
+
+    /**
+     * 获取该客户端的有界发送队列
+     *
+     * @return 发送队列（广播扇出直接向其投递）
+     */
+    OutboundQueue outbound();
+
+    /**
+     * 强制断开该客户端（慢消费者策略为DISCONNECT时由扇出阶段调用）
+     *
+     * @param reason 断开原因（写入日志）
+     */
+    void disconnect(String reason);
+}
@@ -0,0 +1,422 @@
+package sample.Server;
+
+import sample.AllNeed.ControlFrame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于Selector的控制通道服务引擎（NIO版）
+ *
+ * <p>与{@link Server.CreateServerThread}使用完全相同的文本协议：
+ * <ul>
+ *   <li>首行登录：{@code 昵称#IP#端口}</li>
+ *   <li>指令：{@code ls}、{@code fl}/{@code filelist}、{@code share}、{@code updateOnlineUsers}、{@code subscribeUsers}、{@code help}、{@code exit}</li>
+ *   <li>其余内容作为聊天消息广播</li>
+ *   <li>欢迎语后可用{@value ControlFrame#NEGOTIATE}协商切换为{@link ControlFrame}二进制分帧</li>
+ * </ul>
+ *
+ * <p>线程模型：
+ * <ul>
+ *   <li>固定数量的事件循环线程（{@value #LOOPS_PROPERTY}，默认CPU核数的一半，至少2个）</li>
+ *   <li>第0号事件循环同时负责accept，新连接轮询分配到各事件循环</li>
+ *   <li>会扫描磁盘的{@code fl}指令交给单独的工作线程执行，避免阻塞事件循环</li>
+ *   <li>每个会话的{@link OutboundQueue}由所属事件循环非阻塞写出，写不完时等待OP_WRITE</li>
+ * </ul>
+ *
+ * @see Server#ENGINE_PROPERTY 引擎选择参数
+ * @since 2025.3.22
+ */
+class NioControlServer {
+    /**
+     * 事件循环线程数参数
+     */
+    static final String LOOPS_PROPERTY = "p2p.server.loops";
+    /**
+     * 单行最大长度，超出视为协议错误并断开
+     */
+    private static final int MAX_LINE = 64 * 1024;
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final Server server;
+    private final ServerSocketChannel acceptor;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    /**
+     * 执行文件列表扫描等阻塞任务的工作线程（串行执行，同时保护FileListManager）
+     */
+    private final Executor blockingWorker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "nio-control-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    NioControlServer(Server server, ServerSocketChannel acceptor) throws IOException {
+        this.server = server;
+        this.acceptor = acceptor;
+        int count = Integer.getInteger(LOOPS_PROPERTY,
+                Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+        this.loops = new EventLoop[Math.max(1, count)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+    }
+
+    /**
+     * 启动全部事件循环并开始接受连接
+     *
+     * @throws IOException 当监听通道注册失败时抛出
+     */
+    void start() throws IOException {
+        acceptor.configureBlocking(false);
+        EventLoop boss = loops[0];
+        acceptor.register(boss.selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = acceptor.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                NioSession session = new NioSession(channel, loop);
+                loop.execute(session::register);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            server.displayArea.append(server.nowtime(server.now) + "  " + "客户端连接错误: " + e.getMessage() + "\n");
+        }
+    }
+
+    /**
+     * 单个事件循环：一个Selector加一个任务队列
+     */
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-control-loop-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * 在本事件循环线程中执行任务（任意线程可调用）
+         *
+         * @implNote 本线程内提交同样需要wakeup，保证下一次select立即返回并执行任务
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        NioSession session = (NioSession) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                session.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                session.flush();
+                            }
+                        } catch (IOException e) {
+                            session.close(e);
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * NIO连接会话（除sendMessage、disconnect外全部方法只在所属事件循环线程中执行）
+     */
+    private final class NioSession implements ClientSession {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final InetAddress remoteAddress;
+        private final int remotePort;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+        private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(128);
+        private final OutboundQueue outbound = server.fanout.newQueue(this::scheduleFlush);
+        private volatile PrintWriter out = new PrintWriter(outbound.asOutputStream(), true);
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private ByteBuffer pending;
+        /**
+         * 分帧模式下的未完整帧数据（按需扩容，上限由帧长度校验约束）
+         */
+        private ByteBuffer frameBuffer;
+        private int requestId;
+        private SelectionKey key;
+        private boolean loggedIn;
+        private boolean closing;
+        private boolean closed;
+        private String nikename;
+        private UserRegistry.OnlineUser indentifer;
+
+        NioSession(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            InetSocketAddress address = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+            this.remoteAddress = address.getAddress();
+            this.remotePort = address.getPort();
+        }
+
+        void register() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+                sendMessage(Server.Welcome_Word);
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+
+        void onReadable() throws IOException {
+            if (closing) {
+                return;
+            }
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                onLine(null);
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining() && !closing && !closed) {
+                if (frameBuffer != null) {
+                    onFrameBytes();
+                    break;
+                }
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    byte[] raw = lineBuffer.toByteArray();
+                    lineBuffer.reset();
+                    int len = raw.length;
+                    if (len > 0 && raw[len - 1] == '\r') {
+                        len--;
+                    }
+                    onLine(new String(raw, 0, len, CHARSET));
+                } else if (lineBuffer.size() >= MAX_LINE) {
+                    close(new IOException("行长度超出限制"));
+                } else {
+                    lineBuffer.write(b);
+                }
+            }
+            readBuffer.clear();
+        }
+
+        /**
+         * 分帧模式：把本次读到的数据追加到帧缓冲，逐个解出完整帧
+         *
+         * @throws IOException 帧长度非法时抛出（由事件循环关闭连接）
+         */
+        private void onFrameBytes() throws IOException {
+            if (frameBuffer.remaining() < readBuffer.remaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(frameBuffer.capacity() * 2,
+                        frameBuffer.position() + readBuffer.remaining()));
+                frameBuffer.flip();
+                grown.put(frameBuffer);
+                frameBuffer = grown;
+            }
+            frameBuffer.put(readBuffer);
+            frameBuffer.flip();
+            try {
+                ControlFrame frame;
+                while (!closing && !closed && (frame = ControlFrame.decode(frameBuffer)) != null) {
+                    if (frame.type == ControlFrame.TEXT) {
+                        requestId = frame.requestId;
+                        onLine(frame.payload);
+                    }
+                }
+            } finally {
+                frameBuffer.compact();
+            }
+        }
+
+        /**
+         * @return 当前指令的应答输出（分帧协议下携带该指令的请求ID）
+         */
+        private PrintWriter reply() {
+            return frameBuffer == null ? out : outbound.frameWriter(requestId);
+        }
+
+        /**
+         * 协议分发（协商、登录与退出在此处理，其余指令见{@link Server#handleCommand}）
+         */
+        private void onLine(String line) {
+            if (!loggedIn) {
+                if (frameBuffer == null && ControlFrame.NEGOTIATE.equals(line)) {
+                    sendMessage(ControlFrame.ACCEPTED);
+                    outbound.setFramed();
+                    out = outbound.frameWriter(0);
+                    frameBuffer = ByteBuffer.allocate(readBuffer.capacity());
+                    return;
+                }
+                if (line != null && (indentifer = server.addUser(line.split("#"), this)) != null) {
+                    loggedIn = true;
+                    nikename = indentifer.nickname;
+                    server.broadcast(this, server.nowtime(server.now) + "  " + line + " 加入局域网.");
+                    reply().println("您登录成功.");
+                } else {
+                    reply().println(server.nowtime(server.now) + "  " + "您的请求被拒绝.");
+                    closeAfterFlush();
+                }
+                return;
+            }
+            String logMessage = server.nowtime(server.now) + "  " + remoteAddress + "#" + remotePort + ":   " + line;
+            server.displayArea.append(logMessage + "\n");
+            server.logToFile(logMessage);
+            if (line == null || line.equalsIgnoreCase("exit")) {
+                server.removeUser(indentifer);
+                indentifer = null;
+                server.broadcast(this, remoteAddress + "#" + nikename + "#" + remotePort + ":   " + "\n" + line + " 离开.");
+                closeAfterFlush();
+            } else if (!server.handleCommand(this, reply(), line, blockingWorker)) {
+                server.broadcast(this, nikename + "#" + remotePort + ":   " + line);
+            }
+        }
+
+        @Override
+        public void sendMessage(String msg) {
+            out.println(msg);
+        }
+
+        @Override
+        public String getNickname() {
+            return nikename;
+        }
+
+        @Override
+        public InetAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public OutboundQueue outbound() {
+            return outbound;
+        }
+
+        @Override
+        public void disconnect(String reason) {
+            loop.execute(() -> close(new IOException(reason)));
+        }
+
+        /**
+         * 发送队列入队回调：合并重复调度，只在所属事件循环中写出
+         */
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(() -> {
+                    flushScheduled.set(false);
+                    try {
+                        flush();
+                    } catch (IOException e) {
+                        close(e);
+                    }
+                });
+            }
+        }
+
+        /**
+         * 尽可能写出待发送数据，写不完时注册OP_WRITE等待下次可写
+         */
+        void flush() throws IOException {
+            if (closed || key == null) {
+                return;
+            }
+            while (true) {
+                if (pending == null) {
+                    OutboundMessage message = outbound.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    pending = ByteBuffer.wrap(message.bytes(outbound.isFramed()));
+                }
+                channel.write(pending);
+                if (pending.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pending = null;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closing) {
+                close(null);
+            }
+        }
+
+        /**
+         * 不再接收新消息，已排队的应答写完后关闭连接
+         */
+        private void closeAfterFlush() {
+            closing = true;
+            outbound.finish();
+            scheduleFlush();
+        }
+
+        void close(IOException cause) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            outbound.close();
+            if (cause != null) {
+                String ms = server.nowtime(server.now) + "  " + "连接线程错误: " + cause.getMessage() + "\n";
+                server.displayArea.append(ms);
+                server.logToFile(ms);
+            }
+            server.removeUser(indentifer);
+            indentifer = null;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 关闭失败不影响其他会话
+            }
+        }
+    }
+}
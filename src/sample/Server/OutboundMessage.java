@@ -0,0 +1,89 @@
+package sample.Server;
+
+import sample.AllNeed.ControlFrame;
+
+import java.nio.charset.Charset;
+
+/**
+ * 待发送消息（编码一次，多个客户端队列共享同一字节数组）
+ *
+ * <p>消息分两类：
+ * <ul>
+ *   <li><b>广播</b>：受慢消费者策略约束，可被丢弃或合并</li>
+ *   <li><b>单播</b>：对客户端指令的直接应答，不会被丢弃</li>
+ * </ul>
+ *
+ * <p>广播同时保留原文，分帧协议的客户端需要时才编码一次{@link ControlFrame#TEXT}帧并缓存共享；
+ * 单播由发送方按该客户端的协议编码，原样写出。
+ *
+ * @see OutboundQueue 客户端发送队列
+ * @see BroadcastFanout 广播扇出
+ * @since 2025.3.22
+ */
+public final class OutboundMessage {
+    static final Charset CHARSET = Charset.defaultCharset();
+    static final String LINE_END = System.lineSeparator();
+
+    private final byte[] bytes;
+    private final String text;
+    private final String coalesceKey;
+    private final boolean broadcast;
+    private volatile byte[] frame;
+
+    private OutboundMessage(byte[] bytes, String text, String coalesceKey, boolean broadcast) {
+        this.bytes = bytes;
+        this.text = text;
+        this.coalesceKey = coalesceKey;
+        this.broadcast = broadcast;
+    }
+
+    /**
+     * 创建广播消息（按行协议编码并追加换行符）
+     *
+     * @param text        消息内容
+     * @param coalesceKey 合并键，相同键的未发送旧消息在COALESCE策略下被新消息取代，可为null
+     * @return 已编码的广播消息
+     */
+    static OutboundMessage broadcast(String text, String coalesceKey) {
+        return new OutboundMessage((text + LINE_END).getBytes(CHARSET), text, coalesceKey, true);
+    }
+
+    /**
+     * 创建单播应答（已编码的原始字节）
+     */
+    static OutboundMessage unicast(byte[] bytes) {
+        return new OutboundMessage(bytes, null, null, false);
+    }
+
+    /**
+     * @return 行协议线路字节（调用方不得修改）
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * 按接收方协议取线路字节
+     *
+     * @param framed 接收方是否已协商分帧协议
+     * @return 线路字节（调用方不得修改）
+     */
+    byte[] bytes(boolean framed) {
+        if (!framed || !broadcast) {
+            return bytes;
+        }
+        byte[] result = frame;
+        if (result == null) {
+            frame = result = ControlFrame.encode(ControlFrame.TEXT, 0, text);
+        }
+        return result;
+    }
+
+    String coalesceKey() {
+        return coalesceKey;
+    }
+
+    boolean isBroadcast() {
+        return broadcast;
+    }
+}
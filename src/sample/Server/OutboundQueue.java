@@ -0,0 +1,255 @@
+package sample.Server;
+
+import sample.AllNeed.FrameWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 单个客户端的有界发送队列
+ *
+ * <p>所有写往客户端的数据（广播与单播应答）都先进入本队列，再由写线程
+ * （线程引擎为每连接的写线程，NIO引擎为所属事件循环）写出，发送方线程不再直接阻塞在socket上。
+ *
+ * <p>容量只约束广播消息，队列达到容量时按{@link Policy}处理：
+ * <table border="1">
+ *   <tr><th>策略</th><th>行为</th></tr>
+ *   <tr><td>DROP_OLDEST</td><td>丢弃队列中最旧的一条广播，再入队新消息</td></tr>
+ *   <tr><td>DISCONNECT</td><td>拒绝入队，由调用方断开该慢客户端</td></tr>
+ *   <tr><td>COALESCE</td><td>相同合并键的旧消息被新消息取代；无可合并项时退化为DROP_OLDEST</td></tr>
+ * </table>
+ *
+ * @see BroadcastFanout 广播扇出与全局计数
+ * @since 2025.3.22
+ */
+public final class OutboundQueue {
+    private final ArrayDeque<OutboundMessage> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final Policy policy;
+    private final Runnable onReady;
+    private long dropped;
+    private boolean finished;
+    private volatile boolean framed;
+
+    /**
+     * @param capacity 广播消息容量上限
+     * @param policy   慢消费者策略
+     * @param onReady  消息入队后的回调（NIO引擎用于调度写出），可为null
+     */
+    OutboundQueue(int capacity, Policy policy, Runnable onReady) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.onReady = onReady;
+    }
+
+    /**
+     * 入队一条消息
+     *
+     * @param message 待发送消息
+     * @return 入队结果
+     */
+    Offer offer(OutboundMessage message) {
+        Offer result;
+        synchronized (this) {
+            if (finished) {
+                return Offer.CLOSED;
+            }
+            result = Offer.ENQUEUED;
+            if (message.isBroadcast()) {
+                if (policy == Policy.COALESCE && message.coalesceKey() != null
+                        && removeFirst(message.coalesceKey())) {
+                    result = Offer.COALESCED;
+                } else if (queue.size() >= capacity) {
+                    if (policy == Policy.DISCONNECT) {
+                        // 只报告一次溢出，之后的投递视为连接已关闭
+                        finished = true;
+                        queue.clear();
+                        notifyAll();
+                        return Offer.REJECTED;
+                    }
+                    dropped++;
+                    if (!removeFirst(null)) {
+                        // 队列内全是单播应答，只能丢弃新广播
+                        return Offer.DROPPED;
+                    }
+                    result = Offer.DROPPED_OLDEST;
+                }
+            }
+            queue.addLast(message);
+            notifyAll();
+        }
+        if (onReady != null) {
+            onReady.run();
+        }
+        return result;
+    }
+
+    /**
+     * 移除第一条广播消息（key非null时只匹配相同合并键）
+     */
+    private boolean removeFirst(String key) {
+        Iterator<OutboundMessage> it = queue.iterator();
+        while (it.hasNext()) {
+            OutboundMessage m = it.next();
+            if (m.isBroadcast() && (key == null || key.equals(m.coalesceKey()))) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 非阻塞取出队首消息
+     *
+     * @return 队首消息，队列为空时返回null
+     */
+    synchronized OutboundMessage poll() {
+        return queue.pollFirst();
+    }
+
+    /**
+     * 阻塞取出队首消息（供线程引擎的写线程使用）
+     *
+     * @return 队首消息；队列已结束且清空时返回null
+     * @throws InterruptedException 等待被中断时抛出
+     */
+    synchronized OutboundMessage take() throws InterruptedException {
+        while (queue.isEmpty() && !finished) {
+            wait();
+        }
+        return queue.pollFirst();
+    }
+
+    /**
+     * 结束队列：不再接受新消息，已入队消息仍可取出
+     */
+    synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * 结束队列并丢弃全部未发送消息
+     */
+    synchronized void close() {
+        finished = true;
+        queue.clear();
+        notifyAll();
+    }
+
+    synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return 当前排队消息数
+     */
+    public synchronized int depth() {
+        return queue.size();
+    }
+
+    /**
+     * @return 累计丢弃的广播消息数
+     */
+    public synchronized long dropped() {
+        return dropped;
+    }
+
+    /**
+     * 以输出流形式写入单播应答，每次flush入队一条消息
+     *
+     * <p>配合{@code new PrintWriter(..., true)}使用时每次println即入队一条完整应答，
+     * 既有面向PrintWriter的应答代码无需修改。
+     *
+     * @return 绑定到本队列的输出流
+     */
+    OutputStream asOutputStream() {
+        return new ByteArrayOutputStream(256) {
+            @Override
+            public synchronized void flush() {
+                if (count > 0) {
+                    offer(OutboundMessage.unicast(toByteArray()));
+                    reset();
+                }
+            }
+
+            @Override
+            public void close() {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * 创建分帧协议的应答输出，每次println入队一个帧
+     *
+     * @param requestId 应答对应的请求ID（主动推送为0）
+     * @return 绑定到本队列的分帧输出
+     */
+    FrameWriter frameWriter(int requestId) {
+        return new FrameWriter(bytes -> offer(OutboundMessage.unicast(bytes)), requestId);
+    }
+
+    /**
+     * 标记该客户端已切换为分帧协议，之后写出的广播使用帧编码
+     */
+    void setFramed() {
+        framed = true;
+    }
+
+    boolean isFramed() {
+        return framed;
+    }
+
+    /**
+     * 慢消费者处理策略
+     */
+    public enum Policy {
+        DROP_OLDEST, DISCONNECT, COALESCE;
+
+        /**
+         * 解析配置值（大小写不敏感，无法识别时返回DROP_OLDEST）
+         */
+        static Policy parse(String value) {
+            for (Policy p : values()) {
+                if (p.name().equalsIgnoreCase(value)) {
+                    return p;
+                }
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    /**
+     * 入队结果
+     */
+    enum Offer {
+        /**
+         * 正常入队
+         */
+        ENQUEUED,
+        /**
+         * 已入队，并丢弃了一条旧广播
+         */
+        DROPPED_OLDEST,
+        /**
+         * 已入队，并取代了一条相同合并键的旧消息
+         */
+        COALESCED,
+        /**
+         * 新消息被丢弃
+         */
+        DROPPED,
+        /**
+         * DISCONNECT策略下溢出（队列随即结束），调用方应断开该客户端
+         */
+        REJECTED,
+        /**
+         * 队列已结束（连接正在关闭）
+         */
+        CLOSED
+    }
+}
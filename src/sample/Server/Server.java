@@ -1,19 +1,34 @@
 package sample.Server;
 
 
-import com.google.gson.Gson;
+import sample.AllNeed.AsyncLogWriter;
+import sample.AllNeed.BinaryManifest;
+import sample.AllNeed.CachedClock;
+import sample.AllNeed.ControlFrame;
+import sample.AllNeed.FileInfo;
 import sample.AllNeed.FileListManager;
+import sample.AllNeed.FileListSnapshot;
+import sample.AllNeed.FrameWriter;
 
 import javax.swing.*;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.Executor;
 
 /**
  * 多线程网络服务器核心类（版本1.3.0）
@@ -32,7 +47,9 @@ import java.util.HashMap;
  * <ul>
  *   <li><b>双端口架构</b>：消息端口({@value #SERVER_PORT})与文件端口({@value #FILE_PORT})分离</li>
  *   <li><b>中文时区支持</b>：所有时间记录采用Asia/Shanghai时区</li>
- *   <li><b>日志分级</b>：运行日志存储在{@value #LOG_FILE}路径</li>
+ *   <li><b>日志分级</b>：运行日志存储在{@value #LOG_FILE}路径，由{@link AsyncLogWriter}异步批量写入并按大小滚动</li>
+ *   <li><b>可选连接引擎</b>：启动参数{@code -D}{@value #ENGINE_PROPERTY}{@code =nio}切换为{@link NioControlServer}，
+ *   默认{@code thread}为每连接一线程的{@link CreateServerThread}</li>
  * </ul>
  *
  * @see IpAddressFetcher 依赖的IP地址探测模块
@@ -50,18 +67,63 @@ public class Server {
      */
     public static final int FILE_PORT = 8081;
     public static final String Welcome_Word = "欢迎加入, 请输入你的用户名#端口号";
+    /**
+     * 控制通道引擎选择参数（取值：thread / nio）
+     */
+    public static final String ENGINE_PROPERTY = "p2p.server.engine";
+    static final String HELP_TEXT = "|简短指令|解释说明|\n" +
+            "|ls  |list online 列出在线成员|\n " +
+            "|cls |clean 清空屏幕|" +
+            "|exit  |exit 退出连接|\n " +
+            "|fl    |fileList  列出服务器存在文件|\n " +
+            "|fl roots |fileList 只列出文件Merkle根|\n " +
+            "|fl bin |fileList 二进制清单（仅分帧协议）|\n " +
+            "|fl <版本> |fileList 列表未变化时只回复未变化，否则发送增量|\n " +
+            "|share  |to share file all users组播分享文件|\n " +
+            "|upload  |upload file to server上传文件到服务器|\n" +
+            "|stats  |broadcast queue stats 广播队列统计|\n" +
+            "|web服务 输入服务器ip：8082端口即可访问web端上传下载文件|\n";
     private static final String LOG_DIR = "logs";
     private static final String LOG_FILE = "logs/server.log";
+    /**
+     * 日志滚动参数：单文件字节上限 / 保留的历史文件数
+     */
+    static final String LOG_MAX_BYTES_PROPERTY = "p2p.log.maxBytes";
+    static final String LOG_BACKUPS_PROPERTY = "p2p.log.backups";
+    /**
+     * 日志时间戳（秒级缓存，避免每条日志重新创建格式化器）
+     */
+    private static final CachedClock CLOCK = new CachedClock("yyyy年MM月dd日 HH时mm分ss秒", ZoneId.of("Asia/Shanghai"));
     public static String IP = "IP";
     public static String PORT = "PORT";
     public static String NICKNAME = "NAME";
-    private final ArrayList<HashMap<String, String>> User_List = new ArrayList<>();
+    /**
+     * 在线用户注册表（替代原ArrayList在线列表与userThreads线程列表）
+     */
+    final UserRegistry registry = new UserRegistry();
+    /**
+     * 广播扇出（每客户端有界发送队列）
+     */
+    final BroadcastFanout fanout = new BroadcastFanout(registry);
+    /**
+     * 在线列表增量推送（subscribeUsers订阅）
+     */
+    final UserListPublisher userListPublisher = new UserListPublisher(registry, fanout);
+    /**
+     * 上传元数据与数据连接的关联及分块校验
+     */
+    final UploadTracker uploadTracker = new UploadTracker();
     public ServerSocket ss;
-    public ArrayList<CreateServerThread> userThreads = new ArrayList<>();
     public JTextArea displayArea;
     Instant now;
     FileListManager fileListManager = new FileListManager();
-    private HashMap<String, String> indentifer;
+    /**
+     * 可续传上传会话（文件端口会话协议）
+     */
+    final UploadSessions uploadSessions = new UploadSessions(uploadTracker, fileListManager);
+    private NioControlServer nioServer;
+    private final AsyncLogWriter logWriter = AsyncLogWriter.sizeRotating(Paths.get(LOG_FILE),
+            Long.getLong(LOG_MAX_BYTES_PROPERTY, 10L * 1024 * 1024), Integer.getInteger(LOG_BACKUPS_PROPERTY, 5));
 
     /**
      * 服务器构造器（容错增强版）
@@ -71,13 +133,17 @@ public class Server {
      * @implSpec 初始化流程：
      * <ol>
      *   <li>创建日志目录（路径：{@value #LOG_DIR}）</li>
-     *   <li>绑定消息服务端口（{@value #SERVER_PORT}）</li>
+     *   <li>绑定消息服务端口（{@value #SERVER_PORT}），按{@value #ENGINE_PROPERTY}选择连接引擎</li>
      *   <li>显示网络配置信息（调用{@link IpAddressFetcher#IpAddress(JTextArea)}）</li>
      *   <li>启动文件传输服务（异步线程）</li>
      * </ol>
      */
     public Server(JTextArea displayArea) {
         this.displayArea = displayArea;
+        logWriter.setErrorHandler(e -> {
+            e.printStackTrace();
+            displayArea.append(nowtime(now) + "  日志写入失败: " + e.getMessage() + "\n");
+        });
         File logDir = new File(LOG_DIR);
         if (!logDir.exists()) {
             boolean created = logDir.mkdirs();
@@ -86,19 +152,36 @@ public class Server {
             }
         }
         try {
-            ss = new ServerSocket(SERVER_PORT);
+            boolean nio = "nio".equalsIgnoreCase(System.getProperty(ENGINE_PROPERTY, "thread"));
+            ServerSocketChannel acceptor = null;
+            if (nio) {
+                acceptor = ServerSocketChannel.open();
+                acceptor.bind(new InetSocketAddress(SERVER_PORT));
+                ss = acceptor.socket();
+            } else {
+                ss = new ServerSocket(SERVER_PORT);
+            }
             //启动日志
-            String logMessage = nowtime(now) + "  服务器ip：" + ss.getLocalSocketAddress() + "  服务开启端口：" + SERVER_PORT + "\n";
+            String logMessage = nowtime(now) + "  服务器ip：" + ss.getLocalSocketAddress() + "  服务开启端口：" + SERVER_PORT
+                    + "  连接引擎：" + (nio ? "nio" : "thread") + "\n";
             displayArea.append(logMessage);
             logToFile(logMessage);
             //输出服务器ip地址
             IpAddressFetcher.IpAddress(displayArea);
-            new Thread(this::acceptConnections).start();
+            if (nio) {
+                nioServer = new NioControlServer(this, acceptor);
+                nioServer.start();
+            } else {
+                new Thread(this::acceptConnections).start();
+            }
         } catch (Exception e) {
             e.printStackTrace();
             displayArea.append(nowtime(now) + "  " + "服务开启错误: " + e.getMessage() + "\n");
         }
         startFileServer();
+        if (fileListManager.startWatching()) {
+            displayArea.append(nowtime(now) + "  文件目录后台索引已启动\n");
+        }
     }
 
     /**
@@ -107,17 +190,18 @@ public class Server {
      * @apiNote 技术特性：
      * <ul>
      *   <li>独立线程运行于端口{@value #FILE_PORT}</li>
-     *   <li>采用10MB缓冲区提升传输效率</li>
+     *   <li>NIO通道接收，数据块由socket直接写入文件，内存占用与块大小无关</li>
      *   <li>支持文件名UTF-8编码传输</li>
      *   <li>自动创建文件存储目录（路径："file"）</li>
      * </ul>
      */
-    public static void startFileServer() {
+    public void startFileServer() {
         new Thread(() -> {
-            try (ServerSocket fileServer = new ServerSocket(FILE_PORT)) {
+            try (ServerSocketChannel fileServer = ServerSocketChannel.open()) {
+                fileServer.bind(new InetSocketAddress(FILE_PORT));
                 while (true) {
-                    Socket dataSocket = fileServer.accept();
-                    new FileTransferHandler(dataSocket).start();
+                    SocketChannel dataChannel = fileServer.accept();
+                    new FileTransferHandler(dataChannel, uploadTracker, uploadSessions, fileListManager).start();
                 }
             } catch (IOException e) {
                 e.printStackTrace();
@@ -126,23 +210,17 @@ public class Server {
     }
 
     /**
-     * 中国时区时间生成器（毫秒级精度）
+     * 中国时区时间生成器（秒级精度）
      *
-     * @param now 时间基准点（可空）
+     * @param now 时间基准点（忽略，始终取当前时间；保留参数以兼容既有调用）
      * @return 格式化的时间字符串（示例：2025年03月22日 11时43分00秒）
-     * @implNote 内部实现：
+     * @implNote 内部实现：{@link CachedClock}同一秒内返回缓存字符串，格式为
      * <pre>{@code
-     * DateTimeFormatter.ofPattern("yyyy 年MM月dd日 HH时mm分ss秒")
-     *                  .withZone(ZoneId.of("Asia/Shanghai"))
+     * "yyyy年MM月dd日 HH时mm分ss秒"  (Asia/Shanghai)
      * }</pre>
      */
     public String nowtime(Instant now) {
-        now = Instant.now();
-        // 将 Instant 转换为 ZonedDateTime 并设置为中国时区 (Asia/Shanghai)
-        ZonedDateTime zonedNowInChina = now.atZone(ZoneId.of("Asia/Shanghai"));
-        // 创建一个带有中文日期格式的格式化器
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy年MM月dd日 HH时mm分ss秒").withZone(ZoneId.of("Asia/Shanghai"));
-        return zonedNowInChina.format(formatter);
+        return CLOCK.now();
     }
 
     /**
@@ -152,7 +230,7 @@ public class Server {
      * <ul>
      *   <li>循环接受TCP连接请求</li>
      *   <li>为每个连接创建独立线程（{@link CreateServerThread}）</li>
-     *   <li>维护活跃线程列表（{@link #userThreads}）</li>
+     *   <li>登录成功的连接登记到在线注册表（{@link #registry}）</li>
      * </ul>
      * @warning 需在专用线程调用，避免阻塞主线程
      */
@@ -160,8 +238,7 @@ public class Server {
         while (true) {
             try {
                 Socket socket = ss.accept();
-                CreateServerThread thread = new CreateServerThread(socket, this);
-                userThreads.add(thread);
+                new CreateServerThread(socket, this);
             } catch (IOException e) {
                 e.printStackTrace();
                 displayArea.append(nowtime(now) + "  " + "客户端连接错误: " + e.getMessage() + "\n");
@@ -169,27 +246,130 @@ public class Server {
         }
     }
 
-    private synchronized void logToFile(String message) {
-        try (FileWriter fw = new FileWriter(LOG_FILE, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.println(message);
-        } catch (IOException e) {
-            e.printStackTrace();
-            displayArea.append(nowtime(now) + "  日志写入失败: " + e.getMessage() + "\n");
-        }
+    /**
+     * 追加一行运行日志（异步写入{@value #LOG_FILE}，调用方不阻塞）
+     *
+     * @param message 日志内容（自动追加换行符）
+     */
+    void logToFile(String message) {
+        logWriter.append(message + System.lineSeparator());
     }
 
     public void broadcastToClients(String message) {
-        for (CreateServerThread thread : userThreads) {
-            thread.sendMessage(message);
+        fanout.broadcast(message, null, null);
+    }
+
+    /**
+     * 向除发送者以外的所有会话广播消息并写入日志
+     *
+     * @param from 发送者会话（不会收到自身消息）
+     * @param msg  消息内容
+     */
+    void broadcast(ClientSession from, String msg) {
+        fanout.broadcast(msg, null, from);
+        String logMessage = nowtime(now) + "  [广播消息] " + msg;
+        logToFile(logMessage);
+    }
+
+    /**
+     * 登记在线用户（两个引擎共用）
+     *
+     * @param infor   按"#"拆分的登录信息：昵称、IP、端口
+     * @param session 登录的控制通道会话
+     * @return 登记成功返回在线用户，昵称或地址已占用、格式错误时返回null
+     */
+    UserRegistry.OnlineUser addUser(String[] infor, ClientSession session) {
+        if (infor.length < 3) {
+            return null;
         }
+        UserRegistry.OnlineUser indentifer = registry.register(infor[0], infor[1], infor[2], session);
+        if (indentifer == null) {
+            return null;
+        }
+        String logMessage = nowtime(now) + "  " + infor[0] + "  " + infor[1] + "  " + infor[2] + "连接成功\n";
+        displayArea.append(logMessage);
+        logToFile(logMessage);
+        return indentifer;
     }
 
-    private void sendOnlineUsers(PrintWriter out) {
-        // 转换为JSON字符串
-        Gson gson = new Gson();
-        String jsonData = gson.toJson(User_List);
+    void removeUser(UserRegistry.OnlineUser indentifer) {
+        if (indentifer != null) {
+            userListPublisher.unsubscribe(indentifer.getSession());
+            uploadTracker.forget(indentifer.getSession());
+        }
+        if (registry.unregister(indentifer)) {
+            String logMessage = nowtime(now) + "  " + indentifer.nickname + "  " + indentifer.ip + "  " + indentifer.port + "  已掉线\n";
+            displayArea.append(logMessage);
+            logToFile(logMessage);
+        }
+    }
+
+    String listAllUsers() {
+        StringBuilder s = new StringBuilder("-- 在线列表 --\n");
+        for (UserRegistry.OnlineUser user : registry.snapshot().users) {
+            s.append(user.nickname).append("  ")
+                    .append(user.ip).append("  ")
+                    .append(user.port).append("\n");
+        }
+        s.append("-----------------\n");
+        return s.toString();
+    }
+
+    /**
+     * 控制指令分发（两个引擎共用）
+     *
+     * @param session  发出指令的会话
+     * @param out      该会话的应答输出（写入其发送队列）
+     * @param line     指令文本
+     * @param blocking 执行磁盘扫描等阻塞操作的执行器
+     * @return 是已知指令返回true；否则返回false，由调用方作为聊天消息广播
+     */
+    boolean handleCommand(ClientSession session, PrintWriter out, String line, Executor blocking) {
+        if (line.equals("ls")) {//输出用户在线列表
+            String users = listAllUsers();
+            out.println(users);
+            displayArea.append(users);
+        } else if (line.equals("updateOnlineUsers")) {//输出用户在线列表json版本
+            sendOnlineUsers(out);
+        } else if (line.equals(UserListPublisher.SUBSCRIBE)) {//订阅在线列表：快照 + 增量推送
+            userListPublisher.subscribe(session, out);
+        } else if (line.equals("filelist") || line.matches("fl( roots)?( bin)?( \\d+)?")) {
+            blocking.execute(() -> {
+                try {
+                    // 末尾的数字为客户端已有的列表版本
+                    String last = line.substring(line.lastIndexOf(' ') + 1);
+                    long since = last.matches("\\d+") ? Long.parseLong(last) : FileListSnapshot.UNVERSIONED;
+                    fileListManager.updateAndSendFileList(out, line.contains(" roots"),
+                            line.contains(" " + BinaryManifest.TOKEN), since);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    out.println("文件列表获取失败: " + e.getMessage());
+                }
+            });
+        } else if (line.equals("help")) {
+            out.println(HELP_TEXT);
+        } else if (line.equals("share")) {
+            // 连续的分享通知只需送达最新一条
+            fanout.broadcast("share", "share", null);
+        } else if (line.equals("stats")) {
+            out.println(fanout.describe());
+        } else if (line.startsWith(UploadTracker.META + "#")) {//上传元数据：整体信息
+            uploadTracker.onMeta(session, session.getRemoteAddress().getHostAddress(), line.split("#"));
+        } else if (line.startsWith(UploadTracker.CHUNK + "#")) {//上传元数据：块哈希
+            uploadTracker.onChunk(session, line.split("#"));
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    void sendOnlineUsers(PrintWriter out) {
+        // 转换为JSON字符串（快照按版本缓存，在线列表未变化时不重复序列化）
+        String jsonData = registry.snapshot().toJson();
+        if (out instanceof FrameWriter) {
+            ((FrameWriter) out).sendFrame(ControlFrame.USER_LIST, jsonData);
+            return;
+        }
 
         // 发送协议格式：消息类型 + 数据长度 + 数据内容
         out.println("USER_LIST");     // 消息类型标识
@@ -212,56 +392,138 @@ public class Server {
      * </pre>
      */
     static class FileTransferHandler extends Thread {
-        private final Socket dataSocket;
-
-        public FileTransferHandler(Socket socket) {
-            this.dataSocket = socket;
+        /**
+         * 文件名长度上限（字节），防止按对端声明的长度分配内存
+         */
+        private static final int MAX_FILENAME = 4096;
+        private final SocketChannel dataChannel;
+        private final UploadTracker tracker;
+        private final UploadSessions sessions;
+        private final FileListManager fileListManager;
+        /**
+         * 4字节长度头缓冲（直接内存，整个连接复用）
+         */
+        private final ByteBuffer header = ByteBuffer.allocateDirect(4);
+
+        FileTransferHandler(SocketChannel channel, UploadTracker tracker, UploadSessions sessions,
+                            FileListManager fileListManager) {
+            this.dataChannel = channel;
+            this.tracker = tracker;
+            this.sessions = sessions;
+            this.fileListManager = fileListManager;
         }
 
+        /**
+         * 首个int为{@link UploadSessions#MAGIC}时按可续传会话协议处理，否则为旧协议，接收流程：
+         * <ol>
+         *   <li>读取文件名长度与文件名</li>
+         *   <li>逐块读取4字节块大小，块数据经{@link FileChannel#transferFrom}由socket直接写入文件</li>
+         *   <li>每块落盘后提交{@link UploadTracker}并行校验，继续接收下一块</li>
+         *   <li>读到非正块大小或连接在块边界关闭时结束，等待校验结果后登记到文件列表</li>
+         * </ol>
+         */
         @Override
         public void run() {
-            try (DataInputStream in = new DataInputStream(dataSocket.getInputStream());
-                 DataOutputStream dos = new DataOutputStream(dataSocket.getOutputStream())) {
-
+            Path filePath = null;
+            UploadTracker.Upload upload = null;
+            try (SocketChannel channel = dataChannel) {
+                int fileNameLength = readInt();
+                if (fileNameLength == UploadSessions.MAGIC) {
+                    sessions.serve(channel);
+                    return;
+                }
                 // 读取文件名长度和文件名
-                int fileNameLength = in.readInt();
-                byte[] fileNameBytes = new byte[fileNameLength];
-                in.readFully(fileNameBytes);
-                String fileName = new String(fileNameBytes, java.nio.charset.StandardCharsets.UTF_8);
-
-                // 创建文件保存路径
-                java.nio.file.Path directory = java.nio.file.Paths.get("file");
-                if (!java.nio.file.Files.exists(directory)) {
-                    java.nio.file.Files.createDirectories(directory);
+                if (fileNameLength <= 0 || fileNameLength > MAX_FILENAME) {
+                    throw new ProtocolException("文件名长度非法: " + fileNameLength);
                 }
-                java.nio.file.Path filePath = directory.resolve(fileName);
-
-                try (java.io.OutputStream fos = java.nio.file.Files.newOutputStream(filePath)) {
-                    byte[] buffer = new byte[10 * 1024 * 1024]; // 10MB缓冲区，与发送端一致
-
-                    while (true) {
-                        int chunkSize;
-                        try {
-                            chunkSize = in.readInt(); // 读取块大小
-                        } catch (java.io.EOFException e) {
-                            break; // 数据读取完毕
+                ByteBuffer fileNameBytes = ByteBuffer.allocate(fileNameLength);
+                readFully(fileNameBytes);
+                String fileName = new String(fileNameBytes.array(), StandardCharsets.UTF_8);
+
+                // 创建文件保存路径（只取文件名部分，忽略路径）
+                Path directory = Paths.get("file");
+                if (!Files.exists(directory)) {
+                    Files.createDirectories(directory);
+                }
+                fileName = Paths.get(fileName).getFileName().toString();
+                filePath = directory.resolve(fileName);
+                upload = tracker.open(((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress(),
+                        fileName, channel);
+
+                FileInfo verified;
+                try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long position = 0;
+                    int chunkIndex = 0;
+                    try {
+                        while (true) {
+                            int chunkSize;
+                            try {
+                                chunkSize = readInt(); // 读取块大小
+                            } catch (EOFException e) {
+                                break; // 数据读取完毕
+                            }
+
+                            if (chunkSize <= 0) break;
+
+                            // 块数据由socket直接写入文件
+                            long chunkStart = position;
+                            long remaining = chunkSize;
+                            while (remaining > 0) {
+                                long n = file.transferFrom(channel, position, remaining);
+                                if (n <= 0) {
+                                    // 阻塞通道返回0表示对端已关闭
+                                    throw new EOFException("数据块不完整，缺少" + remaining + "字节");
+                                }
+                                position += n;
+                                remaining -= n;
+                            }
+                            // 校验在线程池中进行，同时继续接收下一块
+                            upload.verify(file, chunkIndex++, chunkStart, chunkSize);
                         }
-
-                        if (chunkSize <= 0) break;
-
-                        // 读取块数据并写入文件
-                        in.readFully(buffer, 0, chunkSize);
-                        fos.write(buffer, 0, chunkSize);
+                        verified = upload.finish(file, position);
+                    } finally {
+                        upload.drain(); // 关闭文件前等待仍在读取的校验
                     }
-                    fos.flush();
                     System.out.println("文件接收完成: " + filePath);
                 }
-                dataSocket.close();
+                if (verified != null) {
+                    // 已逐块验证的哈希直接进入文件列表，无需重新计算
+                    fileListManager.registerVerified(verified, filePath);
+                }
             } catch (Exception e) {
                 System.out.println("文件传输错误: " + e.getMessage());
+                if (upload != null) {
+                    upload.close();
+                    if (upload.isRejected()) {
+                        System.out.println("上传被拒绝: " + upload.getRejection());
+                        deletePartial(filePath);
+                    }
+                }
             }
         }
 
+        private void deletePartial(Path filePath) {
+            try {
+                Files.deleteIfExists(filePath);
+            } catch (IOException e) {
+                System.out.println("删除未通过校验的文件失败: " + e.getMessage());
+            }
+        }
+
+        private int readInt() throws IOException {
+            header.clear();
+            readFully(header);
+            return header.getInt(0);
+        }
+
+        private void readFully(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                if (dataChannel.read(buf) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
     }
 
     /**
@@ -272,18 +534,29 @@ public class Server {
      *   <tr><th>命令</th><th>功能</th><th>响应格式</th></tr>
      *   <tr><td>ls</td><td>列在线用户</td><td>文本表格</td></tr>
      *   <tr><td>filelist</td><td>获取文件列表</td><td>JSON数组</td></tr>
+     *   <tr><td>subscribeUsers</td><td>订阅在线列表</td><td>版本快照 + USER_DELTA增量推送</td></tr>
      *   <tr><td>share</td><td>文件分享通知</td><td>系统广播</td></tr>
      *   <tr><td>web</td><td>Web服务指引</td><td>HTTP链接</td></tr>
      * </table>
      *
+     * <p>欢迎语之后客户端可发送{@value ControlFrame#NEGOTIATE}切换为{@link ControlFrame}二进制分帧协议，
+     * 此后指令与应答均为定长帧，应答携带所答指令的请求ID。
+     *
+     * <p>读取在本线程完成；所有应答与广播写入{@link OutboundQueue}，由配套的写线程写出，
+     * 向其他客户端广播时不会因对方卡顿而阻塞。
+     *
      * @see FileListManager#updateAndSendFileList(PrintWriter) 文件列表查询实现
      */
-    public class CreateServerThread extends Thread {
+    public class CreateServerThread extends Thread implements ClientSession {
         private final Socket client;
         private final Server parent;
         private BufferedReader in;
+        private DataInputStream frameIn;
+        private int requestId;
         private String nikename;
-        private PrintWriter out;
+        private final OutboundQueue outbound = fanout.newQueue(null);
+        private volatile PrintWriter out = new PrintWriter(outbound.asOutputStream(), true);
+        private UserRegistry.OnlineUser indentifer;
 
         public CreateServerThread(Socket s, Server parent) {
             this.client = s;
@@ -294,59 +567,115 @@ public class Server {
         @Override
         public void run() {
             try {
-                in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-                out = new PrintWriter(client.getOutputStream(), true);
+                InputStream input = new BufferedInputStream(client.getInputStream());
+                startWriter();
                 out.println(Welcome_Word);
-                String line;
-                line = in.readLine();
+                // 握手行逐字节读取，协商分帧后剩余数据按帧解析
+                String line = ControlFrame.readLine(input, OutboundMessage.CHARSET);
+                if (ControlFrame.NEGOTIATE.equals(line)) {
+                    out.println(ControlFrame.ACCEPTED);
+                    outbound.setFramed();
+                    out = outbound.frameWriter(0);
+                    frameIn = new DataInputStream(input);
+                    line = nextLine();
+                } else {
+                    in = new BufferedReader(new InputStreamReader(input));
+                }
                 if (line != null && addToList(line.split("#"))) {
                     broadcast(nowtime(now) + "  " + line + " 加入局域网.");
-                    out.println("您登录成功.");
+                    reply().println("您登录成功.");
                 } else {
-                    out.println(nowtime(now) + "  " + "您的请求被拒绝.");
-                    client.close();
+                    reply().println(nowtime(now) + "  " + "您的请求被拒绝.");
+                    outbound.finish();
                     return;
                 }
 
                 while (true) {
-                    line = in.readLine();
+                    line = nextLine();
                     String logMessage = nowtime(now) + "  " + client.getInetAddress() + "#" + client.getPort() + ":   " + line;
                     displayArea.append(logMessage + "\n");
                     logToFile(logMessage);
                     if (line == null || line.equalsIgnoreCase("exit")) {
                         break;
-                    } else if (line.equals("ls")) {//输出用户在线列表
-                        out.println(listAllUsers());
-                        displayArea.append(listAllUsers());
-                    } else if (line.equals("updateOnlineUsers")) {//输出用户在线列表json版本
-                        sendOnlineUsers(out);
-                    } else if (line.equals("filelist") || line.equals("fl")) {
-                        fileListManager.updateAndSendFileList(out);
-                    } else if (line.equals("help")) {
-                        out.println("|简短指令|解释说明|\n" +
-                                "|ls  |list online 列出在线成员|\n " +
-                                "|cls |clean 清空屏幕|" +
-                                "|exit  |exit 退出连接|\n " +
-                                "|fl    |fileList  列出服务器存在文件|\n " +
-                                "|share  |to share file all users组播分享文件|\n " +
-                                "|upload  |upload file to server上传文件到服务器|\n" +
-                                "|web服务 输入服务器ip：8082端口即可访问web端上传下载文件|\n");
-                    } else if (line.equals("share")) {
-                        broadcastToClients("share");
-                    } else {
+                    } else if (!handleCommand(this, reply(), line, Runnable::run)) {
                         broadcast(this.nikename + "#" + client.getPort() + ":   " + line);
                     }
                     sleep(10);
                 }
                 removeFromList();
                 broadcast(client.getInetAddress() + "#" + this.nikename + "#" + client.getPort() + ":   " + "\n" + line + " 离开.");
-                client.close();
+                outbound.finish();
             } catch (Exception e) {
                 e.printStackTrace();
                 String ms = nowtime(now) + "  " + "连接线程错误: " + e.getMessage() + "\n";
                 displayArea.append(ms);
                 logToFile(ms);
                 removeFromList();
+                outbound.close();
+                closeSocket();
+            }
+        }
+
+        /**
+         * 读取下一条指令：行协议读一行；分帧协议读一个TEXT帧并记录其请求ID
+         *
+         * @return 指令文本，连接关闭时返回null
+         */
+        private String nextLine() throws IOException {
+            if (frameIn == null) {
+                return in.readLine();
+            }
+            ControlFrame frame;
+            do {
+                frame = ControlFrame.read(frameIn);
+                if (frame == null) {
+                    return null;
+                }
+            } while (frame.type != ControlFrame.TEXT);
+            requestId = frame.requestId;
+            return frame.payload;
+        }
+
+        /**
+         * @return 当前指令的应答输出（分帧协议下携带该指令的请求ID）
+         */
+        private PrintWriter reply() {
+            return frameIn == null ? out : outbound.frameWriter(requestId);
+        }
+
+        /**
+         * 启动本连接的写线程：阻塞等待发送队列，批量写出后在队列空闲时flush
+         *
+         * @throws IOException 获取socket输出流失败时抛出
+         * @implNote 队列结束并清空后由写线程关闭socket，保证拒绝/退出提示能送达
+         */
+        private void startWriter() throws IOException {
+            OutputStream socketOut = new BufferedOutputStream(client.getOutputStream());
+            Thread writer = new Thread(() -> {
+                try {
+                    OutboundMessage message;
+                    while ((message = outbound.take()) != null) {
+                        socketOut.write(message.bytes(outbound.isFramed()));
+                        if (outbound.depth() == 0) {
+                            socketOut.flush();
+                        }
+                    }
+                    socketOut.flush();
+                } catch (IOException | InterruptedException e) {
+                    outbound.close();
+                } finally {
+                    closeSocket();
+                }
+            }, getName() + "-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        private void closeSocket() {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // 连接已失效
             }
         }
 
@@ -362,56 +691,54 @@ public class Server {
          * </ul>
          */
         public void broadcast(String msg) {
-            for (int i = 0; i < userThreads.size(); i++) {
-                if (userThreads.get(i) != this) {
-                    userThreads.get(i).sendMessage(msg);
-                }
-            }
-            String logMessage = nowtime(now) + "  [广播消息] " + msg;
-            logToFile(logMessage);
+            parent.broadcast(this, msg);
         }
 
         public boolean addToList(String[] infor) {
-            indentifer = new HashMap<>();
-            indentifer.put(NICKNAME, infor[0]);
-            indentifer.put(IP, infor[1]);
-            indentifer.put(PORT, infor[2]);
-            if (User_List.contains(indentifer)) {
+            indentifer = addUser(infor, this);
+            if (indentifer == null) {
                 return false;
-            } else {
-                User_List.add(indentifer);
-                this.nikename = infor[0];
-                String logMessage = nowtime(now) + "  " + infor[0] + "  " + infor[1] + "  " + infor[2] + "连接成功\n";
-                displayArea.append(logMessage);
-                logToFile(logMessage);
-                return true;
             }
+            this.nikename = infor[0];
+            return true;
         }
 
         public void removeFromList() {
-            if (indentifer != null) {
-                String logMessage = nowtime(now) + "  " + indentifer.get(NICKNAME) + "  " + indentifer.get(IP) + "  " + indentifer.get(PORT) + "  已掉线\n";
-                displayArea.append(logMessage);
-                logToFile(logMessage);
-                User_List.remove(indentifer);
-            }
+            removeUser(indentifer);
+            indentifer = null;
         }
 
         public String listAllUsers() {
-            String s = "-- 在线列表 --\n";
-            HashMap<String, String> infor_map;
-            for (int i = 0; i < User_List.size(); i++) {
-                infor_map = User_List.get(i);
-                s += infor_map.get(NICKNAME) + "  ";
-                s += infor_map.get(IP) + "  ";
-                s += infor_map.get(PORT) + "\n";
-            }
-            s += "-----------------\n";
-            return s;
+            return parent.listAllUsers();
         }
 
-        private void sendMessage(String msg) {
+        @Override
+        public void sendMessage(String msg) {
             out.println(msg);
         }
+
+        @Override
+        public String getNickname() {
+            return nikename;
+        }
+
+        @Override
+        public InetAddress getRemoteAddress() {
+            return client.getInetAddress();
+        }
+
+        @Override
+        public OutboundQueue outbound() {
+            return outbound;
+        }
+
+        @Override
+        public void disconnect(String reason) {
+            String ms = nowtime(now) + "  " + nikename + "  已断开: " + reason + "\n";
+            displayArea.append(ms);
+            logToFile(ms);
+            outbound.close();
+            closeSocket();
+        }
     }
 }
\ No newline at end of file
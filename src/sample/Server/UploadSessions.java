@@ -0,0 +1,528 @@
+package sample.Server;
+
+import sample.AllNeed.FileHasher;
+import sample.AllNeed.FileInfo;
+import sample.AllNeed.FileListManager;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可续传的上传会话（文件端口{@value Server#FILE_PORT}上的会话协议）
+ *
+ * <p>连接首个int为{@link #MAGIC}（负数，与旧协议的文件名长度区分）时进入本协议，所有整数为大端序：
+ * <pre>
+ * 客户端 OPEN : MAGIC | 文件名长度(4B) | 文件名(UTF-8) | 文件大小(8B) | 块大小(4B) | 整体SHA-256(32B)
+ * 服务器 应答 : 状态(4B) | 总块数(4B) | 位图字节数(4B) | 缺失块位图（第i位为1表示第i块缺失）
+ *              状态非0时为：状态(4B) | 原因长度(4B) | 原因(UTF-8)
+ * 客户端 块   : 块序号(4B) | 块长度(4B) | 块SHA-256(32B) | 块数据
+ * 服务器 确认 : 块序号(4B) | ACK/NACK(1B)          （校验完成后异步发送，顺序不保证）
+ * 客户端 结束 : -1(4B)
+ * 服务器 结果 : -1(4B) | COMPLETE/INCOMPLETE/FAILED(1B)
+ * </pre>
+ *
+ * <p>断点状态持久化在{@value #STAGING_DIR}目录，以整体哈希命名：
+ * <ul>
+ *   <li>{@code <hash>.part}：按块偏移写入的数据</li>
+ *   <li>{@code <hash>.state}：文件头 + 每块一条记录（已验证标志 + 块哈希），块验证后原位更新</li>
+ * </ul>
+ * 连接中断后客户端重新OPEN，服务器按状态文件回复缺失位图，客户端只补传缺失的块。
+ * 全部块验证后再做一遍整体哈希，通过后移入{@code file}目录并以已验证的块哈希登记到文件列表。
+ *
+ * <p>同一文件（整体哈希相同）的多条连接共享一个会话：客户端多路并行上传时各连接发送不同的块，
+ * 暂存文件在OPEN时预分配到完整大小，各块按偏移直接写入；每条连接结束时各自等待本连接的校验结果，
+ * 最后完成的连接看到全部块已验证并收到COMPLETE，其余连接收到INCOMPLETE。
+ *
+ * @see Server.FileTransferHandler 协议分派
+ * @since 2025.3.22
+ */
+final class UploadSessions {
+    /**
+     * 会话协议标识（替代旧协议首个int的文件名长度）
+     */
+    static final int MAGIC = 0xF11E5E55;
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+    static final byte ACK = 0;
+    static final byte NACK = 1;
+    static final byte COMPLETE = 2;
+    static final byte INCOMPLETE = 3;
+    static final byte FAILED = 4;
+    static final int END = -1;
+    static final String STAGING_DIR = "file/.uploads";
+
+    private static final int STATE_MAGIC = 0x55504C31;
+    private static final int RECORD_SIZE = 33;
+    private static final int MIN_CHUNK = 64 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024 * 1024;
+    private static final int MAX_FILENAME = 4096;
+
+    private final Map<String, Session> active = new HashMap<>();
+    private final UploadTracker tracker;
+    private final FileListManager fileListManager;
+
+    UploadSessions(UploadTracker tracker, FileListManager fileListManager) {
+        this.tracker = tracker;
+        this.fileListManager = fileListManager;
+    }
+
+    /**
+     * 处理一条会话协议连接（调用方已读取MAGIC）
+     *
+     * @param channel 阻塞模式的数据连接
+     * @throws IOException 网络或磁盘错误时抛出
+     */
+    void serve(SocketChannel channel) throws IOException {
+        Connection connection = new Connection(channel);
+        Session session;
+        try {
+            session = connection.open();
+        } catch (ProtocolException e) {
+            connection.sendError(e.getMessage());
+            return;
+        }
+        try {
+            connection.receive(session);
+        } finally {
+            release(session);
+        }
+    }
+
+    /**
+     * 取得（或恢复、新建）会话，并增加引用计数
+     *
+     * @implNote 在注册表锁内完成加载，并行加入同一会话的连接不会看到未加载完成的会话
+     */
+    private Session acquire(String fileName, long size, int chunkSize, byte[] fileHash) throws IOException {
+        String id = FileHasher.toHex(fileHash);
+        synchronized (active) {
+            Session session = active.get(id);
+            if (session == null) {
+                session = new Session(id, fileName, size, chunkSize, fileHash);
+                try {
+                    session.load();
+                } catch (IOException e) {
+                    session.closeFiles();
+                    throw e;
+                }
+                active.put(id, session);
+            } else if (session.size != size || session.chunkSize != chunkSize) {
+                throw new ProtocolException("同一文件的另一上传正在使用不同的分块参数");
+            }
+            session.refs++;
+            return session;
+        }
+    }
+
+    /**
+     * 连接结束时释放会话；最后一条连接释放后关闭文件（状态已在磁盘上）
+     */
+    private void release(Session session) {
+        synchronized (active) {
+            if (--session.refs > 0) {
+                return;
+            }
+            active.remove(session.id, session); // 整体哈希不符时会话已提前移除，同一id可能已是新会话
+        }
+        session.closeFiles();
+    }
+
+    /**
+     * 单条数据连接
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocateDirect(8 + 4 + 32);
+        private final ByteBuffer reply = ByteBuffer.allocate(5);
+        private final List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        Session open() throws IOException {
+            int nameLength = readInt();
+            if (nameLength <= 0 || nameLength > MAX_FILENAME) {
+                throw new ProtocolException("文件名长度非法: " + nameLength);
+            }
+            ByteBuffer name = ByteBuffer.allocate(nameLength);
+            readFully(name);
+            String fileName = Paths.get(new String(name.array(), StandardCharsets.UTF_8)).getFileName().toString();
+            header.clear().limit(8 + 4 + 32);
+            readFully(header);
+            header.flip();
+            long size = header.getLong();
+            int chunkSize = header.getInt();
+            byte[] fileHash = new byte[32];
+            header.get(fileHash);
+            if (size < 0 || chunkSize < MIN_CHUNK || chunkSize > MAX_CHUNK
+                    || (size + chunkSize - 1) / chunkSize > Integer.MAX_VALUE) {
+                throw new ProtocolException("上传参数非法: size=" + size + " chunkSize=" + chunkSize);
+            }
+            Session session = acquire(fileName, size, chunkSize, fileHash);
+            byte[] bitmap = session.missingBitmap();
+            ByteBuffer out = ByteBuffer.allocate(12 + bitmap.length);
+            out.putInt(STATUS_OK).putInt(session.totalChunks).putInt(bitmap.length).put(bitmap).flip();
+            write(out);
+            return session;
+        }
+
+        void sendError(String reason) throws IOException {
+            byte[] msg = reason.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer out = ByteBuffer.allocate(8 + msg.length);
+            out.putInt(STATUS_ERROR).putInt(msg.length).put(msg).flip();
+            write(out);
+        }
+
+        /**
+         * 接收块直到客户端发送结束标记，块数据直接写入暂存文件，校验交给线程池
+         */
+        void receive(Session session) throws IOException {
+            try {
+                while (true) {
+                    int index = readInt();
+                    if (index == END) {
+                        break;
+                    }
+                    header.clear().limit(4 + 32);
+                    readFully(header);
+                    header.flip();
+                    int length = header.getInt();
+                    byte[] expected = new byte[32];
+                    header.get(expected);
+                    if (index < 0 || index >= session.totalChunks || length != session.chunkLength(index)) {
+                        throw new ProtocolException("块参数非法: index=" + index + " length=" + length);
+                    }
+                    long position = (long) index * session.chunkSize;
+                    session.write(channel, position, length);
+                    pending.add(CompletableFuture.runAsync(() -> sendResult(index,
+                            session.verify(index, position, length, expected) ? ACK : NACK), tracker.verifier()));
+                }
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+                byte result = session.isComplete() ? session.finish() : INCOMPLETE;
+                sendResult(END, result);
+            } finally {
+                // 异常退出时也等校验任务结束，之后才可能关闭会话文件
+                awaitPending();
+            }
+        }
+
+        /**
+         * 等待已提交的校验任务结束（不关心结果）
+         */
+        private void awaitPending() {
+            for (CompletableFuture<Void> task : pending) {
+                try {
+                    task.join();
+                } catch (CompletionException | CancellationException ignored) {
+                    // 结果已通过sendResult发送或连接已断开
+                }
+            }
+        }
+
+        /**
+         * 发送块确认/最终结果（校验线程与接收线程共用，按连接串行化）
+         */
+        private void sendResult(int index, byte status) {
+            synchronized (reply) {
+                try {
+                    reply.clear();
+                    reply.putInt(index).put(status).flip();
+                    write(reply);
+                } catch (IOException ignored) {
+                    // 连接已断开：状态已持久化，客户端重连后按位图续传
+                }
+            }
+        }
+
+        private int readInt() throws IOException {
+            header.clear().limit(4);
+            readFully(header);
+            return header.getInt(0);
+        }
+
+        private void readFully(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+
+        private void write(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
+    /**
+     * 一个文件的上传会话（按整体哈希唯一，可被多条连接共享）
+     */
+    private final class Session {
+        private final String id;
+        private final String fileName;
+        private final long size;
+        private final int chunkSize;
+        private final int totalChunks;
+        private final byte[] fileHash;
+        private final Path partPath;
+        private final Path statePath;
+        private final BitSet verified;
+        private final byte[][] chunkHashes;
+        private FileChannel part;
+        private FileChannel state;
+        private long recordsOffset;
+        /**
+         * 加入本会话的连接数（受{@code active}锁保护）
+         */
+        private int refs;
+        private Byte result;
+        /**
+         * 暂存数据与状态记录的刷盘（组提交）
+         */
+        private final GroupSync dataSync = new GroupSync();
+        private final GroupSync stateSync = new GroupSync();
+
+        Session(String id, String fileName, long size, int chunkSize, byte[] fileHash) {
+            this.id = id;
+            this.fileName = fileName;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.totalChunks = (int) ((size + chunkSize - 1) / chunkSize);
+            this.fileHash = fileHash;
+            Path staging = Paths.get(STAGING_DIR);
+            this.partPath = staging.resolve(id + ".part");
+            this.statePath = staging.resolve(id + ".state");
+            this.verified = new BitSet(totalChunks);
+            this.chunkHashes = new byte[totalChunks][];
+        }
+
+        /**
+         * 打开暂存文件；状态文件与本次参数一致时恢复已验证的块，否则重新开始
+         */
+        void load() throws IOException {
+            Files.createDirectories(partPath.getParent());
+            byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+            recordsOffset = 4 + 8 + 4 + 4 + name.length;
+            boolean resumed = false;
+            if (Files.exists(statePath) && Files.exists(partPath)) {
+                resumed = restore(name);
+            }
+            part = FileChannel.open(partPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            state = FileChannel.open(statePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (!resumed) {
+                part.truncate(0);
+                state.truncate(0);
+                ByteBuffer head = ByteBuffer.allocate((int) recordsOffset);
+                head.putInt(STATE_MAGIC).putLong(size).putInt(chunkSize).putInt(name.length).put(name).flip();
+                while (head.hasRemaining()) {
+                    state.write(head, head.position());
+                }
+                state.force(true);
+            }
+            // 预分配到完整大小：块可按任意顺序写入（transferFrom不能写到文件末尾之后）
+            if (size > 0 && part.size() < size) {
+                part.write(ByteBuffer.allocate(1), size - 1);
+            }
+        }
+
+        private boolean restore(byte[] name) throws IOException {
+            byte[] raw = Files.readAllBytes(statePath);
+            ByteBuffer buf = ByteBuffer.wrap(raw);
+            if (raw.length < recordsOffset || buf.getInt() != STATE_MAGIC || buf.getLong() != size
+                    || buf.getInt() != chunkSize || buf.getInt() != name.length) {
+                return false;
+            }
+            byte[] storedName = new byte[name.length];
+            buf.get(storedName);
+            if (!Arrays.equals(storedName, name)) {
+                return false;
+            }
+            for (int i = 0; i < totalChunks && buf.remaining() >= RECORD_SIZE; i++) {
+                byte flag = buf.get();
+                byte[] hash = new byte[32];
+                buf.get(hash);
+                if (flag == 1) {
+                    verified.set(i);
+                    chunkHashes[i] = hash;
+                }
+            }
+            return true;
+        }
+
+        void closeFiles() {
+            try {
+                if (part != null) {
+                    part.close();
+                }
+                if (state != null) {
+                    state.close();
+                }
+            } catch (IOException e) {
+                System.out.println("关闭上传暂存文件失败: " + e.getMessage());
+            }
+        }
+
+        int chunkLength(int index) {
+            return (int) Math.min(chunkSize, size - (long) index * chunkSize);
+        }
+
+        synchronized byte[] missingBitmap() {
+            byte[] bitmap = new byte[(totalChunks + 7) / 8];
+            for (int i = verified.nextClearBit(0); i < totalChunks; i = verified.nextClearBit(i + 1)) {
+                bitmap[i >> 3] |= (byte) (1 << (i & 7));
+            }
+            return bitmap;
+        }
+
+        /**
+         * 块数据由socket直接写入暂存文件的对应偏移
+         */
+        void write(SocketChannel channel, long position, int length) throws IOException {
+            long pos = position;
+            long remaining = length;
+            while (remaining > 0) {
+                long n = part.transferFrom(channel, pos, remaining);
+                if (n <= 0) {
+                    throw new EOFException("数据块不完整，缺少" + remaining + "字节");
+                }
+                pos += n;
+                remaining -= n;
+            }
+        }
+
+        /**
+         * 校验一块并持久化结果（在校验线程中执行）
+         *
+         * @return 哈希一致返回true
+         */
+        boolean verify(int index, long position, int length, byte[] expected) {
+            try {
+                byte[] actual = FileHasher.digest(part, position, length);
+                if (!Arrays.equals(actual, expected)) {
+                    return false;
+                }
+                // 数据先落盘，再记录为已验证，断电后不会出现"已验证但数据缺失"的块
+                dataSync.force(part);
+                ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+                record.put((byte) 1).put(actual).flip();
+                long offset = recordsOffset + (long) index * RECORD_SIZE;
+                while (record.hasRemaining()) {
+                    offset += state.write(record, offset);
+                }
+                // 记录落盘后才确认，进程崩溃后续传不会重发已确认的块，也不会信任未落盘的记录
+                stateSync.force(state);
+                synchronized (this) {
+                    verified.set(index);
+                    chunkHashes[index] = actual;
+                }
+                return true;
+            } catch (IOException e) {
+                System.out.println("上传块校验失败: " + e.getMessage());
+                return false;
+            }
+        }
+
+        synchronized boolean isComplete() {
+            return verified.cardinality() == totalChunks;
+        }
+
+        /**
+         * 全部块已验证：整体哈希校验通过后移入文件目录并登记（只执行一次）
+         *
+         * @return COMPLETE或FAILED
+         */
+        synchronized byte finish() {
+            if (result != null) {
+                return result;
+            }
+            try {
+                part.truncate(size);
+                if (!Arrays.equals(FileHasher.digest(part, 0, size), fileHash)) {
+                    // 块都对但整体不对，说明OPEN声明的整体哈希有误，暂存作废
+                    System.out.println("上传整体哈希不匹配: " + fileName);
+                    discard();
+                    result = FAILED;
+                    return result;
+                }
+                part.force(true);
+                part.close();
+                state.close();
+                Path target = Paths.get("file").resolve(fileName);
+                Files.move(partPath, target, StandardCopyOption.REPLACE_EXISTING);
+                Files.deleteIfExists(statePath);
+                List<FileInfo.ChunkInfo> chunks = new ArrayList<>(totalChunks);
+                for (int i = 0; i < totalChunks; i++) {
+                    chunks.add(new FileInfo.ChunkInfo(i + 1, FileHasher.toHex(chunkHashes[i])));
+                }
+                fileListManager.registerVerified(new FileInfo(fileName, totalChunks, chunks, size, id, chunkSize), target);
+                System.out.println("文件接收完成: " + target);
+                result = COMPLETE;
+            } catch (IOException e) {
+                System.out.println("上传收尾失败: " + e.getMessage());
+                result = FAILED;
+            }
+            return result;
+        }
+
+        /**
+         * 作废本会话：移出注册表（之后加入的连接重新开始），删除暂存文件
+         */
+        private void discard() throws IOException {
+            synchronized (active) {
+                active.remove(id, this);
+            }
+            verified.clear();
+            closeFiles();
+            Files.deleteIfExists(partPath);
+            Files.deleteIfExists(statePath);
+        }
+    }
+
+    /**
+     * 文件刷盘的组提交：确保调用前已写入的数据落盘
+     *
+     * <p>并发校验的块共用一次{@code force}：等待刷盘锁期间，其他线程开始的刷盘已覆盖本次请求时直接返回，
+     * 否则由本线程一次刷出此前所有请求，避免每块一次整文件fsync。
+     */
+    private static final class GroupSync {
+        private final AtomicLong requested = new AtomicLong();
+        /**
+         * 已被某次force覆盖的请求数（受对象锁保护）
+         */
+        private long covered;
+
+        void force(FileChannel file) throws IOException {
+            long ticket = requested.incrementAndGet();
+            synchronized (this) {
+                if (covered >= ticket) {
+                    return;
+                }
+                long upTo = requested.get();
+                file.force(false);
+                covered = upTo;
+            }
+        }
+    }
+}
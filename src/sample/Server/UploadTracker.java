@@ -0,0 +1,355 @@
+package sample.Server;
+
+import sample.AllNeed.FileHasher;
+import sample.AllNeed.FileInfo;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上传校验跟踪器
+ *
+ * <p>客户端上传时在控制通道发送元数据，在文件端口发送数据：
+ * <pre>
+ * 控制通道：UPLOAD_META#文件名#大小#整体哈希
+ *          UPLOAD_CHUNK#块序号(从0开始)#块长度#块哈希   （每块一条，先于该块数据发送）
+ * 文件端口：文件名 + [块大小][块数据]...                 （见{@link Server.FileTransferHandler}）
+ * </pre>
+ * 两条连接按"客户端IP + 文件名"关联。每块数据落盘后即提交到有界校验线程池，
+ * 从文件按位置读回并计算SHA-256，与控制通道声明的块哈希比对；此时下一块仍在接收中。
+ *
+ * <p>任一块不匹配立即拒绝：向客户端发送{@code UPLOAD_REJECTED#文件名#块序号#原因}，
+ * 关闭数据连接并删除已接收部分。全部块通过校验后再计算整体SHA-256与声明的整体哈希比对，
+ * 一致的文件直接以已验证的哈希登记到{@link sample.AllNeed.FileListManager}，不再重新计算。
+ *
+ * <p>本类服务于旧协议的上传；当前客户端使用可续传的会话协议（{@link UploadSessions}），
+ * 块哈希随数据一起发送，共用本类的校验线程池。
+ *
+ * <p>校验线程池大小为CPU核数，队列满时由接收线程自己计算（CallerRunsPolicy），
+ * 以此对过快的上传形成背压，内存占用不随并发上传数增长。
+ *
+ * @see Server#handleCommand 控制通道元数据入口
+ * @since 2025.3.22
+ */
+final class UploadTracker {
+    static final String META = "UPLOAD_META";
+    static final String CHUNK = "UPLOAD_CHUNK";
+    static final String REJECTED = "UPLOAD_REJECTED";
+    /**
+     * 数据接收完毕后等待剩余校验结果的最长时间
+     */
+    private static final long FINISH_TIMEOUT_SECONDS = 30;
+
+    private final ConcurrentHashMap<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ClientSession, Upload> activeBySession = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor verifier;
+
+    UploadTracker() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        AtomicInteger seq = new AtomicInteger();
+        this.verifier = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 2), r -> {
+            Thread t = new Thread(r, "upload-verify-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.verifier.allowCoreThreadTimeOut(true);
+    }
+
+    private static String key(String ip, String fileName) {
+        return ip + "/" + fileName;
+    }
+
+    private Upload upload(String ip, String fileName) {
+        return uploads.computeIfAbsent(key(ip, fileName), k -> new Upload(k, fileName));
+    }
+
+    /**
+     * 控制通道：登记一次上传的元数据（UPLOAD_META）
+     *
+     * @param session 发送元数据的会话（用于回送拒绝通知）
+     * @param ip      会话的客户端IP
+     * @param parts   按"#"拆分的指令：META、文件名、大小、整体哈希
+     */
+    void onMeta(ClientSession session, String ip, String[] parts) {
+        if (parts.length < 4) {
+            return;
+        }
+        Upload upload = upload(ip, parts[1]);
+        upload.session = session;
+        upload.fileHash = parts[3];
+        try {
+            upload.declaredSize = Long.parseLong(parts[2]);
+        } catch (NumberFormatException ignored) {
+            // 大小仅用于完整性检查，格式错误时跳过该项
+        }
+        activeBySession.put(session, upload);
+    }
+
+    /**
+     * 控制通道：登记一个块的期望哈希（UPLOAD_CHUNK，归属该会话最近一次UPLOAD_META）
+     *
+     * @param session 发送元数据的会话
+     * @param parts   按"#"拆分的指令：CHUNK、块序号、块长度、块哈希
+     */
+    void onChunk(ClientSession session, String[] parts) {
+        Upload upload = activeBySession.get(session);
+        if (upload == null || parts.length < 4) {
+            return;
+        }
+        try {
+            upload.expected(Integer.parseInt(parts[1])).complete(parts[3]);
+        } catch (NumberFormatException ignored) {
+            // 序号非法的块无法关联，该块最终按缺少元数据处理
+        }
+    }
+
+    /**
+     * 会话断开时清理其未开始传输的上传记录
+     */
+    void forget(ClientSession session) {
+        Upload upload = activeBySession.remove(session);
+        if (upload != null && upload.channel == null) {
+            uploads.remove(upload.key, upload);
+        }
+    }
+
+    /**
+     * 文件端口：数据连接开始接收，取得（或创建）对应的上传记录
+     *
+     * @param ip       数据连接的客户端IP
+     * @param fileName 文件名
+     * @param channel  数据连接（拒绝时由校验线程关闭以中止接收）
+     * @return 上传记录
+     */
+    Upload open(String ip, String fileName, Channel channel) {
+        Upload upload = upload(ip, fileName);
+        upload.channel = channel;
+        return upload;
+    }
+
+    /**
+     * 单次上传的校验状态
+     */
+    final class Upload {
+        private final String key;
+        private final String fileName;
+        private final Map<Integer, CompletableFuture<String>> expected = new ConcurrentHashMap<>();
+        /**
+         * 每块的校验结果；收到元数据之前到达的块暂为null，元数据到达后补交校验
+         */
+        private final List<CompletableFuture<String>> verdicts = new ArrayList<>();
+        /**
+         * 收到元数据之前到达的块：块序号 → {起始位置, 长度}（只由接收线程访问）
+         */
+        private final Map<Integer, long[]> deferred = new HashMap<>();
+        /**
+         * 仍在读取文件的块哈希计算，关闭文件前须等待完成
+         */
+        private final List<CompletableFuture<String>> reads = new ArrayList<>();
+        private volatile ClientSession session;
+        private volatile String fileHash;
+        private volatile long declaredSize = -1;
+        private volatile Channel channel;
+        private volatile String rejection;
+
+        Upload(String key, String fileName) {
+            this.key = key;
+            this.fileName = fileName;
+        }
+
+        private CompletableFuture<String> expected(int index) {
+            return expected.computeIfAbsent(index, i -> new CompletableFuture<>());
+        }
+
+        /**
+         * 提交一个已落盘块的校验（由接收线程调用，不等待结果）
+         *
+         * @param file     目标文件通道（按位置读取，不影响接收写入）
+         * @param index    块序号（从0开始）
+         * @param position 块在文件中的起始位置
+         * @param length   块长度
+         */
+        void verify(FileChannel file, int index, long position, int length) {
+            if (session == null) {
+                // 未收到UPLOAD_META（控制通道可能晚于数据到达）：块已落盘，元数据到达后再按位置读回校验
+                verdicts.add(null);
+                deferred.put(index, new long[]{position, length});
+                return;
+            }
+            submitDeferred(file);
+            verdicts.add(submit(file, index, position, length));
+        }
+
+        /**
+         * 补交元数据到达之前落盘的块
+         */
+        private void submitDeferred(FileChannel file) {
+            for (Map.Entry<Integer, long[]> range : deferred.entrySet()) {
+                int index = range.getKey();
+                verdicts.set(index, submit(file, index, range.getValue()[0], (int) range.getValue()[1]));
+            }
+            deferred.clear();
+        }
+
+        private CompletableFuture<String> submit(FileChannel file, int index, long position, int length) {
+            CompletableFuture<String> actual = CompletableFuture.supplyAsync(() -> hash(file, position, length), verifier);
+            CompletableFuture<String> verdict = actual.thenCombine(expected(index), (got, want) -> {
+                if (!got.equalsIgnoreCase(want)) {
+                    reject(index, "块哈希不匹配");
+                }
+                return got;
+            });
+            verdict.exceptionally(e -> {
+                reject(index, "块校验失败: " + e.getMessage());
+                return null;
+            });
+            reads.add(actual);
+            return verdict;
+        }
+
+        /**
+         * 等待仍在读取文件的块哈希计算结束（接收线程关闭文件前调用），
+         * 避免关闭后的读取失败被当作校验失败而误发拒绝通知
+         */
+        void drain() {
+            for (CompletableFuture<String> read : reads) {
+                try {
+                    read.get(FINISH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException | TimeoutException ignored) {
+                    // 只等待读取结束，结果由verdict处理
+                }
+            }
+        }
+
+        boolean isRejected() {
+            return rejection != null;
+        }
+
+        String getRejection() {
+            return rejection;
+        }
+
+        /**
+         * 拒绝本次上传：通知客户端并关闭数据连接（只生效一次）
+         */
+        private void reject(int index, String reason) {
+            synchronized (this) {
+                if (rejection != null) {
+                    return;
+                }
+                rejection = "第" + index + "块" + reason;
+            }
+            ClientSession s = session;
+            if (s != null) {
+                s.sendMessage(REJECTED + "#" + fileName + "#" + index + "#" + reason);
+            }
+            Channel c = channel;
+            if (c != null) {
+                try {
+                    c.close();
+                } catch (IOException ignored) {
+                    // 只为中止接收
+                }
+            }
+        }
+
+        /**
+         * 数据接收完毕：等待全部块的校验结果，再校验整体哈希
+         *
+         * @param file 已接收的文件（计算整体SHA-256）
+         * @param size 实际接收的字节数
+         * @return 全部块与整体哈希已验证时返回以已验证哈希构造的文件信息；客户端未提供元数据时返回null
+         * @throws IOException 任一块校验失败、大小或整体哈希不符时抛出
+         */
+        FileInfo finish(FileChannel file, long size) throws IOException {
+            try {
+                if (session == null) {
+                    return null; // 未收到UPLOAD_META：旧版客户端或其他上传方式，不做校验
+                }
+                submitDeferred(file);
+                List<FileInfo.ChunkInfo> chunks = new ArrayList<>(verdicts.size());
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(FINISH_TIMEOUT_SECONDS);
+                for (int i = 0; i < verdicts.size(); i++) {
+                    String hash;
+                    try {
+                        hash = verdicts.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException e) {
+                        throw new IOException("第" + i + "块缺少校验元数据");
+                    }
+                    if (rejection != null || hash == null) {
+                        throw new IOException("上传被拒绝: " + rejection);
+                    }
+                    chunks.add(new FileInfo.ChunkInfo(i + 1, hash));
+                }
+                if (rejection != null) {
+                    throw new IOException("上传被拒绝: " + rejection);
+                }
+                if (declaredSize >= 0 && declaredSize != size) {
+                    reject(verdicts.size(), "文件大小不符（声明" + declaredSize + "，实收" + size + "）");
+                    throw new IOException("上传被拒绝: " + rejection);
+                }
+                // 块哈希由控制通道逐块声明，整体哈希同样来自客户端，须按实收数据重新计算
+                String actual = FileHasher.toHex(FileHasher.digest(file, 0, size));
+                if (!actual.equalsIgnoreCase(fileHash)) {
+                    reject(verdicts.size(), "整体哈希不匹配");
+                    throw new IOException("上传被拒绝: " + rejection);
+                }
+                return new FileInfo(fileName, chunks.size(), chunks, size, actual);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("校验被中断", e);
+            } catch (ExecutionException e) {
+                throw new IOException("上传被拒绝: " + rejection, e);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * 结束跟踪（接收异常时由接收线程调用，重复调用无副作用）
+         */
+        void close() {
+            uploads.remove(key, this);
+            ClientSession s = session;
+            if (s != null) {
+                activeBySession.remove(s, this);
+            }
+        }
+    }
+
+    /**
+     * 分块校验线程池（有界，队列满时由提交线程自己执行）
+     */
+    Executor verifier() {
+        return verifier;
+    }
+
+    /**
+     * 按位置读取文件区间并计算SHA-256（在校验线程中执行）
+     */
+    private static String hash(FileChannel file, long position, int length) {
+        try {
+            return FileHasher.toHex(FileHasher.digest(file, position, length));
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
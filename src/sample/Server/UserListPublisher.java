@@ -0,0 +1,91 @@
+package sample.Server;
+
+import sample.AllNeed.ControlFrame;
+import sample.AllNeed.FrameWriter;
+
+import java.io.PrintWriter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 在线列表增量推送
+ *
+ * <p>客户端发送{@value #SUBSCRIBE}订阅后，先收到一份带版本号的完整快照，此后每次登录/掉线
+ * 只推送一行增量事件，不再需要反复请求并解析完整的USER_LIST：
+ * <pre>
+ * USER_SNAPSHOT            快照标识
+ * &lt;version&gt;                注册表版本号
+ * [{"NAME":..,"IP":..,"PORT":..}, ...]   单行JSON数组
+ *
+ * USER_DELTA#&lt;version&gt;#JOIN#昵称#IP#端口
+ * USER_DELTA#&lt;version&gt;#LEAVE#昵称#IP#端口
+ * </pre>
+ * 分帧协议下快照为一个{@link ControlFrame#USER_SNAPSHOT}帧（负载"版本号\nJSON"），增量为TEXT帧。
+ *
+ * <p>增量在注册表锁内入队，各客户端收到的版本号严格连续；增量按广播计入发送队列容量，
+ * 慢客户端丢失增量时会发现版本号跳变，重新发送{@value #SUBSCRIBE}获取快照即可恢复。
+ *
+ * @see UserRegistry.Listener 变更来源
+ * @since 2025.3.22
+ */
+final class UserListPublisher implements UserRegistry.Listener {
+    static final String SUBSCRIBE = "subscribeUsers";
+    static final String SNAPSHOT = "USER_SNAPSHOT";
+    static final String DELTA = "USER_DELTA";
+
+    private final UserRegistry registry;
+    private final BroadcastFanout fanout;
+    private final Set<ClientSession> subscribers = ConcurrentHashMap.newKeySet();
+
+    UserListPublisher(UserRegistry registry, BroadcastFanout fanout) {
+        this.registry = registry;
+        this.fanout = fanout;
+        registry.setListener(this);
+    }
+
+    /**
+     * 订阅（或重新订阅）在线列表：发送当前快照，之后推送增量
+     *
+     * @param session 订阅的会话
+     * @param out     该会话的应答输出
+     * @implNote 在注册表锁内登记订阅并写出快照，快照与第一条增量之间不会遗漏或重复
+     */
+    void subscribe(ClientSession session, PrintWriter out) {
+        synchronized (registry) {
+            subscribers.add(session);
+            UserRegistry.Snapshot snapshot = registry.snapshot();
+            if (out instanceof FrameWriter) {
+                ((FrameWriter) out).sendFrame(ControlFrame.USER_SNAPSHOT, snapshot.version + "\n" + snapshot.toJson());
+                return;
+            }
+            out.println(SNAPSHOT);
+            out.println(snapshot.version);
+            out.println(snapshot.toJson());
+        }
+    }
+
+    void unsubscribe(ClientSession session) {
+        subscribers.remove(session);
+    }
+
+    @Override
+    public void onJoin(long version, UserRegistry.OnlineUser user) {
+        publish(version, "JOIN", user);
+    }
+
+    @Override
+    public void onLeave(long version, UserRegistry.OnlineUser user) {
+        publish(version, "LEAVE", user);
+    }
+
+    private void publish(long version, String type, UserRegistry.OnlineUser user) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        OutboundMessage message = OutboundMessage.broadcast(DELTA + "#" + version + "#" + type + "#"
+                + user.nickname + "#" + user.ip + "#" + user.port, null);
+        for (ClientSession session : subscribers) {
+            fanout.deliver(session, message);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package sample.Server;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 在线用户注册表（线程安全）
+ *
+ * <p>替代原先无同步保护的{@code ArrayList<HashMap>}在线列表与{@code userThreads}线程列表：
+ * <ul>
+ *   <li><b>双索引</b>：按昵称、按"IP:端口"两个{@link ConcurrentHashMap}实现O(1)查找与唯一性校验</li>
+ *   <li><b>无锁遍历</b>：广播遍历{@link #users()}为弱一致迭代，不阻塞登录/掉线</li>
+ *   <li><b>紧凑值对象</b>：每个用户一个不可变{@link OnlineUser}，不再为每人分配HashMap</li>
+ *   <li><b>版本号</b>：每次登录/掉线单调递增，{@link #snapshot()}按版本缓存，未变化时直接复用</li>
+ *   <li><b>变更通知</b>：{@link Listener}在持有注册表锁时按版本顺序收到每次登录/掉线</li>
+ * </ul>
+ *
+ * <p>写操作（登记/注销）在注册表对象上串行化，读操作全部无锁。
+ * 需要"快照 + 后续增量"无缝衔接的调用方可在注册表对象上同步，期间版本不会变化。
+ *
+ * @see Server 注册表持有者
+ * @since 2025.3.22
+ */
+public final class UserRegistry {
+    private static final Gson GSON = new Gson();
+
+    private final ConcurrentHashMap<String, OnlineUser> byNickname = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, OnlineUser> byAddress = new ConcurrentHashMap<>();
+    private volatile long version;
+    private volatile Snapshot cached = new Snapshot(0, Collections.<OnlineUser>emptyList());
+    private long joinSequence;
+    private volatile Listener listener;
+
+    private static String addressKey(String ip, String port) {
+        return ip + ":" + port;
+    }
+
+    /**
+     * 设置变更监听器（只支持一个，重复设置会覆盖）
+     *
+     * @param listener 监听器，null表示取消
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 登记在线用户
+     *
+     * @param nickname 昵称
+     * @param ip       客户端文件服务IP
+     * @param port     客户端文件服务端口
+     * @param session  对应的控制通道会话
+     * @return 登记成功的用户；昵称或"IP:端口"已被占用时返回null
+     */
+    public synchronized OnlineUser register(String nickname, String ip, String port, ClientSession session) {
+        String address = addressKey(ip, port);
+        if (byNickname.containsKey(nickname) || byAddress.containsKey(address)) {
+            return null;
+        }
+        OnlineUser user = new OnlineUser(nickname, ip, port, session, ++joinSequence);
+        byNickname.put(nickname, user);
+        byAddress.put(address, user);
+        version++;
+        Listener l = listener;
+        if (l != null) {
+            l.onJoin(version, user);
+        }
+        return user;
+    }
+
+    /**
+     * 注销在线用户（重复调用无副作用）
+     *
+     * @param user 待注销用户
+     * @return 确实移除返回true
+     */
+    public synchronized boolean unregister(OnlineUser user) {
+        if (user == null || !byNickname.remove(user.nickname, user)) {
+            return false;
+        }
+        byAddress.remove(addressKey(user.ip, user.port), user);
+        version++;
+        Listener l = listener;
+        if (l != null) {
+            l.onLeave(version, user);
+        }
+        return true;
+    }
+
+    public OnlineUser findByNickname(String nickname) {
+        return byNickname.get(nickname);
+    }
+
+    public OnlineUser findByAddress(String ip, String port) {
+        return byAddress.get(addressKey(ip, port));
+    }
+
+    /**
+     * 无锁遍历全部在线用户（弱一致：遍历期间的增删可能可见也可能不可见）
+     *
+     * @return 在线用户视图
+     */
+    public Collection<OnlineUser> users() {
+        return byNickname.values();
+    }
+
+    public int size() {
+        return byNickname.size();
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * 获取当前版本的不可变快照（版本未变化时返回缓存实例）
+     *
+     * @return 按登录顺序排列的在线用户快照
+     */
+    public Snapshot snapshot() {
+        Snapshot current = cached;
+        if (current.version == version) {
+            return current;
+        }
+        synchronized (this) {
+            if (cached.version != version) {
+                List<OnlineUser> users = new ArrayList<>(byNickname.values());
+                users.sort(Comparator.comparingLong(u -> u.joinSequence));
+                cached = new Snapshot(version, Collections.unmodifiableList(users));
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * 注册表变更监听器
+     *
+     * <p>回调在注册表锁内执行，因此各次回调严格按版本号顺序发生；实现必须快速返回且不得阻塞
+     */
+    public interface Listener {
+        /**
+         * @param version 登记后的注册表版本
+         * @param user    新登录用户
+         */
+        void onJoin(long version, OnlineUser user);
+
+        /**
+         * @param version 注销后的注册表版本
+         * @param user    掉线用户
+         */
+        void onLeave(long version, OnlineUser user);
+    }
+
+    /**
+     * 在线用户值对象（不可变）
+     *
+     * <p>JSON字段名沿用原HashMap的NAME/IP/PORT键，客户端解析逻辑无需修改
+     */
+    public static final class OnlineUser {
+        @SerializedName("NAME")
+        public final String nickname;
+        @SerializedName("IP")
+        public final String ip;
+        @SerializedName("PORT")
+        public final String port;
+        final transient ClientSession session;
+        final transient long joinSequence;
+
+        OnlineUser(String nickname, String ip, String port, ClientSession session, long joinSequence) {
+            this.nickname = nickname;
+            this.ip = ip;
+            this.port = port;
+            this.session = session;
+            this.joinSequence = joinSequence;
+        }
+
+        public ClientSession getSession() {
+            return session;
+        }
+    }
+
+    /**
+     * 注册表快照：固定版本号下的在线用户列表及其JSON序列化结果（惰性生成后缓存）
+     */
+    public static final class Snapshot {
+        public final long version;
+        public final List<OnlineUser> users;
+        private volatile String json;
+
+        Snapshot(long version, List<OnlineUser> users) {
+            this.version = version;
+            this.users = users;
+        }
+
+        /**
+         * @return 与原USER_LIST负载格式一致的JSON数组
+         */
+        public String toJson() {
+            String result = json;
+            if (result == null) {
+                json = result = GSON.toJson(users);
+            }
+            return result;
+        }
+    }
+}